@@ -0,0 +1,86 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.util.concurrent.ForkJoinPool;
+
+import stroke.ParallelScanlineFill;
+import stroke.ScanlineFill;
+
+/**
+ * Flood fill on a TiledCanvas.
+ *
+ * The tiles are copied into one int[] with a bulk getPixels per tile, the fill
+ * runs on that array with ScanlineFill, and only the span each row actually
+ * changed is written back with setPixels. Nothing goes through per-pixel
+ * getPixel/setPixel calls. The array is kept for the next fill.
+ *
+ * From API 21 on the tolerance test of large canvases is spread over a
+ * ForkJoinPool.
+ */
+class BucketFill {
+
+	private final String TAG = getClass().getSimpleName();
+
+	private final ScanlineFill fill = Build.VERSION.SDK_INT >= 21 ? Parallel.create() : new ScanlineFill();
+
+	private int[] pixels = new int[0];
+
+	/**
+	 * fill the region connected to a point with a color
+	 *
+	 * @param canvas    canvas to fill, changed in place
+	 * @param x         seed in canvas coordinates
+	 * @param y         seed in canvas coordinates
+	 * @param color     ARGB fill color
+	 * @param tolerance largest per-channel difference to the seed color still filled, 0..255
+	 * @return number of pixels filled
+	 */
+	public int fill(TiledCanvas canvas, int x, int y, int color, int tolerance) {
+		int width = canvas.getWidth();
+		int height = canvas.getHeight();
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return 0;
+		}
+
+		long start = System.nanoTime();
+		if (pixels.length != width * height) {
+			pixels = new int[width * height];
+		}
+
+		canvas.readPixels(pixels);
+		int filled = fill.fill(pixels, width, height, x, y, color, tolerance);
+
+		int rowsWritten = 0;
+		for (int row = fill.getFirstRow(); row <= fill.getLastRow(); row++) {
+			if (fill.getRowStart(row) < fill.getRowEnd(row)) {
+				canvas.writeRow(pixels, row, fill.getRowStart(row), fill.getRowEnd(row));
+				rowsWritten++;
+			}
+		}
+
+		Log.v(TAG, "Filled " + filled + " pixels in " + rowsWritten + " rows in " + (System.nanoTime() - start) / 1000000 + " ms");
+		return filled;
+	}
+
+	/**
+	 * drop the pixel copy, e.g. when the activity goes to the background
+	 */
+	public void release() {
+		pixels = new int[0];
+	}
+
+	/**
+	 * only loaded on API 21+, where ForkJoinPool exists
+	 */
+	private static class Parallel {
+
+		/// ForkJoinPool.commonPool() is API 24
+		private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+		static ScanlineFill create() {
+			return new ParallelScanlineFill(POOL);
+		}
+	}
+}
@@ -10,6 +10,7 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
+import android.graphics.PorterDuff;
 import android.media.MediaScannerConnection;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
@@ -54,9 +55,36 @@ import static android.graphics.Bitmap.Config;
 public class DrawingActivity extends Activity {
 
 	public static final String EXTRA_PICTURE_PATH = "picturePath";
+	/// stroke journal in the files dir, survives crashes
+	private static final String STROKE_JOURNAL_FILE = "strokes.journal";
+	/// tile store of the incremental autosave in the files dir
+	private static final String AUTOSAVE_DIRECTORY = "autosave";
 	private static ArrayList<Bitmap> bitmapHistory = new ArrayList<Bitmap>();
 	private final String TAG = getClass().getSimpleName();
 	private final int MENU_PRINT = 3;
+	private final int MENU_ASYNC_RENDERING = 4;
+	private final int MENU_SELECT_STROKE = 5;
+	private final int MENU_NEW_LAYER = 6;
+	private final int MENU_LAYERS = 7;
+	private final int MENU_LAYER_BLEND_MODE = 8;
+	private final int MENU_LAYER_OPACITY = 9;
+	private final int MENU_NAVIGATE = 10;
+	private final int MENU_RESET_ZOOM = 11;
+	private final int MENU_BRUSH_STYLE = 12;
+	private final int MENU_VARIABLE_WIDTH = 13;
+	private final int MENU_REPLAY = 14;
+
+	/// blend modes offered for layers, with their names
+	private static final PorterDuff.Mode[] LAYER_BLEND_MODES = {
+		PorterDuff.Mode.SRC_OVER, PorterDuff.Mode.DARKEN, PorterDuff.Mode.LIGHTEN, PorterDuff.Mode.SCREEN, PorterDuff.Mode.OVERLAY
+	};
+	private static final String[] LAYER_BLEND_MODE_NAMES = {"Normal", "Darken", "Lighten", "Screen", "Overlay"};
+
+	private static final int[] LAYER_OPACITIES = {255, 192, 128, 64};
+	private static final String[] LAYER_OPACITY_NAMES = {"100%", "75%", "50%", "25%"};
+
+	/// indexed by StrokeLog.BRUSH_*
+	private static final String[] BRUSH_STYLE_NAMES = {"Round", "Airbrush", "Pencil", "Marker"};
 	private ActivityTime activityTime;
 	//top panel Buttons
 	private DrawingPanel drawingPanel;
@@ -107,6 +135,22 @@ public class DrawingActivity extends Activity {
 			eraserBrushDialog.show();
 		}
 	};
+	private View.OnClickListener onUndoClick = new View.OnClickListener() {
+		@Override
+		public void onClick(View v) {
+			if (!drawingPanel.undo()) {
+				Toast.makeText(DrawingActivity.this, "Nothing to undo", Toast.LENGTH_SHORT).show();
+			}
+		}
+	};
+	private View.OnClickListener onRedoClick = new View.OnClickListener() {
+		@Override
+		public void onClick(View v) {
+			if (!drawingPanel.redo()) {
+				Toast.makeText(DrawingActivity.this, "Nothing to redo", Toast.LENGTH_SHORT).show();
+			}
+		}
+	};
 	private View.OnClickListener onSaveClick = new View.OnClickListener() {
 		@Override
 		public void onClick(View v) {
@@ -135,6 +179,8 @@ public class DrawingActivity extends Activity {
 	private DialogInterface.OnClickListener onExitWithoutSaveClick = new DialogInterface.OnClickListener() {
 		@Override
 		public void onClick(DialogInterface dialog, int which) {
+			drawingPanel.clearJournal();
+			drawingPanel.clearAutosave();
 			DrawingActivity.super.onBackPressed();
 		}
 	};
@@ -142,6 +188,8 @@ public class DrawingActivity extends Activity {
 		@Override
 		public void onClick(DialogInterface dialog, int which) {
 			saveToFile(false);
+			drawingPanel.clearJournal();
+			drawingPanel.clearAutosave();
 			DrawingActivity.super.onBackPressed();
 		}
 	};
@@ -205,9 +253,20 @@ public class DrawingActivity extends Activity {
 
 		drawingPanel = findViewById(R.id.drawing_panel);
 
+		// set first, so the restore below can load the autosaved tiles instead of replaying every stroke
+		drawingPanel.setAutosaveDirectory(new File(getFilesDir(), AUTOSAVE_DIRECTORY));
+
+		// bring back the drawing lost by the last crash, if any
+		int restoredStrokes = drawingPanel.restoreFromJournal(new File(getFilesDir(), STROKE_JOURNAL_FILE));
+		if (restoredStrokes > 0) {
+			TestFairy.addEvent("Restored " + restoredStrokes + " strokes from journal");
+		}
+
 		colorPickerButton = (ImageButton) findViewById(R.id.color_picker);
 		View painterPickerButton = findViewById(R.id.painter_picker);
 		View erasePickerButton = findViewById(R.id.erase_picker);
+		View undoButton = findViewById(R.id.undo_button);
+		View redoButton = findViewById(R.id.redo_button);
 
 		View saveButton = null;
 		View shareButton = null;
@@ -229,6 +288,8 @@ public class DrawingActivity extends Activity {
 		colorPickerButton.setOnClickListener(onColorPickerClick);
 		painterPickerButton.setOnClickListener(onPainterPickerClick);
 		erasePickerButton.setOnClickListener(onEraserPickerClick);
+		undoButton.setOnClickListener(onUndoClick);
+		redoButton.setOnClickListener(onRedoClick);
 		saveButton.setOnClickListener(onSaveClick);
 		shareButton.setOnClickListener(onShareClick);
 
@@ -310,12 +371,38 @@ public class DrawingActivity extends Activity {
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		menu.add(1, MENU_PRINT, 1, "Print");
+		menu.add(1, MENU_ASYNC_RENDERING, 2, "Render off UI thread")
+			.setCheckable(true)
+			.setChecked(drawingPanel.isAsyncRendering());
+		menu.add(1, MENU_SELECT_STROKE, 3, "Select stroke")
+			.setCheckable(true);
+		menu.add(1, MENU_NEW_LAYER, 4, "New layer");
+		menu.add(1, MENU_LAYERS, 5, "Layers");
+		menu.add(1, MENU_LAYER_BLEND_MODE, 6, "Layer blend mode");
+		menu.add(1, MENU_LAYER_OPACITY, 7, "Layer opacity");
+		menu.add(1, MENU_NAVIGATE, 8, "Zoom and pan")
+			.setCheckable(true);
+		menu.add(1, MENU_RESET_ZOOM, 9, "Reset zoom");
+		menu.add(1, MENU_BRUSH_STYLE, 10, "Brush style");
+		menu.add(1, MENU_VARIABLE_WIDTH, 11, "Pressure and speed width")
+			.setCheckable(true)
+			.setChecked(drawingPanel.isVariableWidth());
+		menu.add(1, MENU_REPLAY, 12, "Replay drawing");
 
 		return super.onCreateOptionsMenu(menu);
 
 
 	}
 
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		// the tool may have been changed from the brush dialogs since
+		menu.findItem(MENU_SELECT_STROKE).setChecked(drawingPanel.getTool() == DrawingPanel.TOOL_SELECT);
+		menu.findItem(MENU_NAVIGATE).setChecked(drawingPanel.getTool() == DrawingPanel.TOOL_NAVIGATE);
+		menu.findItem(MENU_RESET_ZOOM).setEnabled(drawingPanel.getZoom() != 1);
+		return super.onPrepareOptionsMenu(menu);
+	}
+
 	@Override
 	public boolean onMenuOpened(int featureId, Menu menu) {
 		Log.v("testfairy-checkpoint", "Drawing Menu Opened");
@@ -332,12 +419,139 @@ public class DrawingActivity extends Activity {
 				startActivity(intent);
 				break;
 
+			case MENU_ASYNC_RENDERING:
+				item.setChecked(!item.isChecked());
+				drawingPanel.setAsyncRendering(item.isChecked());
+				break;
+
+			case MENU_SELECT_STROKE:
+				item.setChecked(!item.isChecked());
+				drawingPanel.setTool(item.isChecked() ? DrawingPanel.TOOL_SELECT : DrawingPanel.TOOL_BRUSH);
+				break;
+
+			case MENU_NEW_LAYER:
+				int layer = drawingPanel.addLayer();
+				Toast.makeText(this, "Drawing on layer " + (layer + 1), Toast.LENGTH_SHORT).show();
+				break;
+
+			case MENU_LAYERS:
+				showLayersDialog();
+				break;
+
+			case MENU_NAVIGATE:
+				item.setChecked(!item.isChecked());
+				drawingPanel.setTool(item.isChecked() ? DrawingPanel.TOOL_NAVIGATE : DrawingPanel.TOOL_BRUSH);
+				break;
+
+			case MENU_RESET_ZOOM:
+				drawingPanel.resetZoom();
+				break;
+
+			case MENU_LAYER_BLEND_MODE:
+				showLayerBlendModeDialog();
+				break;
+
+			case MENU_LAYER_OPACITY:
+				showLayerOpacityDialog();
+				break;
+
+			case MENU_BRUSH_STYLE:
+				showBrushStyleDialog();
+				break;
+
+			case MENU_VARIABLE_WIDTH:
+				item.setChecked(!item.isChecked());
+				drawingPanel.setVariableWidth(item.isChecked());
+				break;
+
+			case MENU_REPLAY:
+				intent = new Intent(DrawingActivity.this, ReplayActivity.class);
+				intent.putExtra(ReplayActivity.EXTRA_JOURNAL, new File(getFilesDir(), STROKE_JOURNAL_FILE).getPath());
+				startActivity(intent);
+				break;
+
 			default:
 				break;
 		}
 		return super.onOptionsItemSelected(item);
 	}
 
+	/**
+	 * pick the layer to draw on, the top layer is listed first
+	 */
+	private void showLayersDialog() {
+		final int count = drawingPanel.getLayerCount();
+		String[] names = new String[count];
+		for (int i = 0; i < count; i++) {
+			names[i] = "Layer " + (count - i);
+		}
+
+		new AlertDialog.Builder(this)
+			.setTitle("Layers")
+			.setSingleChoiceItems(names, count - 1 - drawingPanel.getActiveLayer(), new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					drawingPanel.setActiveLayer(count - 1 - which);
+					dialog.dismiss();
+				}
+			})
+			.create().show();
+	}
+
+	private void showLayerBlendModeDialog() {
+		int checked = 0;
+		for (int i = 0; i < LAYER_BLEND_MODES.length; i++) {
+			if (LAYER_BLEND_MODES[i] == drawingPanel.getLayerBlendMode()) {
+				checked = i;
+			}
+		}
+
+		new AlertDialog.Builder(this)
+			.setTitle("Layer blend mode")
+			.setSingleChoiceItems(LAYER_BLEND_MODE_NAMES, checked, new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					drawingPanel.setLayerBlendMode(LAYER_BLEND_MODES[which]);
+					dialog.dismiss();
+				}
+			})
+			.create().show();
+	}
+
+	private void showLayerOpacityDialog() {
+		int checked = 0;
+		for (int i = 0; i < LAYER_OPACITIES.length; i++) {
+			if (LAYER_OPACITIES[i] == drawingPanel.getLayerOpacity()) {
+				checked = i;
+			}
+		}
+
+		new AlertDialog.Builder(this)
+			.setTitle("Layer opacity")
+			.setSingleChoiceItems(LAYER_OPACITY_NAMES, checked, new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					drawingPanel.setLayerOpacity(LAYER_OPACITIES[which]);
+					dialog.dismiss();
+				}
+			})
+			.create().show();
+	}
+
+	private void showBrushStyleDialog() {
+		new AlertDialog.Builder(this)
+			.setTitle("Brush style")
+			.setSingleChoiceItems(BRUSH_STYLE_NAMES, drawingPanel.getBrush(), new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					drawingPanel.setBrush(which);
+					TestFairy.addEvent("Selected " + BRUSH_STYLE_NAMES[which] + " brush");
+					dialog.dismiss();
+				}
+			})
+			.create().show();
+	}
+
 	@Override
 	protected void onStart() {
 		activityTime = new ActivityTime("Drawing");
@@ -360,6 +574,8 @@ public class DrawingActivity extends Activity {
 		private Button smallBrushButton;
 		private Button mediumBrushButton;
 		private Button largeBrushButton;
+		private Button strokeEraserButton;
+		private Button bucketFillButton;
 		private View.OnClickListener onBrushSelectorClick = new View.OnClickListener() {
 			@Override
 			public void onClick(View v) {
@@ -367,6 +583,7 @@ public class DrawingActivity extends Activity {
 				BrushSizeDialog.this.dismiss();
 				int brushSize = Integer.parseInt((String) v.getTag());
 				drawingPanel.setBrushSize(brushSize);
+				drawingPanel.setTool(DrawingPanel.TOOL_BRUSH);
 				if (currentBrushMode == PAINT_BRUSH) {
 					drawingPanel.setEraseMode(false);
 				} else {
@@ -375,6 +592,23 @@ public class DrawingActivity extends Activity {
 			}
 		};
 
+		private View.OnClickListener onStrokeEraserClick = new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				BrushSizeDialog.this.dismiss();
+				drawingPanel.setTool(DrawingPanel.TOOL_STROKE_ERASER);
+			}
+		};
+
+		private View.OnClickListener onBucketFillClick = new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				BrushSizeDialog.this.dismiss();
+				drawingPanel.setEraseMode(false);
+				drawingPanel.setTool(DrawingPanel.TOOL_FILL);
+			}
+		};
+
 		/**
 		 * initialize the brush size buttons
 		 *
@@ -393,6 +627,20 @@ public class DrawingActivity extends Activity {
 			smallBrushButton.setOnClickListener(onBrushSelectorClick);
 			mediumBrushButton.setOnClickListener(onBrushSelectorClick);
 			largeBrushButton.setOnClickListener(onBrushSelectorClick);
+
+			// whole strokes can only be erased, not painted
+			strokeEraserButton = (Button) findViewById(R.id.stroke_eraser);
+			strokeEraserButton.setOnClickListener(onStrokeEraserClick);
+			if (brushMode == ERASER_BRUSH) {
+				strokeEraserButton.setVisibility(View.VISIBLE);
+			}
+
+			// and areas can only be filled with paint
+			bucketFillButton = (Button) findViewById(R.id.bucket_fill);
+			bucketFillButton.setOnClickListener(onBucketFillClick);
+			if (brushMode == PAINT_BRUSH) {
+				bucketFillButton.setVisibility(View.VISIBLE);
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -9,31 +9,176 @@ import android.view.View;
 import com.testfairy.TestFairy;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+import stroke.PointBuffer;
+import stroke.StrokeDynamics;
+import stroke.StrokeGridIndex;
+import stroke.StrokeJournal;
+import stroke.StrokeLog;
+import stroke.StrokeSimplifier;
+import stroke.TouchRingBuffer;
 
 public class DrawingPanel extends View implements View.OnTouchListener {
 
+	/// touches paint with the brush
+	public static final int TOOL_BRUSH = 0;
+	/// touches remove whole strokes
+	public static final int TOOL_STROKE_ERASER = 1;
+	/// a tap selects the topmost stroke
+	public static final int TOOL_SELECT = 2;
+	/// one finger pans, two fingers pinch-zoom
+	public static final int TOOL_NAVIGATE = 3;
+	/// a tap fills the area around it with the brush color
+	public static final int TOOL_FILL = 4;
+
+	/// largest per-channel color difference a fill still spreads over
+	private static final int FILL_TOLERANCE = 32;
+
+	/// how far from a stroke a touch still hits it, in dp
+	private static final float HIT_RADIUS_DP = 8;
+
+	/// edge of the stroke index cells, in pixels
+	private static final int INDEX_CELL_SIZE = 64;
+
+	/// how far stored strokes may stray from the touch samples, in pixels
+	private static final float SIMPLIFY_TOLERANCE = 0.5f;
+
+	/// ms between two autosaves of the changed tiles
+	private static final long AUTOSAVE_INTERVAL = 5000;
+
 	private String TAG = getClass().getSimpleName();
 
 	private int[] strokeWidth = {10, 15, 40};
 
-	/// drawing path
-	private Path drawPath;
+	/// points of the stroke each pointer is drawing, indexed by pointer id
+	private PointBuffer[] pointerStrokes;
+
+	/// thins out each pointer's samples into pointerStrokes, the live stroke draws the same points
+	private StrokeSimplifier[] pointerSimplifiers;
+
+	/// points of each pointer's stroke already handed to the rasterizer
+	private int[] pointerDrawnPoints;
+
+	/// bit per pointer id with a stroke in progress
+	private int activePointers = 0;
+
+	/// the drawing's layers, strokes go into the active one
+	private LayerStack layers;
+
+	/// every finished stroke of the active layer, the layer's model
+	private StrokeLog strokeLog;
+
+	/// rebuilds the canvas from strokeLog
+	private StrokeLogRenderer strokeRenderer;
+
+	/// undo/redo over strokeLog
+	private UndoHistory undoHistory;
+	private StrokeBaker strokeBaker;
+
+	/// spatial index of strokeLog for hit-testing
+	private StrokeGridIndex strokeIndex;
+
+	/// memory for undo keyframes, shared by all layers
+	private long undoByteBudget = UndoHistory.DEFAULT_BYTE_BUDGET;
+
+	/// crash-safe copy of every layer's strokes, null until restoreFromJournal
+	private StrokeJournal journal;
+
+	/// writes the tiles changed since the last autosave, null until setAutosaveDirectory
+	private TileAutosave tileAutosave;
+
+	private final Runnable autosaveTick = new Runnable() {
+		@Override
+		public void run() {
+			// strokes the render thread still holds are not in the tiles yet,
+			// and restored strokes not drawn yet must not overwrite the store
+			if (!restorePending) {
+				tileAutosave.save(layers, renderThread == null);
+			}
+			postDelayed(this, AUTOSAVE_INTERVAL);
+		}
+	};
+
+	/// strokes were restored before the canvas had a size and still need drawing
+	private boolean restorePending = false;
+
+	/// what touches do, one of TOOL_*
+	private int tool = TOOL_BRUSH;
+
+	/// touch tolerance for hit-testing, in pixels
+	private float hitRadius;
+
+	/// selected stroke, or -1
+	private int selectedStroke = -1;
+	private final float[] selectionBounds = new float[4];
+	private Paint selectionPaint;
+
+	/// draws each new segment of every pointer's stroke into tiledCanvas
+	private MultiStrokeRasterizer multiStrokeRasterizer;
+
+	/// brush style, one of StrokeLog.BRUSH_*
+	private int brush = StrokeLog.BRUSH_ROUND;
+
+	/// stamps of textured brushes, shared by live drawing, replay and the render thread
+	private StampCache stampCache;
+
+	/// round strokes and erasers follow pressure and speed
+	private boolean variableWidth = false;
+
+	/// width per pointer from pressure and speed, and the pointers whose stroke has a variable width
+	private StrokeDynamics[] pointerDynamics;
+	private int variableWidthPointers = 0;
+
+	/// wall-clock time each pointer's stroke started at, recorded with the stroke for replays
+	private long[] pointerStartTimes;
 
 	/// drawing and canvas paint
 	private Paint drawPaint, canvasPaint;
 
-	/// number of strokes in path
-	private int strokeCount = 0;
+	/// attaches every committed stroke to the session in batches
+	private StrokeTelemetry strokeTelemetry;
+
+	/// lazily allocated tiles holding the active layer's pixels
+	private TiledCanvas tiledCanvas;
+
+	/// region of tiledCanvas changed by the current touch event
+	private final Rect dirtyRect = new Rect();
+
+	/// clip bounds of the frame being drawn
+	private final Rect clipRect = new Rect();
+
+	/// should strokes be rasterized off the UI thread?
+	private boolean asyncRendering = false;
+
+	/// rasterizes strokes while asyncRendering is on and the canvas has a size
+	private StrokeRenderThread renderThread;
+
+	/// touch to screen latency of brush strokes
+	private TouchLatencyTracker latencyTracker;
+
+	/// zoom and pan of the canvas in the view
+	private Viewport viewport;
+
+	/// images of the zoomed drawing, unused at 1:1
+	private ViewportCache viewportCache;
+
+	/// is a pan or pinch in progress?
+	private boolean navigating = false;
+
+	/// focus and span of the navigation pointers at the previous event
+	private float lastFocusX, lastFocusY, lastSpan;
 
-	/// did we send path already?
-	private boolean pathSent = false;
+	/// view region of the canvas changed by the current touch event, while zoomed
+	private final Rect viewDirtyRect = new Rect();
 
-	/// canvas
-	private Canvas drawCanvas;
+	/// canvas region of a changed stroke, for the zoomed detail
+	private final float[] strokeBounds = new float[4];
+	private final Rect strokeRect = new Rect();
 
-	/// canvas bitmap
-	private Bitmap canvasBitmap;
+	/// !viewport.isIdentity(), for the render thread
+	private volatile boolean zoomed = false;
 
 	public DrawingPanel(Context context) {
 		this(context, null, 0);
@@ -46,7 +191,23 @@ public class DrawingPanel extends View implements View.OnTouchListener {
 	public DrawingPanel(Context context, AttributeSet attrs, int defStyleAttr) {
 		super(context, attrs, defStyleAttr);
 
-		drawPath = new Path();
+		pointerStrokes = new PointBuffer[MultiStrokeRasterizer.MAX_POINTERS];
+		pointerSimplifiers = new StrokeSimplifier[MultiStrokeRasterizer.MAX_POINTERS];
+		pointerDrawnPoints = new int[MultiStrokeRasterizer.MAX_POINTERS];
+		pointerDynamics = new StrokeDynamics[MultiStrokeRasterizer.MAX_POINTERS];
+		pointerStartTimes = new long[MultiStrokeRasterizer.MAX_POINTERS];
+		File telemetryDirectory = context.getExternalFilesDir(null);
+		if (telemetryDirectory == null) {
+			// shared storage is not available
+			telemetryDirectory = context.getFilesDir();
+		}
+
+		strokeTelemetry = new StrokeTelemetry(telemetryDirectory);
+		stampCache = new StampCache();
+		multiStrokeRasterizer = new MultiStrokeRasterizer(stampCache);
+		latencyTracker = new TouchLatencyTracker();
+		viewport = new Viewport();
+		viewportCache = new ViewportCache();
 		drawPaint = new Paint();
 		drawPaint.setAntiAlias(true);
 		drawPaint.setDither(true);
@@ -57,6 +218,18 @@ public class DrawingPanel extends View implements View.OnTouchListener {
 		drawPaint.setStrokeWidth(strokeWidth[0]);
 		canvasPaint = new Paint(Paint.DITHER_FLAG);
 
+		strokeRenderer = new StrokeLogRenderer(drawPaint, stampCache);
+		layers = new LayerStack();
+		layers.add(new LayerStack.Layer(strokeRenderer, INDEX_CELL_SIZE));
+		useActiveLayer();
+		hitRadius = HIT_RADIUS_DP * getResources().getDisplayMetrics().density;
+
+		selectionPaint = new Paint();
+		selectionPaint.setColor(Color.GRAY);
+		selectionPaint.setStyle(Paint.Style.STROKE);
+		selectionPaint.setStrokeWidth(2);
+		selectionPaint.setPathEffect(new DashPathEffect(new float[]{8, 8}, 0));
+
 		setFocusable(true);
 		setFocusableInTouchMode(true);
 
@@ -70,6 +243,7 @@ public class DrawingPanel extends View implements View.OnTouchListener {
 	 */
 	public void setBrushColor(int color) {
 		drawPaint.setColor(color);
+		onBrushChanged();
 	}
 
 	/**
@@ -83,6 +257,8 @@ public class DrawingPanel extends View implements View.OnTouchListener {
 		} else {
 			drawPaint.setXfermode(null);
 		}
+
+		onBrushChanged();
 	}
 
 	/**
@@ -102,6 +278,671 @@ public class DrawingPanel extends View implements View.OnTouchListener {
 
 		Log.i(TAG, "set brush size to " + strokeWidth[brushSizeIndex]);
 		drawPaint.setStrokeWidth(strokeWidth[brushSizeIndex]);
+		onBrushChanged();
+	}
+
+	/**
+	 * set the brush style, erasing always uses the round brush
+	 *
+	 * @param brush one of StrokeLog.BRUSH_*
+	 */
+	public void setBrush(int brush) {
+		this.brush = brush;
+		multiStrokeRasterizer.setBrush(brush);
+		onBrushChanged();
+	}
+
+	public int getBrush() {
+		return brush;
+	}
+
+	/**
+	 * make round strokes and erasers wider when pressing harder and thinner when moving faster,
+	 * takes effect with the next stroke
+	 *
+	 * @param enabled
+	 */
+	public void setVariableWidth(boolean enabled) {
+		variableWidth = enabled;
+	}
+
+	public boolean isVariableWidth() {
+		return variableWidth;
+	}
+
+	/**
+	 * rasterize strokes on a dedicated render thread instead of the UI thread
+	 *
+	 * @param enabled
+	 */
+	public void setAsyncRendering(boolean enabled) {
+		asyncRendering = enabled;
+		if (enabled) {
+			// otherwise started from onSizeChanged
+			resumeRenderThread();
+		} else {
+			stopRenderThread();
+		}
+	}
+
+	public boolean isAsyncRendering() {
+		return asyncRendering;
+	}
+
+	/**
+	 * every stroke drawn on the active layer so far
+	 *
+	 * @return the layer's stroke log, owned by the panel
+	 */
+	public StrokeLog getStrokeLog() {
+		return strokeLog;
+	}
+
+	/**
+	 * replace the drawing with the strokes of a journal and keep journaling every
+	 * change into it, so the drawing survives the process crashing
+	 *
+	 * @param file journal file, created if missing
+	 * @return number of strokes restored
+	 */
+	public int restoreFromJournal(File file) {
+		closeJournal();
+		try {
+			journal = new StrokeJournal(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+
+		stopRenderThread();
+		int strokeCount = 0;
+		try {
+			int layerCount = journal.getLayerCount();
+			while (layers.size() < layerCount) {
+				layers.add(new LayerStack.Layer(strokeRenderer, INDEX_CELL_SIZE));
+			}
+
+			// the redo history is not restored, compacting the journal drops it for good
+			StrokeLog[] logs = new StrokeLog[layers.size()];
+			for (int i = 0; i < logs.length; i++) {
+				logs[i] = layers.get(i).log;
+				logs[i].truncate(journal.replay(logs[i], i));
+				strokeCount += logs[i].size();
+			}
+
+			journal.rewrite(logs);
+		} catch (IOException e) {
+			Log.w(TAG, "Discarding unreadable stroke journal", e);
+			for (int i = 0; i < layers.size(); i++) {
+				layers.get(i).log.clear();
+			}
+
+			strokeCount = 0;
+			journal.clear();
+		}
+
+		for (int i = 0; i < layers.size(); i++) {
+			LayerStack.Layer layer = layers.get(i);
+			layer.index.truncate(0);
+			layer.index.addAll(layer.log, 0);
+		}
+
+		useActiveLayer();
+		if (tiledCanvas.hasSize()) {
+			restoreLayers();
+			refreshDetail();
+			resumeRenderThread();
+			invalidate();
+		} else {
+			// drawn in onSizeChanged
+			restorePending = true;
+		}
+
+		Log.i(TAG, "Restored " + strokeCount + " strokes on " + layers.size() + " layers, journal is " + journal.size() + " bytes");
+		return strokeCount;
+	}
+
+	/**
+	 * forget the journaled strokes, e.g. when the user leaves the drawing on purpose
+	 */
+	public void clearJournal() {
+		if (journal != null) {
+			journal.clear();
+		}
+	}
+
+	/**
+	 * autosave the changed tiles of every layer into a directory, every AUTOSAVE_INTERVAL ms;
+	 * set before restoreFromJournal, so the restored strokes are loaded from there if it holds them
+	 *
+	 * @param directory the tile store, see TileAutosave
+	 */
+	public void setAutosaveDirectory(File directory) {
+		tileAutosave = new TileAutosave(directory);
+		removeCallbacks(autosaveTick);
+		postDelayed(autosaveTick, AUTOSAVE_INTERVAL);
+	}
+
+	/**
+	 * delete the autosaved tiles, e.g. when the user leaves the drawing on purpose
+	 */
+	public void clearAutosave() {
+		if (tileAutosave != null) {
+			removeCallbacks(autosaveTick);
+			tileAutosave.clear();
+			tileAutosave = null;
+		}
+	}
+
+	private void closeJournal() {
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+	}
+
+	/**
+	 * journaling is best effort, the drawing itself must not fail because of it
+	 */
+	private void onJournalError(IOException e) {
+		Log.e(TAG, "Stroke journal failed, no longer journaling", e);
+		closeJournal();
+	}
+
+	/**
+	 * draw the restored strokes of every layer, from the autosaved tiles if they show
+	 * exactly these strokes, their undo history starts over
+	 */
+	private void restoreLayers() {
+		if (tileAutosave == null || !tileAutosave.load(layers)) {
+			redrawLayers();
+			return;
+		}
+
+		for (int i = 0; i < layers.size(); i++) {
+			LayerStack.Layer layer = layers.get(i);
+			layer.history.reset(layer.canvas);
+		}
+
+		layers.rebuildCaches();
+		viewportCache.invalidate();
+	}
+
+	/**
+	 * redraw every layer from its strokes, their undo history starts over
+	 */
+	private void redrawLayers() {
+		for (int i = 0; i < layers.size(); i++) {
+			LayerStack.Layer layer = layers.get(i);
+			layer.canvas.clear();
+			strokeRenderer.drawStrokes(layer.log, 0, layer.log.size(), layer.canvas);
+			layer.history.reset(layer.canvas);
+		}
+
+		layers.rebuildCaches();
+		viewportCache.invalidate();
+	}
+
+	/**
+	 * add an empty layer above the active one and draw on it
+	 *
+	 * @return index of the new layer, 0 is the bottom one
+	 */
+	public int addLayer() {
+		stopRenderThread();
+		LayerStack.Layer layer = new LayerStack.Layer(strokeRenderer, INDEX_CELL_SIZE);
+		int index = layers.add(layer);
+		useActiveLayer();
+		resumeRenderThread();
+
+		TestFairy.addEvent("Added layer " + (index + 1) + " of " + layers.size());
+		invalidate();
+		return index;
+	}
+
+	public int getLayerCount() {
+		return layers.size();
+	}
+
+	public int getActiveLayer() {
+		return layers.getActiveIndex();
+	}
+
+	/**
+	 * draw on another layer from now on
+	 *
+	 * @param index 0 is the bottom layer
+	 */
+	public void setActiveLayer(int index) {
+		if (index == layers.getActiveIndex() || index < 0 || index >= layers.size()) {
+			return;
+		}
+
+		stopRenderThread();
+		layers.setActive(index);
+		useActiveLayer();
+		resumeRenderThread();
+		invalidate();
+	}
+
+	/**
+	 * set how the active layer blends with the layers under it
+	 *
+	 * @param mode blend mode, SRC_OVER for normal
+	 */
+	public void setLayerBlendMode(PorterDuff.Mode mode) {
+		stopRenderThread();
+		layers.setBlendMode(mode);
+		viewportCache.invalidate();
+		refreshDetail();
+		resumeRenderThread();
+		invalidate();
+	}
+
+	public PorterDuff.Mode getLayerBlendMode() {
+		return layers.getActive().getBlendMode();
+	}
+
+	/**
+	 * set the opacity of the active layer
+	 *
+	 * @param opacity 0..255
+	 */
+	public void setLayerOpacity(int opacity) {
+		stopRenderThread();
+		layers.setOpacity(opacity);
+		viewportCache.invalidate();
+		refreshDetail();
+		resumeRenderThread();
+		invalidate();
+	}
+
+	public int getLayerOpacity() {
+		return layers.getActive().getOpacity();
+	}
+
+	/**
+	 * point the stroke fields at the active layer, the render thread must be stopped
+	 */
+	private void useActiveLayer() {
+		LayerStack.Layer layer = layers.getActive();
+		tiledCanvas = layer.canvas;
+		strokeLog = layer.log;
+		undoHistory = layer.history;
+		strokeBaker = layer.baker;
+		strokeIndex = layer.index;
+		setSelectedStroke(-1);
+
+		// keyframes of every layer share the budget
+		for (int i = 0; i < layers.size(); i++) {
+			layers.get(i).history.setByteBudget(undoByteBudget / layers.size());
+		}
+	}
+
+	/**
+	 * undo the last stroke
+	 *
+	 * @return false if there was nothing to undo
+	 */
+	public boolean undo() {
+		stopRenderThread();
+		boolean undone = undoHistory.undo(tiledCanvas);
+		layers.invalidateAll();
+		if (undone) {
+			invalidateStrokeDetail(undoHistory.getHead());
+		}
+
+		refreshDetail();
+		resumeRenderThread();
+		if (undone) {
+			journalHead();
+		}
+
+		setSelectedStroke(-1);
+		invalidate();
+		return undone;
+	}
+
+	/**
+	 * redo the last undone stroke
+	 *
+	 * @return false if there was nothing to redo
+	 */
+	public boolean redo() {
+		stopRenderThread();
+		boolean redone = undoHistory.redo(tiledCanvas);
+		layers.invalidateAll();
+		if (redone) {
+			invalidateStrokeDetail(undoHistory.getHead() - 1);
+		}
+
+		refreshDetail();
+		resumeRenderThread();
+		if (redone) {
+			journalHead();
+		}
+
+		setSelectedStroke(-1);
+		invalidate();
+		return redone;
+	}
+
+	private void journalHead() {
+		if (journal != null) {
+			try {
+				journal.setLayer(layers.getActiveIndex());
+				journal.setHead(undoHistory.getHead());
+			} catch (IOException e) {
+				onJournalError(e);
+			}
+		}
+	}
+
+	/**
+	 * limit the memory undo keyframes of all layers may use
+	 *
+	 * @param bytes
+	 */
+	public void setUndoByteBudget(long bytes) {
+		undoByteBudget = bytes;
+		for (int i = 0; i < layers.size(); i++) {
+			layers.get(i).history.setByteBudget(bytes / layers.size());
+		}
+	}
+
+	/**
+	 * choose what touches do
+	 *
+	 * @param tool one of TOOL_*
+	 */
+	public void setTool(int tool) {
+		this.tool = tool;
+		if (tool != TOOL_SELECT) {
+			setSelectedStroke(-1);
+		}
+	}
+
+	public int getTool() {
+		return tool;
+	}
+
+	/**
+	 * show the canvas 1:1 again
+	 */
+	public void resetZoom() {
+		viewport.reset();
+		zoomed = false;
+		viewportCache.release();
+		invalidate();
+	}
+
+	/**
+	 * current zoom factor, 1 when not zoomed
+	 */
+	public float getZoom() {
+		return viewport.getScale();
+	}
+
+	/**
+	 * pan with one finger, pinch with two, the low resolution image is shown until the fingers lift
+	 */
+	private void onNavigateTouch(MotionEvent event) {
+		if (!tiledCanvas.hasSize()) {
+			return;
+		}
+
+		int action = event.getActionMasked();
+
+		// focus and average distance to it of the pointers that stay down
+		int skipped = action == MotionEvent.ACTION_POINTER_UP ? event.getActionIndex() : -1;
+		int count = 0;
+		float focusX = 0, focusY = 0;
+		for (int p = 0; p < event.getPointerCount(); p++) {
+			if (p != skipped) {
+				focusX += event.getX(p);
+				focusY += event.getY(p);
+				count++;
+			}
+		}
+
+		focusX /= count;
+		focusY /= count;
+		float span = 0;
+		for (int p = 0; p < event.getPointerCount(); p++) {
+			if (p != skipped) {
+				span += Math.hypot(event.getX(p) - focusX, event.getY(p) - focusY);
+			}
+		}
+		span /= count;
+
+		switch (action) {
+			case MotionEvent.ACTION_DOWN:
+				beginNavigation();
+				break;
+			case MotionEvent.ACTION_MOVE:
+				viewport.panBy(focusX - lastFocusX, focusY - lastFocusY);
+				if (lastSpan > 0 && span > 0) {
+					viewport.zoomBy(span / lastSpan, focusX, focusY);
+				}
+				invalidate();
+				break;
+			case MotionEvent.ACTION_UP:
+			case MotionEvent.ACTION_CANCEL:
+				endNavigation();
+				return;
+		}
+
+		// pointers going down or up only move the reference
+		lastFocusX = focusX;
+		lastFocusY = focusY;
+		lastSpan = count > 1 ? span : 0;
+	}
+
+	private void beginNavigation() {
+		stopRenderThread();
+		navigating = true;
+		viewportCache.updateLowRes(layers, tiledCanvas.getWidth(), tiledCanvas.getHeight());
+	}
+
+	private void endNavigation() {
+		navigating = false;
+		zoomed = !viewport.isIdentity();
+		if (zoomed) {
+			// the visible region changed, render it at the new resolution
+			renderDetail();
+		} else {
+			viewportCache.release();
+		}
+
+		resumeRenderThread();
+		invalidate();
+
+		TestFairy.addEvent("Zoomed to " + Math.round(viewport.getScale() * 100) + "%");
+	}
+
+	/**
+	 * re-render the stale region of the zoomed detail once nothing is moving,
+	 * a detail dropped as a whole waits for the next zoom or pan
+	 */
+	private void refreshDetail() {
+		if (zoomed && !navigating && activePointers == 0 && viewportCache.hasStaleRegion() && tiledCanvas.hasSize()) {
+			viewportCache.updateDetail(layers, viewport, strokeRenderer, tiledCanvas.getWidth(), tiledCanvas.getHeight(), false);
+			invalidate();
+		}
+	}
+
+	/**
+	 * render the whole visible region at full resolution, after the zoom or pan changed
+	 */
+	private void renderDetail() {
+		if (zoomed && !navigating && tiledCanvas.hasSize()) {
+			viewportCache.updateDetail(layers, viewport, strokeRenderer, tiledCanvas.getWidth(), tiledCanvas.getHeight(), true);
+			invalidate();
+		}
+	}
+
+	/**
+	 * mark the zoomed detail under a stroke stale, e.g. after it was drawn, undone or erased
+	 */
+	private void invalidateStrokeDetail(int stroke) {
+		if (strokeLog.isFill(stroke)) {
+			// a fill's extent is unknown, detail is rendered again on the next zoom or pan
+			viewportCache.invalidate();
+			return;
+		}
+
+		// the index pads by half the width, a stamped brush may reach up to the whole width
+		strokeIndex.getBounds(stroke, strokeBounds);
+		float pad = strokeLog.getWidth(stroke) / 2 + 1;
+		strokeRect.set((int) Math.floor(strokeBounds[0] - pad), (int) Math.floor(strokeBounds[1] - pad),
+			(int) Math.ceil(strokeBounds[2] + pad), (int) Math.ceil(strokeBounds[3] + pad));
+		viewportCache.invalidate(strokeRect);
+	}
+
+	/**
+	 * index of the selected stroke in getStrokeLog(), or -1
+	 */
+	public int getSelectedStroke() {
+		return selectedStroke;
+	}
+
+	private void setSelectedStroke(int stroke) {
+		if (stroke != selectedStroke) {
+			selectedStroke = stroke;
+			invalidate();
+		}
+	}
+
+	/**
+	 * topmost applied stroke under a point that is not baked yet
+	 *
+	 * @return index of the stroke, -1 if none
+	 */
+	private int hitEditableStroke(float x, float y) {
+		int stroke = strokeIndex.hitTest(strokeLog, x, y, hitRadius / viewport.getScale(), undoHistory.getHead());
+
+		// a baked stroke on top hides the editable ones under it
+		return stroke >= undoHistory.getBakedCount() ? stroke : -1;
+	}
+
+	/**
+	 * remove every stroke under the touch samples of an event
+	 */
+	private void eraseStrokesAt(MotionEvent event) {
+		int lowest = Integer.MAX_VALUE;
+		final int historySize = event.getHistorySize();
+		for (int h = 0; h <= historySize; h++) {
+			float x = h < historySize ? event.getHistoricalX(h) : event.getX();
+			float y = h < historySize ? event.getHistoricalY(h) : event.getY();
+
+			// deleted strokes are skipped, so repeat to reach the ones underneath
+			int stroke;
+			while ((stroke = hitEditableStroke(x, y)) >= 0) {
+				strokeLog.setDeleted(stroke, true);
+				invalidateStrokeDetail(stroke);
+				lowest = Math.min(lowest, stroke);
+				if (journal != null) {
+					try {
+						journal.setLayer(layers.getActiveIndex());
+						journal.setDeleted(stroke);
+					} catch (IOException e) {
+						onJournalError(e);
+					}
+				}
+			}
+		}
+
+		if (lowest != Integer.MAX_VALUE) {
+			stopRenderThread();
+			undoHistory.rebuildWithout(lowest, tiledCanvas);
+			layers.invalidateAll();
+			refreshDetail();
+			resumeRenderThread();
+			invalidate();
+		}
+	}
+
+	/**
+	 * fill the area connected to a point of the active layer with the brush color
+	 */
+	private void fillAt(float x, float y) {
+		if (!tiledCanvas.hasSize()) {
+			return;
+		}
+
+		stopRenderThread();
+		undoHistory.discardRedo();
+		strokeIndex.truncate(strokeLog.size());
+		int stroke = strokeLog.appendFill(drawPaint.getColor(), FILL_TOLERANCE, x, y);
+		strokeLog.setTime(stroke, System.currentTimeMillis(), 0);
+		strokeIndex.add(strokeLog, stroke);
+		strokeRenderer.drawStroke(strokeLog, stroke, tiledCanvas);
+		if (journal != null) {
+			try {
+				journal.setLayer(layers.getActiveIndex());
+				journal.appendStroke(strokeLog, stroke);
+			} catch (IOException e) {
+				onJournalError(e);
+			}
+		}
+
+		strokeTelemetry.record(strokeLog, stroke);
+
+		undoHistory.commit(tiledCanvas);
+		strokeBaker.maybeBake(tiledCanvas.getWidth(), tiledCanvas.getHeight());
+		layers.invalidateAll();
+		invalidateStrokeDetail(stroke);
+		resumeRenderThread();
+		invalidate();
+		TestFairy.addEvent("Bucket fill");
+	}
+
+	private void onToolTouch(MotionEvent event) {
+		switch (event.getActionMasked()) {
+			case MotionEvent.ACTION_DOWN:
+				if (tool == TOOL_SELECT) {
+					setSelectedStroke(hitEditableStroke(event.getX(), event.getY()));
+				} else if (tool == TOOL_STROKE_ERASER) {
+					eraseStrokesAt(event);
+				} else if (tool == TOOL_FILL) {
+					fillAt(event.getX(), event.getY());
+				}
+				break;
+			case MotionEvent.ACTION_MOVE:
+				if (tool == TOOL_STROKE_ERASER) {
+					eraseStrokesAt(event);
+				}
+				break;
+		}
+	}
+
+	private void resumeRenderThread() {
+		// the composite is re-blended from the tiles, which lag behind while rendering asynchronously
+		if (asyncRendering && tiledCanvas.hasSize() && layers.isActiveDrawnDirectly()) {
+			startRenderThread();
+		}
+	}
+
+	private void startRenderThread() {
+		if (renderThread == null) {
+			renderThread = new StrokeRenderThread(this, tiledCanvas, drawPaint, brush, stampCache);
+			renderThread.start();
+		}
+	}
+
+	private void stopRenderThread() {
+		if (renderThread != null) {
+			// keep whatever was drawn so far
+			renderThread.quit(tiledCanvas);
+			renderThread = null;
+			invalidate();
+		}
+	}
+
+	private void onBrushChanged() {
+		if (renderThread != null) {
+			renderThread.postBrush(drawPaint, brush);
+		}
 	}
 
 	@Override
@@ -109,89 +950,393 @@ public class DrawingPanel extends View implements View.OnTouchListener {
 
 		Log.d(TAG, "onSizeChanged");
 		super.onSizeChanged(w, h, oldw, oldh);
-		canvasBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-		drawCanvas = new Canvas(canvasBitmap);
+		stopRenderThread();
+		// existing tiles are kept, so a resize neither allocates nor loses the drawing
+		layers.resize(w, h);
+		if (restorePending) {
+			restorePending = false;
+			restoreLayers();
+		}
+
+		viewport.setSize(w, h);
+		viewportCache.release();
+		renderDetail();
+
+		resumeRenderThread();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		stopRenderThread();
+		closeJournal();
+		if (tileAutosave != null) {
+			// the render thread is stopped, so the tiles hold every stroke
+			removeCallbacks(autosaveTick);
+			tileAutosave.save(layers, true);
+		}
+
+		latencyTracker.stop();
+		publishSimplification();
+		strokeTelemetry.flush();
+		strokeTelemetry.publish();
+		strokeRenderer.release();
+		super.onDetachedFromWindow();
 	}
 
 	@Override
 	protected void onDraw(Canvas canvas) {
 //		Log.d(TAG, "on Draw");
-		canvas.drawBitmap(canvasBitmap, 0, 0, canvasPaint);
-		canvas.drawPath(drawPath, drawPaint);
+		// strokes are already rasterized into tiledCanvas segment by segment,
+		// so only the allocated tiles under the invalidated region need to be copied
+		if (!canvas.getClipBounds(clipRect) || !clipRect.intersect(0, 0, tiledCanvas.getWidth(), tiledCanvas.getHeight())) {
+			return;
+		}
+
+		latencyTracker.onDraw();
+		if (!zoomed && !navigating) {
+			drawLayers(canvas, clipRect);
+		} else if (navigating) {
+			canvas.save();
+			canvas.concat(viewport.getMatrix());
+			viewportCache.drawLowRes(canvas, tiledCanvas.getWidth(), tiledCanvas.getHeight());
+			canvas.restore();
+		} else if (viewportCache.isDetailValid() && activePointers == 0) {
+			// a stroke in progress is not in detail, the tiles are shown until it ends
+			viewportCache.drawDetail(canvas, canvasPaint);
+		} else {
+			// a stroke is in progress or the whole drawing changed, the tiles are shown scaled until detail is rendered again
+			viewport.getVisibleRect(clipRect);
+			clipRect.intersect(0, 0, tiledCanvas.getWidth(), tiledCanvas.getHeight());
+			canvas.save();
+			canvas.concat(viewport.getMatrix());
+			drawLayers(canvas, clipRect);
+			canvas.restore();
+		}
+
+		if (selectedStroke >= 0) {
+			strokeIndex.getBounds(selectedStroke, selectionBounds);
+			canvas.save();
+			canvas.concat(viewport.getMatrix());
+			canvas.drawRect(selectionBounds[0], selectionBounds[1], selectionBounds[2], selectionBounds[3], selectionPaint);
+			canvas.restore();
+		}
 	}
 
-	private void sendDrawPath() {
+	/**
+	 * draw the layers' current pixels, in canvas coordinates
+	 */
+	private void drawLayers(Canvas canvas, Rect clip) {
+		if (!layers.isActiveDrawnDirectly()) {
+			layers.drawComposite(canvas, clip, canvasPaint);
+		} else {
+			// the active layer is on top, so it can go straight over the layers under it
+			layers.drawBelowActive(canvas, clip, canvasPaint);
+			Paint layerPaint = layers.getActive().paint;
+			if (renderThread != null) {
+				renderThread.drawFront(canvas, clip, layerPaint);
+			} else {
+				tiledCanvas.draw(canvas, clip, layerPaint);
+			}
+		}
+	}
 
-		try {
-			File file = new File(getContext().getExternalFilesDir(null), "DrawPath.png");
-			FileOutputStream fos = new FileOutputStream(file);
+	@Override
+	public void postInvalidate(int left, int top, int right, int bottom) {
+		// the render thread reports canvas coordinates
+		if (zoomed) {
+			super.postInvalidate();
+		} else {
+			super.postInvalidate(left, top, right, bottom);
+		}
+	}
 
-			Bitmap pathBitmap = Bitmap.createBitmap(drawCanvas.getWidth(), drawCanvas.getHeight(), Bitmap.Config.ARGB_8888);
-			Canvas pathCanvas = new Canvas(pathBitmap);
-			Paint pathPaint = new Paint();
-			pathPaint.setARGB(255, 128, 128, 128); // gray
-			pathCanvas.drawRect(0, 0, pathBitmap.getWidth(), pathBitmap.getHeight(), pathPaint);
-			pathCanvas.drawPath(drawPath, drawPaint);
-			pathBitmap.compress(Bitmap.CompressFormat.PNG, 90, fos);
-			fos.close();
+	/**
+	 * report how many touch samples the stored strokes were thinned out from
+	 */
+	private void publishSimplification() {
+		long samples = 0;
+		long stored = 0;
+		for (StrokeSimplifier simplifier : pointerSimplifiers) {
+			if (simplifier != null) {
+				samples += simplifier.getInputCount();
+				stored += simplifier.getOutputCount();
+			}
+		}
 
-			TestFairy.attachFile(file);
+		if (stored == 0) {
+			return;
+		}
 
-			// now, also attach binary
-			File file2 = new File(getContext().getExternalFilesDir(null), "DrawPathInfo.txt");
-			FileOutputStream fos2 = new FileOutputStream(file2);
-			fos2.write(drawPath.toString().getBytes());
-			fos2.close();
+		String ratio = String.format(Locale.US, "%.1f", samples / (double) stored);
+		TestFairy.setAttribute("stroke_point_reduction", ratio);
 
-			TestFairy.attachFile(file2);
+		String summary = "Stored " + stored + " points for " + samples + " touch samples, " + ratio + "x fewer";
+		Log.v(TAG, summary);
+		TestFairy.addEvent(summary);
+	}
 
-			// we are only interested in first complex path
-			pathSent = true;
+	private void onMotionEventUp(int pointerId) {
+		if (!isActivePointer(pointerId)) {
+			return;
+		}
 
-		} catch (Exception e) {
-			e.printStackTrace();
+		// the simplifier holds back the last points until the stroke ends
+		pointerSimplifiers[pointerId].end();
+		drawSimplifiedPoints(pointerId);
+		if (renderThread != null) {
+			renderThread.post(TouchRingBuffer.TYPE_UP, 0, 0, pointerId, 0);
+			renderThread.requestRender();
+		} else {
+			multiStrokeRasterizer.flush(tiledCanvas, drawPaint, dirtyRect);
+			layers.invalidate(dirtyRect);
+			multiStrokeRasterizer.end(pointerId);
+		}
+
+		PointBuffer points = pointerStrokes[pointerId];
+		// a lone touch down draws nothing, so it is not a stroke
+		if (points.size() > 1) {
+			int flags = drawPaint.getXfermode() != null ? StrokeLog.FLAG_ERASE : StrokeLog.brushFlags(brush);
+			float width = drawPaint.getStrokeWidth();
+			if ((variableWidthPointers & (1 << pointerId)) != 0) {
+				// the stroke's own width bounds every point, so the index and culling stay conservative
+				flags |= StrokeLog.FLAG_VARIABLE_WIDTH;
+				width = 0;
+				for (int i = 0; i < points.size(); i++) {
+					width = Math.max(width, points.getWidth(i));
+				}
+			}
+
+			undoHistory.discardRedo();
+			strokeIndex.truncate(strokeLog.size());
+			int stroke = strokeLog.append(drawPaint.getColor(), width, flags, points);
+			long startTime = pointerStartTimes[pointerId];
+			strokeLog.setTime(stroke, startTime, (int) (System.currentTimeMillis() - startTime));
+			strokeIndex.add(strokeLog, stroke);
+			if (journal != null) {
+				try {
+					journal.setLayer(layers.getActiveIndex());
+					journal.appendStroke(strokeLog, stroke);
+				} catch (IOException e) {
+					onJournalError(e);
+				}
+			}
+
+			strokeTelemetry.record(strokeLog, stroke);
+			invalidateStrokeDetail(stroke);
+
+			// while rendering asynchronously the tiles lag behind, so no keyframe can be taken
+			undoHistory.commit(renderThread == null ? tiledCanvas : null);
+			strokeBaker.maybeBake(tiledCanvas.getWidth(), tiledCanvas.getHeight());
+		}
+
+		points.clear();
+		activePointers &= ~(1 << pointerId);
+		variableWidthPointers &= ~(1 << pointerId);
+	}
+
+	/**
+	 * drop every stroke in progress, a cancelled gesture (e.g. taken over by a
+	 * parent view) never reaches the log, the undo history or the journal
+	 */
+	private void onMotionEventCancel() {
+		if (activePointers == 0) {
+			return;
+		}
+
+		// the render thread's buffers hold the cancelled segments too
+		stopRenderThread();
+		for (int pointerId = 0; pointerId < MultiStrokeRasterizer.MAX_POINTERS; pointerId++) {
+			if (isActivePointer(pointerId)) {
+				multiStrokeRasterizer.end(pointerId);
+				pointerStrokes[pointerId].clear();
+			}
+		}
+
+		activePointers = 0;
+		variableWidthPointers = 0;
+
+		// the cancelled segments are already in the tiles, rebuild them from the committed strokes
+		undoHistory.revert(tiledCanvas);
+		layers.invalidateAll();
+		refreshDetail();
+		resumeRenderThread();
+		invalidate();
+	}
+
+	/**
+	 * append every sample of every pointer batched into a move event, including
+	 * the historical ones, and rasterize them with a single draw
+	 *
+	 * @param event ACTION_MOVE event
+	 */
+	private void onMotionMoveBatch(MotionEvent event) {
+		final int historySize = event.getHistorySize();
+		latencyTracker.onTouchSample(historySize > 0 ? event.getHistoricalEventTime(0) : event.getEventTime());
+		final int pointerCount = event.getPointerCount();
+		for (int p = 0; p < pointerCount; p++) {
+			int pointerId = event.getPointerId(p);
+			if (!isActivePointer(pointerId)) {
+				continue;
+			}
+
+			for (int h = 0; h < historySize; h++) {
+				appendPoint(pointerId, event.getHistoricalX(p, h), event.getHistoricalY(p, h),
+					event.getHistoricalEventTime(h), event.getHistoricalPressure(p, h));
+			}
+
+			appendPoint(pointerId, event.getX(p), event.getY(p), event.getEventTime(), event.getPressure(p));
+		}
+
+		flushPoints();
+	}
+
+	/**
+	 * @param time     event time in milliseconds
+	 * @param pressure touch pressure, nominally 0..1
+	 */
+	private void onMotionEventDown(int pointerId, float touchX, float touchY, long time, float pressure) {
+		if (!MultiStrokeRasterizer.isValidPointer(pointerId)) {
+			return;
+		}
+
+		if (pointerStrokes[pointerId] == null) {
+			pointerStrokes[pointerId] = new PointBuffer();
+			pointerSimplifiers[pointerId] = new StrokeSimplifier(SIMPLIFY_TOLERANCE);
+		}
+
+		// textured brushes keep their fixed stamp size
+		float width = 0;
+		boolean erase = drawPaint.getXfermode() != null;
+		if (variableWidth && (erase || !StampBrush.isStamped(brush))) {
+			if (pointerDynamics[pointerId] == null) {
+				pointerDynamics[pointerId] = new StrokeDynamics();
+			}
+
+			width = pointerDynamics[pointerId].begin(touchX, touchY, time, pressure, drawPaint.getStrokeWidth());
+			variableWidthPointers |= 1 << pointerId;
+		}
+
+		pointerStartTimes[pointerId] = System.currentTimeMillis();
+		pointerSimplifiers[pointerId].begin(pointerStrokes[pointerId], touchX, touchY, width);
+		pointerDrawnPoints[pointerId] = 1;
+
+		activePointers |= 1 << pointerId;
+
+		if (renderThread != null) {
+			renderThread.post(TouchRingBuffer.TYPE_DOWN, touchX, touchY, pointerId, width);
+		} else {
+			multiStrokeRasterizer.moveTo(pointerId, touchX, touchY, width);
 		}
 	}
 
-	private void onMotionEventUp() {
-		if (!pathSent && strokeCount > 16) {
-			// this is a complex path, let's write it to disk
-			Log.v(TAG, "Found a complex path, sending path to TestFairy");
-			sendDrawPath();
+	private boolean isActivePointer(int pointerId) {
+		return MultiStrokeRasterizer.isValidPointer(pointerId) && (activePointers & (1 << pointerId)) != 0;
+	}
+
+	/**
+	 * @param time     sample time in milliseconds
+	 * @param pressure touch pressure, nominally 0..1
+	 */
+	private void appendPoint(int pointerId, float touchX, float touchY, long time, float pressure) {
+		float width = 0;
+		if ((variableWidthPointers & (1 << pointerId)) != 0) {
+			width = pointerDynamics[pointerId].next(touchX, touchY, time, pressure, drawPaint.getStrokeWidth());
 		}
 
-		drawCanvas.drawPath(drawPath, drawPaint);
+		pointerSimplifiers[pointerId].add(touchX, touchY, width);
+		drawSimplifiedPoints(pointerId);
+	}
 
-		// reset path
-		strokeCount = 0;
-		drawPath.reset();
+	/**
+	 * queue the points the simplifier wrote since the last call, so the live
+	 * stroke is drawn from the same points the log stores and replays
+	 */
+	private void drawSimplifiedPoints(int pointerId) {
+		PointBuffer points = pointerStrokes[pointerId];
+		boolean hasWidth = (variableWidthPointers & (1 << pointerId)) != 0;
+		for (int i = pointerDrawnPoints[pointerId]; i < points.size(); i++) {
+			float width = hasWidth ? points.getWidth(i) : 0;
+			if (renderThread != null) {
+				renderThread.post(TouchRingBuffer.TYPE_MOVE, points.getX(i), points.getY(i), pointerId, width);
+			} else {
+				multiStrokeRasterizer.append(pointerId, points.getX(i), points.getY(i), width);
+			}
+		}
+
+		pointerDrawnPoints[pointerId] = points.size();
 	}
 
-	public void onMotionMove(float touchX, float touchY) {
-		strokeCount++;
-		drawPath.lineTo(touchX, touchY);
-		drawCanvas.drawPath(drawPath, drawPaint);
+	private void flushPoints() {
+		if (renderThread != null) {
+			// the render thread invalidates once the segment is in the front buffer
+			renderThread.requestRender();
+		} else {
+			multiStrokeRasterizer.flush(tiledCanvas, drawPaint, dirtyRect);
+			layers.invalidate(dirtyRect);
+		}
 	}
 
 	@Override
 	public boolean onTouch(View arg0, MotionEvent event) {
-		float touchX = event.getX();
-		float touchY = event.getY();
-		switch (event.getAction()) {
+		if (tool == TOOL_NAVIGATE) {
+			onNavigateTouch(event);
+			return true;
+		}
+
+		if (!zoomed) {
+			return onCanvasTouch(event);
+		}
+
+		// tools work in canvas coordinates
+		MotionEvent canvasEvent = MotionEvent.obtain(event);
+		canvasEvent.transform(viewport.getInverse());
+		boolean handled = onCanvasTouch(canvasEvent);
+		canvasEvent.recycle();
+
+		refreshDetail();
+		return handled;
+	}
+
+	/**
+	 * @param event touch event in canvas coordinates
+	 */
+	private boolean onCanvasTouch(MotionEvent event) {
+		if (tool != TOOL_BRUSH) {
+			onToolTouch(event);
+			return true;
+		}
+
+		int actionIndex = event.getActionIndex();
+		dirtyRect.setEmpty();
+		switch (event.getActionMasked()) {
 			case MotionEvent.ACTION_DOWN:
-				drawPath.moveTo(touchX, touchY);
+			case MotionEvent.ACTION_POINTER_DOWN:
+				this.onMotionEventDown(event.getPointerId(actionIndex), event.getX(actionIndex), event.getY(actionIndex),
+					event.getEventTime(), event.getPressure(actionIndex));
 				break;
 			case MotionEvent.ACTION_MOVE:
-				this.onMotionMove(touchX, touchY);
+				this.onMotionMoveBatch(event);
 				break;
 			case MotionEvent.ACTION_UP:
-				this.onMotionEventUp();
+			case MotionEvent.ACTION_POINTER_UP:
+				this.onMotionEventUp(event.getPointerId(actionIndex));
+				break;
+			case MotionEvent.ACTION_CANCEL:
+				this.onMotionEventCancel();
 				break;
 			default:
 				return false;
 		}
 
-		invalidate();
+		if (!dirtyRect.isEmpty()) {
+			if (zoomed) {
+				viewport.mapToView(dirtyRect, viewDirtyRect);
+				invalidate(viewDirtyRect);
+			} else {
+				invalidate(dirtyRect);
+			}
+		}
+
 		return true;
 	}
 }
\ No newline at end of file
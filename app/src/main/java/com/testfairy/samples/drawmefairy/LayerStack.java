@@ -0,0 +1,236 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+
+import stroke.StrokeGridIndex;
+import stroke.StrokeLog;
+
+/**
+ * Ordered drawing layers, bottom first, and the caches used to show them.
+ *
+ * Each layer has its own sparse tiles, strokes, undo history and index, a
+ * blend mode and an opacity. Two flattened caches avoid blending every layer
+ * on every frame:
+ *
+ * - below: every layer under the active one, only rebuilt when the stack or
+ *   the active layer changes.
+ * - composite: every layer, re-blended only in the regions the active layer
+ *   changed.
+ *
+ * While the active layer is on top with a normal blend mode, the view draws
+ * below and the active layer's own tiles, so drawing costs exactly what it
+ * costs with a single layer and composite is not kept up to date at all.
+ */
+class LayerStack {
+
+	private final ArrayList<Layer> layers = new ArrayList<Layer>();
+	private int activeIndex = -1;
+
+	private final TiledCanvas below = new TiledCanvas();
+	private final TiledCanvas composite = new TiledCanvas();
+
+	private int width = 0;
+	private int height = 0;
+	private final Rect fullRect = new Rect();
+
+	/**
+	 * add a layer right above the active one and make it active
+	 *
+	 * @return index of the new layer
+	 */
+	public int add(Layer layer) {
+		layer.canvas.resize(width, height);
+		layer.index.resize(width, height);
+		layers.add(activeIndex + 1, layer);
+		setActive(activeIndex + 1);
+		return activeIndex;
+	}
+
+	public int size() {
+		return layers.size();
+	}
+
+	public Layer get(int index) {
+		return layers.get(index);
+	}
+
+	public Layer getActive() {
+		return layers.get(activeIndex);
+	}
+
+	public int getActiveIndex() {
+		return activeIndex;
+	}
+
+	public void setActive(int index) {
+		activeIndex = index;
+		rebuildCaches();
+	}
+
+	/**
+	 * set how the active layer blends with the layers under it
+	 *
+	 * @param mode blend mode, SRC_OVER for normal
+	 */
+	public void setBlendMode(PorterDuff.Mode mode) {
+		getActive().setBlendMode(mode);
+		rebuildCaches();
+	}
+
+	/**
+	 * @param opacity 0..255
+	 */
+	public void setOpacity(int opacity) {
+		getActive().setOpacity(opacity);
+		rebuildCaches();
+	}
+
+	/**
+	 * can the view draw the active layer straight over below, without composite?
+	 */
+	public boolean isActiveDrawnDirectly() {
+		return activeIndex == layers.size() - 1 && getActive().blendMode == PorterDuff.Mode.SRC_OVER;
+	}
+
+	public void resize(int newWidth, int newHeight) {
+		width = newWidth;
+		height = newHeight;
+		fullRect.set(0, 0, width, height);
+
+		for (Layer layer : layers) {
+			layer.canvas.resize(width, height);
+			layer.index.resize(width, height);
+			layer.index.addAll(layer.log, 0);
+		}
+
+		below.resize(width, height);
+		composite.resize(width, height);
+		rebuildCaches();
+	}
+
+	/**
+	 * the active layer changed in a region
+	 */
+	public void invalidate(Rect region) {
+		if (!isActiveDrawnDirectly()) {
+			blend(composite, region, activeIndex, true);
+		}
+	}
+
+	/**
+	 * the active layer changed everywhere, e.g. after undo
+	 */
+	public void invalidateAll() {
+		invalidate(fullRect);
+	}
+
+	/**
+	 * rebuild both caches, after a layer was added, selected or restyled
+	 */
+	public void rebuildCaches() {
+		below.clear();
+		composite.clear();
+		if (activeIndex < 0 || width == 0 || height == 0) {
+			return;
+		}
+
+		blend(below, fullRect, 0, false);
+		if (!isActiveDrawnDirectly()) {
+			blend(composite, fullRect, activeIndex, true);
+		}
+	}
+
+	/**
+	 * draw every layer, flattened
+	 */
+	public void draw(Canvas canvas, Rect clip, Paint paint) {
+		if (isActiveDrawnDirectly()) {
+			below.draw(canvas, clip, paint);
+			getActive().canvas.draw(canvas, clip, getActive().paint);
+		} else {
+			composite.draw(canvas, clip, paint);
+		}
+	}
+
+	/**
+	 * layers under the active one, flattened
+	 */
+	public void drawBelowActive(Canvas canvas, Rect clip, Paint paint) {
+		below.draw(canvas, clip, paint);
+	}
+
+	/**
+	 * every layer, flattened, only valid while !isActiveDrawnDirectly()
+	 */
+	public void drawComposite(Canvas canvas, Rect clip, Paint paint) {
+		composite.draw(canvas, clip, paint);
+	}
+
+	/**
+	 * re-blend a region of a cache
+	 *
+	 * @param target     below or composite
+	 * @param region     area to re-blend
+	 * @param from       first layer to blend, below is blended in first when from > 0
+	 * @param throughTop blend every layer from from up, or only those under the active one
+	 */
+	private void blend(TiledCanvas target, Rect region, int from, boolean throughTop) {
+		target.clear(region);
+		if (from > 0) {
+			target.drawFrom(below, region, null);
+		}
+
+		int to = throughTop ? layers.size() : activeIndex;
+		for (int i = from; i < to; i++) {
+			Layer layer = layers.get(i);
+			target.drawFrom(layer.canvas, region, layer.paint);
+		}
+	}
+
+	/**
+	 * one layer: its pixels, its strokes and how it is blended
+	 */
+	static class Layer {
+
+		final TiledCanvas canvas = new TiledCanvas();
+		final StrokeLog log = new StrokeLog();
+		final UndoHistory history;
+		final StrokeGridIndex index;
+		final StrokeBaker baker;
+
+		/// blends the layer's tiles with alpha and transfer mode
+		final Paint paint = new Paint(Paint.DITHER_FLAG);
+		private PorterDuff.Mode blendMode = PorterDuff.Mode.SRC_OVER;
+		private int opacity = 255;
+
+		Layer(StrokeLogRenderer renderer, int indexCellSize) {
+			history = new UndoHistory(log, renderer);
+			index = new StrokeGridIndex(indexCellSize);
+			baker = new StrokeBaker(log, history, new StrokeLogRenderer(renderer));
+		}
+
+		public PorterDuff.Mode getBlendMode() {
+			return blendMode;
+		}
+
+		public int getOpacity() {
+			return opacity;
+		}
+
+		private void setBlendMode(PorterDuff.Mode mode) {
+			blendMode = mode;
+			paint.setXfermode(mode == PorterDuff.Mode.SRC_OVER ? null : new PorterDuffXfermode(mode));
+		}
+
+		private void setOpacity(int opacity) {
+			this.opacity = opacity;
+			paint.setAlpha(opacity);
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+
+import stroke.StrokeLog;
+import stroke.StrokeOutline;
+
+/**
+ * Incremental rasterizer for several concurrent strokes, one per pointer.
+ *
+ * Per-pointer state lives in a small array indexed by pointer id. On flush the
+ * pending segments of every active pointer are gathered into one path and drawn
+ * with a single call, so a multi-finger move costs one draw and one invalidate.
+ * Stamped brushes gather the dabs of every pointer instead and draw them in
+ * one pass. Variable-width strokes are tessellated into a StrokeOutline per
+ * pointer, and only the pieces added since the last flush are filled, in a
+ * second call when other pointers draw plain strokes at the same time.
+ */
+class MultiStrokeRasterizer {
+
+	/// pointer ids at or above this are ignored
+	public static final int MAX_POINTERS = 16;
+
+	private final SegmentRasterizer[] rasterizers = new SegmentRasterizer[MAX_POINTERS];
+
+	/// bit per pointer id with a stroke in progress
+	private int activePointers = 0;
+
+	/// reusable path and bounds for the batched segments
+	private final Path batchPath = new Path();
+	private final Rect batchBounds = new Rect();
+
+	/// one of StrokeLog.BRUSH_*
+	private int brush = StrokeLog.BRUSH_ROUND;
+	private final StampBrush stampBrush;
+
+	/// outline of each pointer's stroke, empty unless it has a variable width
+	private final StrokeOutline[] outlines = new StrokeOutline[MAX_POINTERS];
+
+	/// pieces of each pointer's outline already drawn
+	private final int[] drawnPieces = new int[MAX_POINTERS];
+
+	/// outlines are filled, not stroked
+	private final Paint fillPaint = new Paint();
+
+	/**
+	 * @param stamps stamps of textured brushes
+	 */
+	public MultiStrokeRasterizer(StampCache stamps) {
+		stampBrush = new StampBrush(stamps);
+		for (int i = 0; i < MAX_POINTERS; i++) {
+			rasterizers[i] = new SegmentRasterizer();
+			outlines[i] = new StrokeOutline();
+		}
+	}
+
+
+	/**
+	 * choose how the next flushes draw, flush first to draw pending points with the old brush
+	 *
+	 * @param brush one of StrokeLog.BRUSH_*
+	 */
+	public void setBrush(int brush) {
+		this.brush = brush;
+	}
+
+	public static boolean isValidPointer(int pointerId) {
+		return pointerId >= 0 && pointerId < MAX_POINTERS;
+	}
+
+	public boolean isActive(int pointerId) {
+		return isValidPointer(pointerId) && (activePointers & (1 << pointerId)) != 0;
+	}
+
+	/**
+	 * start a stroke for a pointer
+	 *
+	 * @param width stroke width at the point for a variable-width stroke, 0 to draw with the paint's width
+	 */
+	public void moveTo(int pointerId, float x, float y, float width) {
+		if (isValidPointer(pointerId)) {
+			rasterizers[pointerId].moveTo(x, y);
+			activePointers |= 1 << pointerId;
+			if (width > 0) {
+				outlines[pointerId].begin(x, y, width);
+				drawnPieces[pointerId] = 0;
+			} else {
+				outlines[pointerId].clear();
+			}
+		}
+	}
+
+	/**
+	 * queue a point of a pointer's stroke, it is drawn on the next flush
+	 *
+	 * @param width stroke width at the point, only used for variable-width strokes
+	 */
+	public void append(int pointerId, float x, float y, float width) {
+		if (isActive(pointerId)) {
+			if (outlines[pointerId].size() > 0) {
+				outlines[pointerId].add(x, y, width);
+			} else {
+				rasterizers[pointerId].append(x, y);
+			}
+		}
+	}
+
+	/**
+	 * end a pointer's stroke, call flush first to draw its last points
+	 */
+	public void end(int pointerId) {
+		if (isValidPointer(pointerId)) {
+			activePointers &= ~(1 << pointerId);
+		}
+	}
+
+	/**
+	 * draw the pending segments of all pointers, one call for the plain and one for the variable-width strokes
+	 *
+	 * @param dirty grown to include every pixel the segments touched
+	 */
+	public void flush(Canvas canvas, Paint paint, Rect dirty) {
+		if (isStamped(paint)) {
+			if (buildDabs(paint)) {
+				stampBrush.draw(canvas, dirty);
+			}
+
+			return;
+		}
+
+		// pointers with and without a variable width may be drawing at the same time
+		if (buildOutlines(paint)) {
+			canvas.drawPath(batchPath, fillPaint);
+			dirty.union(batchBounds);
+		}
+
+		if (buildBatch(paint)) {
+			canvas.drawPath(batchPath, paint);
+			dirty.union(batchBounds);
+		}
+	}
+
+	/**
+	 * draw the pending segments of all pointers, one call for the plain and one for the variable-width strokes
+	 *
+	 * @param dirty grown to include every pixel the segments touched
+	 */
+	public void flush(TiledCanvas canvas, Paint paint, Rect dirty) {
+		if (isStamped(paint)) {
+			if (buildDabs(paint)) {
+				stampBrush.draw(canvas, dirty);
+			}
+
+			return;
+		}
+
+		if (buildOutlines(paint)) {
+			canvas.drawPath(batchPath, fillPaint, batchBounds);
+			dirty.union(batchBounds);
+		}
+
+		if (buildBatch(paint)) {
+			canvas.drawPath(batchPath, paint, batchBounds);
+			dirty.union(batchBounds);
+		}
+	}
+
+	/**
+	 * erasers always clear a plain round path
+	 */
+	private boolean isStamped(Paint paint) {
+		return StampBrush.isStamped(brush) && paint.getXfermode() == null;
+	}
+
+	private boolean buildDabs(Paint paint) {
+		stampBrush.setBrush(brush, paint.getColor(), paint.getStrokeWidth());
+
+		boolean added = false;
+		for (int id = 0; id < MAX_POINTERS; id++) {
+			if ((activePointers & (1 << id)) != 0) {
+				added |= rasterizers[id].addDabsTo(stampBrush);
+			}
+		}
+
+		return added;
+	}
+
+	/**
+	 * gather the outline pieces added since the last flush, for strokes started with variable width
+	 *
+	 * @return false if there is nothing new to draw
+	 */
+	private boolean buildOutlines(Paint paint) {
+		batchPath.rewind();
+		batchBounds.setEmpty();
+
+		boolean outlined = false;
+		for (int id = 0; id < MAX_POINTERS; id++) {
+			StrokeOutline outline = outlines[id];
+			if ((activePointers & (1 << id)) == 0 || outline.size() == 0) {
+				continue;
+			}
+
+			if (drawnPieces[id] < outline.size()) {
+				addPieces(outline, drawnPieces[id], outline.size(), batchPath, batchBounds);
+				drawnPieces[id] = outline.size();
+				outlined = true;
+			}
+		}
+
+		if (outlined) {
+			fillPaint.set(paint);
+			fillPaint.setStyle(Paint.Style.FILL);
+		}
+
+		return outlined;
+	}
+
+	/**
+	 * add pieces [from, to) of an outline to a path, to be filled with the non-zero rule
+	 *
+	 * @param bounds grown to include every pixel the pieces may touch
+	 */
+	static void addPieces(StrokeOutline outline, int from, int to, Path path, Rect bounds) {
+		float[] pieces = outline.array();
+		for (int piece = from; piece < to; piece++) {
+			int i = piece * StrokeOutline.PIECE_STRIDE;
+			if (outline.hasQuad(piece)) {
+				int q = i + StrokeOutline.QUAD;
+				path.moveTo(pieces[q], pieces[q + 1]);
+				path.lineTo(pieces[q + 2], pieces[q + 3]);
+				path.lineTo(pieces[q + 4], pieces[q + 5]);
+				path.lineTo(pieces[q + 6], pieces[q + 7]);
+				path.close();
+
+				// the first two corners lie on the previous disc, which may have been flushed already
+				float minX = Math.min(pieces[q], pieces[q + 2]), maxX = Math.max(pieces[q], pieces[q + 2]);
+				float minY = Math.min(pieces[q + 1], pieces[q + 3]), maxY = Math.max(pieces[q + 1], pieces[q + 3]);
+				bounds.union((int) Math.floor(minX) - 1, (int) Math.floor(minY) - 1,
+					(int) Math.ceil(maxX) + 1, (int) Math.ceil(maxY) + 1);
+			}
+
+			// the last two corners lie on this disc
+			float x = pieces[i + StrokeOutline.DISC_X];
+			float y = pieces[i + StrokeOutline.DISC_Y];
+			float radius = pieces[i + StrokeOutline.DISC_RADIUS];
+			path.addCircle(x, y, radius, Path.Direction.CW);
+			bounds.union((int) Math.floor(x - radius) - 1, (int) Math.floor(y - radius) - 1,
+				(int) Math.ceil(x + radius) + 1, (int) Math.ceil(y + radius) + 1);
+		}
+	}
+
+	private boolean buildBatch(Paint paint) {
+		batchPath.rewind();
+		batchBounds.setEmpty();
+
+		boolean added = false;
+		for (int id = 0; id < MAX_POINTERS; id++) {
+			if ((activePointers & (1 << id)) != 0) {
+				added |= rasterizers[id].addSegmentTo(batchPath, paint, batchBounds);
+			}
+		}
+
+		return added;
+	}
+}
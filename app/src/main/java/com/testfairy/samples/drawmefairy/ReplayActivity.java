@@ -0,0 +1,128 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.widget.SeekBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.testfairy.TestFairy;
+
+import java.io.File;
+import java.io.IOException;
+
+import stroke.StrokeJournal;
+import stroke.StrokeLog;
+
+/**
+ * Time-lapse replay of the drawing in a stroke journal, for support and QA to
+ * see how something was drawn.
+ */
+public class ReplayActivity extends Activity {
+
+	/// path of the stroke journal to replay
+	public static final String EXTRA_JOURNAL = "journal";
+
+	private final String TAG = getClass().getSimpleName();
+
+	private ReplayView replayView;
+	private TextView speedLabel;
+
+	private SeekBar.OnSeekBarChangeListener onSpeedChange = new SeekBar.OnSeekBarChangeListener() {
+		@Override
+		public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+			replayView.setSpeed(ReplayView.MIN_SPEED + progress);
+			showSpeed();
+		}
+
+		@Override
+		public void onStartTrackingTouch(SeekBar seekBar) {
+		}
+
+		@Override
+		public void onStopTrackingTouch(SeekBar seekBar) {
+		}
+	};
+
+	private View.OnClickListener onRestartClick = new View.OnClickListener() {
+		@Override
+		public void onClick(View v) {
+			TestFairy.addEvent("Replay restarted at " + Math.round(replayView.getSpeed()) + "x");
+			replayView.restart();
+		}
+	};
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.replay);
+
+		replayView = findViewById(R.id.replay_view);
+		speedLabel = findViewById(R.id.replay_speed_label);
+
+		SeekBar speedBar = findViewById(R.id.replay_speed);
+		speedBar.setMax(Math.round(ReplayView.MAX_SPEED - ReplayView.MIN_SPEED));
+		speedBar.setOnSeekBarChangeListener(onSpeedChange);
+		findViewById(R.id.replay_restart).setOnClickListener(onRestartClick);
+		showSpeed();
+
+		StrokeLog[] logs = readJournal(new File(getIntent().getStringExtra(EXTRA_JOURNAL)));
+		if (logs == null) {
+			Toast.makeText(this, "Nothing to replay", Toast.LENGTH_SHORT).show();
+			finish();
+			return;
+		}
+
+		replayView.setDrawing(logs);
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		replayView.play();
+	}
+
+	@Override
+	protected void onPause() {
+		replayView.pause();
+		super.onPause();
+	}
+
+	private void showSpeed() {
+		speedLabel.setText(Math.round(replayView.getSpeed()) + "x");
+	}
+
+	/**
+	 * the applied strokes of every layer in a journal
+	 *
+	 * @return one log per layer, or null if the journal cannot be read
+	 */
+	private StrokeLog[] readJournal(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+
+		StrokeJournal journal = null;
+		try {
+			journal = StrokeJournal.openReadOnly(file);
+			StrokeLog[] logs = new StrokeLog[journal.getLayerCount()];
+			for (int i = 0; i < logs.length; i++) {
+				logs[i] = new StrokeLog();
+
+				// undone strokes were never seen on screen
+				logs[i].truncate(journal.replay(logs[i], i));
+			}
+
+			return logs;
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot read stroke journal " + file, e);
+			return null;
+		} finally {
+			if (journal != null) {
+				journal.close();
+			}
+		}
+	}
+}
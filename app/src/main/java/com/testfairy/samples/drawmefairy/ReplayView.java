@@ -0,0 +1,208 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+
+import stroke.StrokeLog;
+import stroke.StrokeTimeline;
+
+/**
+ * Time-lapse replay of a drawing, stroke by stroke, at 1x to 50x speed.
+ *
+ * The playback clock is driven by vsync: every frame advances it by the time
+ * since the previous frame times the speed, however long drawing took. Each
+ * frame then draws every stroke that completed on the clock since the last
+ * one, straight into the tiles of its layer, and invalidates once. When a
+ * batch takes longer than a frame, vsyncs are skipped, the next frame covers
+ * more playback time and batches more strokes, so playback drops frames
+ * instead of falling behind and ends on time even with thousands of strokes.
+ */
+class ReplayView extends View implements Choreographer.FrameCallback {
+
+	private final String TAG = getClass().getSimpleName();
+
+	public static final float MIN_SPEED = 1;
+	public static final float MAX_SPEED = 50;
+
+	/// strokes of every layer, bottom first, and when each of them appears
+	private StrokeLog[] logs;
+	private StrokeTimeline timeline;
+
+	/// replayed pixels of every layer
+	private TiledCanvas[] canvases = new TiledCanvas[0];
+
+	private final StampCache stampCache = new StampCache();
+	private final StrokeLogRenderer renderer;
+	private final Paint canvasPaint = new Paint(Paint.DITHER_FLAG);
+	private final Rect clipRect = new Rect();
+
+	private float speed = MIN_SPEED;
+
+	/// playback clock in milliseconds, and the vsync time it was last advanced at, 0 after a pause
+	private double playbackTime = 0;
+	private long lastFrameTime = 0;
+
+	/// strokes of the timeline drawn so far
+	private int drawn = 0;
+
+	private boolean playing = false;
+
+	public ReplayView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+
+		// same paint as DrawingPanel, color, width and mode come from the log
+		Paint template = new Paint();
+		template.setAntiAlias(true);
+		template.setDither(true);
+		template.setColor(Color.WHITE);
+		template.setStyle(Paint.Style.STROKE);
+		template.setStrokeJoin(Paint.Join.ROUND);
+		template.setStrokeCap(Paint.Cap.ROUND);
+		renderer = new StrokeLogRenderer(template, stampCache);
+	}
+
+	/**
+	 * replay a drawing from its start
+	 *
+	 * @param logs applied strokes of every layer, bottom first
+	 */
+	public void setDrawing(StrokeLog[] logs) {
+		this.logs = logs;
+		timeline = new StrokeTimeline(logs);
+
+		for (TiledCanvas canvas : canvases) {
+			canvas.clear();
+		}
+
+		canvases = new TiledCanvas[logs.length];
+		for (int i = 0; i < logs.length; i++) {
+			canvases[i] = new TiledCanvas();
+			canvases[i].resize(getWidth(), getHeight());
+		}
+
+		Log.v(TAG, "Replaying " + timeline.size() + " strokes, " + timeline.getDuration() + " ms at 1x");
+		restart();
+	}
+
+	/**
+	 * @param speed MIN_SPEED..MAX_SPEED times as fast as the strokes were drawn
+	 */
+	public void setSpeed(float speed) {
+		this.speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+	}
+
+	public float getSpeed() {
+		return speed;
+	}
+
+	public boolean isPlaying() {
+		return playing;
+	}
+
+	/**
+	 * clear the replayed strokes and play from the start
+	 */
+	public void restart() {
+		pause();
+		for (TiledCanvas canvas : canvases) {
+			canvas.clear();
+		}
+
+		playbackTime = 0;
+		drawn = 0;
+		invalidate();
+		play();
+	}
+
+	/**
+	 * continue playing, once the view has a size
+	 */
+	public void play() {
+		if (playing || timeline == null || drawn == timeline.size() || getWidth() == 0 || getHeight() == 0) {
+			return;
+		}
+
+		playing = true;
+		lastFrameTime = 0;
+		Choreographer.getInstance().postFrameCallback(this);
+	}
+
+	public void pause() {
+		playing = false;
+		Choreographer.getInstance().removeFrameCallback(this);
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		if (!playing) {
+			return;
+		}
+
+		// the first frame after play() only starts the clock
+		if (lastFrameTime != 0) {
+			playbackTime += (frameTimeNanos - lastFrameTime) / 1000000.0 * speed;
+		}
+
+		lastFrameTime = frameTimeNanos;
+
+		int due = timeline.countAt((long) playbackTime);
+		if (due > drawn) {
+			for (; drawn < due; drawn++) {
+				int layer = timeline.getLayer(drawn);
+				renderer.drawStroke(logs[layer], timeline.getStroke(drawn), canvases[layer]);
+			}
+
+			invalidate();
+		}
+
+		if (drawn < timeline.size()) {
+			Choreographer.getInstance().postFrameCallback(this);
+		} else {
+			playing = false;
+			Log.v(TAG, "Replay finished");
+		}
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		for (TiledCanvas canvas : canvases) {
+			canvas.resize(w, h);
+		}
+
+		// strokes clipped by the old size are gone, start over
+		if (timeline != null) {
+			restart();
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		pause();
+		for (TiledCanvas canvas : canvases) {
+			canvas.clear();
+		}
+
+		renderer.release();
+		super.onDetachedFromWindow();
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		if (!canvas.getClipBounds(clipRect)) {
+			return;
+		}
+
+		// layers are shown with a normal blend, blend modes and opacity are not journaled
+		for (TiledCanvas layer : canvases) {
+			layer.draw(canvas, clipRect, canvasPaint);
+		}
+	}
+}
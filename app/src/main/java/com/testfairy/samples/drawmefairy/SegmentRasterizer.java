@@ -0,0 +1,102 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+
+import stroke.SegmentQueue;
+
+/**
+ * Rasterizes a stroke one segment at a time, instead of redrawing the whole
+ * accumulated path on every touch sample.
+ *
+ * The newest drawn points are kept as context in a SegmentQueue and drawn
+ * again together with the pending ones as a single short path, so the round
+ * join at the previous point is produced by the path's join and not by two
+ * overlapping caps. Points may be appended in batches (e.g. historical
+ * MotionEvent samples) and rasterized with one draw call.
+ */
+class SegmentRasterizer {
+
+	/// pending points, led by the drawn ones kept as context
+	private final SegmentQueue queue = new SegmentQueue();
+
+	/// distance since the last stamp, for stamped brushes
+	private float travelled = StampBrush.STROKE_START;
+
+	/**
+	 * start a new stroke at the given point
+	 */
+	public void moveTo(float x, float y) {
+		queue.moveTo(x, y);
+		travelled = StampBrush.STROKE_START;
+	}
+
+	/**
+	 * queue a point, it is drawn on the next flush
+	 */
+	public void append(float x, float y) {
+		queue.append(x, y);
+	}
+
+	/**
+	 * add the dabs along the queued points to a stamped brush and keep the
+	 * newest points as context, like addSegmentTo
+	 *
+	 * @return false if there is nothing new to draw
+	 */
+	public boolean addDabsTo(StampBrush brush) {
+		if (!queue.hasPending()) {
+			return false;
+		}
+
+		// the last drawn point is where the previous segment stopped placing dabs
+		float[] points = queue.array();
+		for (int i = queue.getContextCount(); i < queue.size(); i++) {
+			travelled = brush.addSegment(points[i * 2 - 2], points[i * 2 - 1], points[i * 2], points[i * 2 + 1], travelled);
+		}
+
+		queue.keepContext();
+		return true;
+	}
+
+	/**
+	 * add the queued points, joined to the previously drawn ones, as a contour
+	 * of path and keep the newest ones as context for the next segment
+	 *
+	 * @param path   receives the segment, other contours are left alone
+	 * @param paint  stroke paint
+	 * @param bounds grown to include every pixel the segment may touch
+	 * @return false if there is nothing new to draw
+	 */
+	public boolean addSegmentTo(Path path, Paint paint, Rect bounds) {
+		if (!queue.hasPending()) {
+			return false;
+		}
+
+		float[] points = queue.array();
+		int count = queue.size();
+		float minX = points[0], maxX = points[0];
+		float minY = points[1], maxY = points[1];
+
+		path.moveTo(points[0], points[1]);
+		for (int i = 1; i < count; i++) {
+			float px = points[i * 2];
+			float py = points[i * 2 + 1];
+			path.lineTo(px, py);
+
+			minX = Math.min(minX, px);
+			maxX = Math.max(maxX, px);
+			minY = Math.min(minY, py);
+			maxY = Math.max(maxY, py);
+		}
+
+		// round caps reach half the stroke width past the points, plus a pixel of anti-aliasing
+		float halfWidth = paint.getStrokeWidth() / 2 + 1;
+		bounds.union((int) Math.floor(minX - halfWidth), (int) Math.floor(minY - halfWidth),
+			(int) Math.ceil(maxX + halfWidth), (int) Math.ceil(maxY + halfWidth));
+
+		queue.keepContext();
+		return true;
+	}
+}
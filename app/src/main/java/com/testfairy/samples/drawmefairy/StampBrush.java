@@ -0,0 +1,190 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import stroke.StrokeLog;
+
+/**
+ * Textured brushes drawn as a row of stamps along the stroke.
+ *
+ * Dabs are placed at a fixed arc-length spacing, a fraction of the stamp
+ * size, so their density does not depend on how fast the finger moves or how
+ * many touch samples arrive. The distance travelled since the last dab is
+ * carried from one segment to the next by the caller, so a stroke drawn in
+ * increments places the same dabs as one drawn at once.
+ *
+ * The airbrush scatters its dabs around the stroke. Each dab's offset is
+ * hashed from its position on the stroke, so a replay sprays the same dabs
+ * as the live stroke did. The marker's dabs overlap about four times along
+ * the stroke with a low flow, so a single pass stays translucent and only
+ * crossing strokes build up.
+ *
+ * Dabs are collected first and then drawn in one pass, every one with the
+ * same cached stamp bitmap.
+ */
+class StampBrush {
+
+	/// per StrokeLog.BRUSH_*: stamp diameter relative to the stroke width
+	private static final float[] SIZE = {1, 0.5f, 0.5f, 1.2f};
+	/// per brush: distance between dabs relative to the stamp diameter
+	private static final float[] SPACING = {1, 0.1f, 0.25f, 0.25f};
+	/// per brush: hardness and flow of a dab, 0..255
+	private static final int[] HARDNESS = {255, 0, 200, 160};
+	private static final int[] FLOW = {255, 48, 220, 40};
+	/// per brush: radius dabs are scattered within, relative to the stroke width
+	private static final float[] SCATTER = {0, 0.5f, 0, 0};
+
+	/// distance travelled at the start of a stroke, puts the first dab on its first point
+	public static final float STROKE_START = Float.MAX_VALUE;
+
+	private final StampCache cache;
+
+	/// stamp and spacing of the current brush
+	private Bitmap stamp;
+	private float spacing;
+	private float halfSize;
+	private float scatter;
+
+	/// left,top of every collected dab
+	private float[] dabs = new float[256];
+	private int dabCount = 0;
+	private final Rect dabBounds = new Rect();
+
+	/// dabs are drawn at sub-pixel positions
+	private final Paint stampPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	public StampBrush(StampCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * is a brush drawn with stamps, or as a plain path?
+	 *
+	 * @param brush one of StrokeLog.BRUSH_*
+	 */
+	public static boolean isStamped(int brush) {
+		return brush != StrokeLog.BRUSH_ROUND;
+	}
+
+	/**
+	 * pick the stamp for the next dabs
+	 *
+	 * @param brush one of StrokeLog.BRUSH_*, except BRUSH_ROUND
+	 * @param color ARGB color
+	 * @param width stroke width in pixels
+	 */
+	public void setBrush(int brush, int color, float width) {
+		int diameter = Math.max(1, Math.min(4095, Math.round(width * SIZE[brush])));
+		stamp = cache.get(brush, diameter, HARDNESS[brush], FLOW[brush], color);
+		spacing = Math.max(1, diameter * SPACING[brush]);
+		halfSize = diameter / 2f;
+		scatter = width * SCATTER[brush];
+	}
+
+	/**
+	 * collect the dabs along a segment
+	 *
+	 * @param travelled distance covered since the last dab, as returned for the previous segment
+	 * @return distance covered since the last dab at the end of the segment
+	 */
+	public float addSegment(float x0, float y0, float x1, float y1, float travelled) {
+		float dx = x1 - x0;
+		float dy = y1 - y0;
+		float length = (float) Math.sqrt(dx * dx + dy * dy);
+
+		// distance into the segment of the next dab
+		float next = Math.max(0, spacing - travelled);
+		while (next <= length) {
+			float t = length == 0 ? 0 : next / length;
+			addDab(x0 + dx * t, y0 + dy * t);
+			next += spacing;
+		}
+
+		return length - (next - spacing);
+	}
+
+	/**
+	 * collect the dabs along points [from, to) of a log, as a whole stroke
+	 */
+	public void addStroke(StrokeLog log, int from, int to) {
+		float travelled = STROKE_START;
+		for (int i = from + 1; i < to; i++) {
+			travelled = addSegment(log.getX(i - 1), log.getY(i - 1), log.getX(i), log.getY(i), travelled);
+		}
+	}
+
+	/**
+	 * draw the collected dabs and forget them
+	 *
+	 * @param dirty grown to include every pixel the dabs touched
+	 */
+	public void draw(TiledCanvas canvas, Rect dirty) {
+		if (dabCount > 0) {
+			canvas.drawBitmaps(stamp, dabs, dabCount, stampPaint, dabBounds);
+			dirty.union(dabBounds);
+			clear();
+		}
+	}
+
+	/**
+	 * draw the collected dabs and forget them
+	 *
+	 * @param dirty grown to include every pixel the dabs touched
+	 */
+	public void draw(Canvas canvas, Rect dirty) {
+		for (int i = 0; i < dabCount; i++) {
+			canvas.drawBitmap(stamp, dabs[i * 2], dabs[i * 2 + 1], stampPaint);
+		}
+
+		if (dabCount > 0) {
+			dirty.union(dabBounds);
+			clear();
+		}
+	}
+
+	private void clear() {
+		dabCount = 0;
+		dabBounds.setEmpty();
+	}
+
+	private void addDab(float x, float y) {
+		if (dabCount * 2 == dabs.length) {
+			float[] grown = new float[dabs.length * 2];
+			System.arraycopy(dabs, 0, grown, 0, dabs.length);
+			dabs = grown;
+		}
+
+		if (scatter > 0) {
+			// uniform over the disc, from a hash of the position so replays scatter alike
+			int hash = mix(Float.floatToIntBits(x) * 31 + Float.floatToIntBits(y));
+			double angle = (hash & 0xffff) * (2 * Math.PI / 65536);
+			float distance = scatter * (float) Math.sqrt((hash >>> 16) / 65536f);
+			x += distance * (float) Math.cos(angle);
+			y += distance * (float) Math.sin(angle);
+		}
+
+		float left = x - halfSize;
+		float top = y - halfSize;
+		dabs[dabCount * 2] = left;
+		dabs[dabCount * 2 + 1] = top;
+		dabCount++;
+
+		dabBounds.union((int) Math.floor(left) - 1, (int) Math.floor(top) - 1,
+			(int) Math.ceil(left) + stamp.getWidth() + 1, (int) Math.ceil(top) + stamp.getHeight() + 1);
+	}
+
+	/**
+	 * scramble the bits of a hash, the finalizer of MurmurHash3
+	 */
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+}
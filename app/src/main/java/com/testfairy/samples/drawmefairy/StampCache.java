@@ -0,0 +1,124 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import stroke.StrokeLog;
+
+/**
+ * Rasterized brush stamps, keyed by brush, size, hardness and color.
+ *
+ * A stamp is generated once, pixel by pixel, the first time a brush is used
+ * with a given size and color. Every dab after that, on any stroke, draws the
+ * same bitmap. Stamps are evicted least recently used first once they exceed
+ * the byte budget.
+ *
+ * Shared by the UI and render threads.
+ */
+class StampCache {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/// default memory for stamp pixels
+	public static final long DEFAULT_BYTE_BUDGET = 2 * 1024 * 1024;
+
+	/// access ordered, so iteration starts at the least recently used stamp
+	private final LinkedHashMap<Long, Bitmap> stamps = new LinkedHashMap<Long, Bitmap>(16, 0.75f, true);
+	private long bytes = 0;
+	private final long byteBudget;
+
+	private int hits = 0;
+	private int misses = 0;
+
+	public StampCache() {
+		this(DEFAULT_BYTE_BUDGET);
+	}
+
+	public StampCache(long byteBudget) {
+		this.byteBudget = byteBudget;
+	}
+
+	/**
+	 * the stamp for a brush, generated on first use
+	 *
+	 * @param brush    one of StrokeLog.BRUSH_*, used to pick the texture
+	 * @param diameter stamp size in pixels, 1..4095
+	 * @param hardness 0 fades out from the center, 255 is a hard edge
+	 * @param flow     opacity of a single dab, 0..255
+	 * @param color    ARGB color
+	 */
+	public synchronized Bitmap get(int brush, int diameter, int hardness, int flow, int color) {
+		long key = (long) ((brush << 28) | (diameter << 16) | (hardness << 8) | flow) << 32 | (color & 0xffffffffL);
+		Bitmap stamp = stamps.get(key);
+		if (stamp != null) {
+			hits++;
+			return stamp;
+		}
+
+		misses++;
+		stamp = createStamp(brush, diameter, hardness, flow, color, key);
+		stamps.put(key, stamp);
+		bytes += stamp.getByteCount();
+		evict(stamp);
+		Log.v(TAG, "Created " + diameter + "px stamp, " + stamps.size() + " cached, " + hits + " hits, " + misses + " misses");
+		return stamp;
+	}
+
+	/**
+	 * drop least recently used stamps until the budget fits, never the one just created
+	 */
+	private void evict(Bitmap keep) {
+		Iterator<Map.Entry<Long, Bitmap>> iterator = stamps.entrySet().iterator();
+		while (bytes > byteBudget && iterator.hasNext()) {
+			Bitmap stamp = iterator.next().getValue();
+			if (stamp == keep) {
+				break;
+			}
+
+			// a stroke may still hold it, so it is left to the garbage collector instead of recycled
+			bytes -= stamp.getByteCount();
+			iterator.remove();
+		}
+	}
+
+	private static Bitmap createStamp(int brush, int diameter, int hardness, int flow, int color, long seed) {
+		int[] pixels = new int[diameter * diameter];
+		float radius = diameter / 2f;
+		float solid = hardness / 255f;
+		int alpha = (color >>> 24) * flow / 255;
+		Random grain = brush == StrokeLog.BRUSH_PENCIL ? new Random(seed) : null;
+
+		for (int y = 0; y < diameter; y++) {
+			for (int x = 0; x < diameter; x++) {
+				float dx = x + 0.5f - radius;
+				float dy = y + 0.5f - radius;
+				float r = (float) Math.sqrt(dx * dx + dy * dy) / radius;
+
+				// full inside the hard core, smooth falloff to the rim, with a pixel of anti-aliasing at the edge
+				float coverage;
+				if (r <= solid) {
+					coverage = 1;
+				} else {
+					float t = Math.min(1, (r - solid) / Math.max(1e-3f, 1 - solid));
+					coverage = 1 - t * t * (3 - 2 * t);
+				}
+
+				coverage *= Math.max(0, Math.min(1, (radius - r * radius) + 0.5f));
+				if (grain != null) {
+					coverage *= 0.3f + 0.7f * grain.nextFloat();
+				}
+
+				pixels[y * diameter + x] = (Math.round(alpha * coverage) << 24) | (color & 0xffffff);
+			}
+		}
+
+		Bitmap stamp = Bitmap.createBitmap(diameter, diameter, Bitmap.Config.ARGB_8888);
+		stamp.setPixels(pixels, 0, diameter, 0, 0, diameter, diameter);
+		return stamp;
+	}
+}
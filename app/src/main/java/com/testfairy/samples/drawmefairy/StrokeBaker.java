@@ -0,0 +1,169 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import stroke.StrokeLog;
+
+/**
+ * Bakes a layer's older strokes into pixels in the background, so only the
+ * most recent strokes stay editable vectors.
+ *
+ * Everything that re-renders the layer, zoomed detail, undo and erasing a
+ * stroke, replays the editable strokes over the baked base. How many strokes
+ * stay editable follows from how long one takes to draw, measured while
+ * baking: as many as fit in RENDER_BUDGET_NANOS, between MIN_VECTORS and
+ * MAX_VECTORS. Once there are more, the older half is frozen in the undo
+ * history. If a keyframe holds about that many strokes, it simply becomes the
+ * new base. Otherwise the bake starts from the newest keyframe or base before
+ * them: the strokes after it are copied out of the log on the UI thread and
+ * drawn over a copy of its tiles on a background thread, and a snapshot of
+ * the result comes back as the new base. That snapshot shares every tile the
+ * strokes left alone, and the working copy is dropped, so the baker holds no
+ * pixels of its own between bakes, and the base counts against the undo
+ * history's byte budget. Replays so cost about the same frame time however
+ * long the session runs.
+ */
+class StrokeBaker {
+
+	private static final String TAG = "StrokeBaker";
+
+	/// frame time a replay of the editable strokes may take
+	public static final long RENDER_BUDGET_NANOS = 8 * 1000 * 1000;
+
+	/// bounds of the number of editable strokes
+	public static final int MIN_VECTORS = 32;
+	public static final int MAX_VECTORS = 1024;
+
+	/// cost of a stroke until one was measured
+	private static final long INITIAL_NANOS_PER_STROKE = 100 * 1000;
+
+	/// shared by all layers, so panels never leak threads
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "stroke-baker");
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private final StrokeLog log;
+	private final UndoHistory history;
+
+	/// baker thread only: draws the strokes
+	private final StrokeLogRenderer renderer;
+
+	/// smoothed time to draw one stroke, written by the baker thread
+	private volatile long nanosPerStroke = INITIAL_NANOS_PER_STROKE;
+
+	/// UI thread: a bake is queued or running
+	private boolean running = false;
+
+	/**
+	 * @param renderer used on the baker thread only, not shared with the UI thread
+	 */
+	public StrokeBaker(StrokeLog log, UndoHistory history, StrokeLogRenderer renderer) {
+		this.log = log;
+		this.history = history;
+		this.renderer = renderer;
+	}
+
+	/**
+	 * number of recent strokes kept as vectors
+	 */
+	public int getVectorLimit() {
+		long limit = RENDER_BUDGET_NANOS / Math.max(1, nanosPerStroke);
+		return (int) Math.max(MIN_VECTORS, Math.min(MAX_VECTORS, limit));
+	}
+
+	/**
+	 * bake older strokes if too many are editable, UI thread, after a stroke was committed
+	 *
+	 * @param width  canvas width
+	 * @param height canvas height
+	 */
+	public void maybeBake(final int width, final int height) {
+		int head = history.getHead();
+		int limit = getVectorLimit();
+		if (running || width == 0 || height == 0 || head - history.getBakedCount() <= limit) {
+			return;
+		}
+
+		// bake the older half, so the next bake is another limit / 2 strokes away
+		int count = head - limit / 2;
+		final int generation = history.getGeneration();
+		int from = history.getRestorePoint(count);
+		if (from > history.getBaseCount() && count - from < UndoHistory.KEYFRAME_INTERVAL) {
+			// a keyframe already holds about as many strokes, it becomes the base as it is
+			history.freeze(from);
+			history.setBase(from, generation, history.shareRestorePoint(from));
+			return;
+		}
+
+		history.freeze(count);
+		final TiledCanvas.Snapshot origin = history.shareRestorePoint(from);
+
+		// the log changes on the UI thread, the baker thread gets a copy
+		final StrokeLog batch = new StrokeLog();
+		for (int stroke = from; stroke < count; stroke++) {
+			batch.append(log, stroke);
+		}
+
+		running = true;
+		final int bakedCount = count;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				bake(batch, origin, width, height, bakedCount, generation);
+			}
+		});
+	}
+
+	/**
+	 * @param origin tiles the strokes are drawn over, null for a blank canvas
+	 */
+	private void bake(StrokeLog batch, final TiledCanvas.Snapshot origin, int width, int height,
+	                  final int count, final int generation) {
+		// a working copy, tiles no stroke touches stay shared with origin in the snapshot
+		TiledCanvas canvas = new TiledCanvas();
+		canvas.resize(width, height);
+		if (origin != null) {
+			canvas.restore(origin);
+		}
+
+		long start = System.nanoTime();
+		renderer.drawStrokes(batch, 0, batch.size(), canvas);
+		renderer.release();
+		long elapsed = System.nanoTime() - start;
+		if (batch.size() > 0) {
+			nanosPerStroke = (nanosPerStroke * 3 + elapsed / batch.size()) / 4;
+		}
+
+		final TiledCanvas.Snapshot snapshot = canvas.snapshot();
+		canvas.clear();
+		Log.v(TAG, "Baked " + batch.size() + " strokes in " + elapsed / 1000000 + " ms, keeping " + getVectorLimit() + " vectors");
+
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				running = false;
+				if (!history.setBase(count, generation, snapshot)) {
+					snapshot.recycle();
+				}
+
+				// after the snapshot, so tiles only the history counted are freed through it
+				if (origin != null) {
+					history.release(origin);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,162 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import stroke.StrokeLog;
+import stroke.StrokeOutline;
+
+/**
+ * Draws strokes recorded in a StrokeLog, e.g. to rebuild the canvas for undo.
+ */
+class StrokeLogRenderer {
+
+	private final Paint paint;
+	private final PorterDuffXfermode eraseMode = new PorterDuffXfermode(PorterDuff.Mode.CLEAR);
+
+	/// reused for every replayed stroke
+	private final Path path = new Path();
+	private final Rect bounds = new Rect();
+
+	/// replays fill strokes, keeps its pixel buffer between fills
+	private final BucketFill bucketFill = new BucketFill();
+
+	/// tessellates variable-width strokes
+	private final StrokeOutline outline = new StrokeOutline();
+	private final Rect outlineBounds = new Rect();
+
+	/// replays strokes of textured brushes
+	private final StampBrush stampBrush;
+	private final StampCache stamps;
+
+	/**
+	 * @param template paint the strokes were drawn with, color, width and mode are taken from the log
+	 * @param stamps   stamps of textured brushes
+	 */
+	public StrokeLogRenderer(Paint template, StampCache stamps) {
+		paint = new Paint(template);
+		this.stamps = stamps;
+		stampBrush = new StampBrush(stamps);
+	}
+
+	/**
+	 * a renderer drawing like another one, e.g. for use on another thread
+	 */
+	public StrokeLogRenderer(StrokeLogRenderer other) {
+		this(other.paint, other.stamps);
+	}
+
+	/**
+	 * draw strokes [from, to) of the log
+	 */
+	public void drawStrokes(StrokeLog log, int from, int to, TiledCanvas canvas) {
+		for (int stroke = from; stroke < to; stroke++) {
+			drawStroke(log, stroke, canvas);
+		}
+	}
+
+	public void drawStroke(StrokeLog log, int stroke, TiledCanvas canvas) {
+		if (log.isFill(stroke) && !log.isDeleted(stroke)) {
+			int seed = log.getPointOffset(stroke);
+			bucketFill.fill(canvas, (int) log.getX(seed), (int) log.getY(seed), log.getColor(stroke), log.getFillTolerance(stroke));
+		} else if (prepareStamps(log, stroke)) {
+			stampBrush.draw(canvas, bounds);
+		} else if (prepare(log, stroke)) {
+			canvas.drawPath(path, paint, bounds);
+		}
+	}
+
+	/**
+	 * draw a stroke onto a plain canvas, which may be transformed, e.g. zoomed,
+	 * fills need the pixels under them and draw nothing here
+	 */
+	public void drawStroke(StrokeLog log, int stroke, Canvas canvas) {
+		if (prepareStamps(log, stroke)) {
+			stampBrush.draw(canvas, bounds);
+		} else if (prepare(log, stroke)) {
+			canvas.drawPath(path, paint);
+		}
+	}
+
+	/**
+	 * free the pixel buffer kept for fills
+	 */
+	public void release() {
+		bucketFill.release();
+	}
+
+	/**
+	 * collect the dabs of a stroke drawn with a textured brush
+	 *
+	 * @return false if the stroke is not stamped or draws nothing
+	 */
+	private boolean prepareStamps(StrokeLog log, int stroke) {
+		int count = log.getPointCount(stroke);
+		if (!StampBrush.isStamped(log.getBrush(stroke)) || count < 2 || log.isDeleted(stroke) || log.isErase(stroke)) {
+			return false;
+		}
+
+		int offset = log.getPointOffset(stroke);
+		stampBrush.setBrush(log.getBrush(stroke), log.getColor(stroke), log.getWidth(stroke));
+		stampBrush.addStroke(log, offset, offset + count);
+		bounds.setEmpty();
+		return true;
+	}
+
+	/**
+	 * set up path, paint and bounds for a stroke
+	 *
+	 * @return false if the stroke draws nothing
+	 */
+	private boolean prepare(StrokeLog log, int stroke) {
+		int offset = log.getPointOffset(stroke);
+		int count = log.getPointCount(stroke);
+		if (count < 2 || log.isDeleted(stroke) || log.isFill(stroke)) {
+			return false;
+		}
+
+		float minX = log.getX(offset), maxX = minX;
+		float minY = log.getY(offset), maxY = minY;
+
+		boolean variableWidth = log.isVariableWidth(stroke);
+		path.rewind();
+		if (variableWidth) {
+			outline.begin(minX, minY, log.getPointWidth(offset));
+		} else {
+			path.moveTo(minX, minY);
+		}
+
+		for (int i = offset + 1; i < offset + count; i++) {
+			float x = log.getX(i);
+			float y = log.getY(i);
+			if (variableWidth) {
+				outline.add(x, y, log.getPointWidth(i));
+			} else {
+				path.lineTo(x, y);
+			}
+
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+		}
+
+		if (variableWidth) {
+			MultiStrokeRasterizer.addPieces(outline, 0, outline.size(), path, outlineBounds);
+		}
+
+		paint.setColor(log.getColor(stroke));
+		paint.setStrokeWidth(log.getWidth(stroke));
+		paint.setStyle(variableWidth ? Paint.Style.FILL : Paint.Style.STROKE);
+		paint.setXfermode(log.isErase(stroke) ? eraseMode : null);
+
+		float halfWidth = paint.getStrokeWidth() / 2 + 1;
+		bounds.set((int) Math.floor(minX - halfWidth), (int) Math.floor(minY - halfWidth),
+			(int) Math.ceil(maxX + halfWidth), (int) Math.ceil(maxY + halfWidth));
+		return true;
+	}
+}
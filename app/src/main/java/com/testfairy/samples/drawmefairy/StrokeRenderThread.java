@@ -0,0 +1,237 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.util.Log;
+import android.view.View;
+
+import java.util.concurrent.locks.LockSupport;
+
+import stroke.TouchRingBuffer;
+
+/**
+ * Rasterizes touch samples into a back buffer off the UI thread.
+ *
+ * The UI thread queues samples into a TouchRingBuffer. This thread drains them,
+ * draws the new segments into the back buffer, and then copies the changed
+ * region into the front buffer under a lock. onDraw only ever draws the front
+ * buffer, so it always sees a completed frame.
+ *
+ * Both buffers shadow the canvas content, which the UI thread leaves alone
+ * while this thread runs: they only hold copies of the tiles strokes were
+ * drawn on, and read through to the content everywhere else.
+ */
+class StrokeRenderThread extends Thread {
+
+	private static final String TAG = "StrokeRenderThread";
+
+	/// queued samples, plenty for several frames of fast multi-sample moves
+	private static final int RING_CAPACITY = 4096;
+
+	private final View view;
+	private final TouchRingBuffer ringBuffer = new TouchRingBuffer(RING_CAPACITY);
+
+	/// scratch array samples are drained into
+	private final float[] drained = new float[256 * TouchRingBuffer.STRIDE];
+
+	/// tiles the render thread draws into
+	private final TiledCanvas back = new TiledCanvas();
+
+	/// tiles onDraw draws, guarded by frontLock
+	private final TiledCanvas front = new TiledCanvas();
+	private final Object frontLock = new Object();
+
+	/// copies pixels as-is, so erased (transparent) pixels reach the front buffer too
+	private final Paint copyPaint = new Paint();
+
+	/// union of every region published so far, guarded by frontLock
+	private final Rect touchedRect = new Rect();
+
+	private final Paint drawPaint;
+	private final MultiStrokeRasterizer multiStrokeRasterizer;
+	private final Rect dirtyRect = new Rect();
+
+	private volatile boolean running = true;
+
+	/// UI thread: samples dropped because the ring buffer was full, in all and since the last stroke ended
+	private int droppedSamples = 0;
+	private int strokeDroppedSamples = 0;
+
+	/**
+	 * @param view    view to invalidate when a frame is published
+	 * @param content canvas content drawn over, not changed until quit
+	 * @param paint   current brush, copied
+	 * @param brush   current brush style, one of StrokeLog.BRUSH_*
+	 * @param stamps  stamps of textured brushes
+	 */
+	public StrokeRenderThread(View view, TiledCanvas content, Paint paint, int brush, StampCache stamps) {
+		super("stroke-render");
+		this.view = view;
+		multiStrokeRasterizer = new MultiStrokeRasterizer(stamps);
+		multiStrokeRasterizer.setBrush(brush);
+
+		back.shadow(content);
+		front.shadow(content);
+
+		copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+		drawPaint = new Paint(paint);
+	}
+
+	/**
+	 * queue a touch sample, UI thread only
+	 *
+	 * @param width stroke width at the sample of a variable-width stroke, 0 for the brush width
+	 */
+	public void post(int type, float x, float y, int pointerId, float width) {
+		offer(type, x, y, pointerId, width);
+		if (type == TouchRingBuffer.TYPE_UP && strokeDroppedSamples > 0) {
+			Log.w(TAG, "Touch ring buffer full, dropped " + strokeDroppedSamples + " samples of a stroke");
+			strokeDroppedSamples = 0;
+		}
+	}
+
+	/**
+	 * queue a brush change so it applies between the right samples, UI thread only
+	 */
+	public void postBrush(Paint paint, int brush) {
+		int color = paint.getColor();
+		boolean erase = paint.getXfermode() != null;
+		float width = paint.getStrokeWidth();
+		offer(TouchRingBuffer.TYPE_BRUSH, color >>> 16, color & 0xffff, erase ? -width : width, 0);
+		offer(TouchRingBuffer.TYPE_BRUSH_STYLE, brush, 0, 0, 0);
+	}
+
+	/**
+	 * wake the render thread after a batch of samples was posted, UI thread only
+	 */
+	public void requestRender() {
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * draw the latest completed frame, UI thread only
+	 */
+	public void drawFront(Canvas canvas, Rect clip, Paint paint) {
+		synchronized (frontLock) {
+			front.draw(canvas, clip, paint);
+		}
+	}
+
+	/**
+	 * stop rendering and copy what was drawn into the given canvas, UI thread only
+	 */
+	public void quit(TiledCanvas target) {
+		running = false;
+		LockSupport.unpark(this);
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (frontLock) {
+			target.drawFrom(front, touchedRect, copyPaint);
+		}
+
+		back.clear();
+		front.clear();
+		if (droppedSamples > 0) {
+			Log.w(TAG, "Touch ring buffer was full, dropped " + droppedSamples + " samples in all");
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			if (ringBuffer.isEmpty()) {
+				// samples queued before quit() are still rendered
+				if (!running) {
+					break;
+				}
+
+				LockSupport.park(this);
+				continue;
+			}
+
+			dirtyRect.setEmpty();
+			int count;
+			while ((count = ringBuffer.drain(drained)) > 0) {
+				for (int n = 0; n < count; n++) {
+					render(n * TouchRingBuffer.STRIDE);
+				}
+			}
+
+			multiStrokeRasterizer.flush(back, drawPaint, dirtyRect);
+			publish();
+		}
+	}
+
+	private void offer(int type, float x, float y, float extra, float width) {
+		if (ringBuffer.offer(type, x, y, extra, width)) {
+			return;
+		}
+
+		LockSupport.unpark(this);
+		if (type == TouchRingBuffer.TYPE_MOVE) {
+			// reported once the stroke ends, a full buffer drops many samples in a row
+			droppedSamples++;
+			strokeDroppedSamples++;
+			return;
+		}
+
+		// downs, ups and brush changes are never dropped, and the reserved slots only run out
+		// if the render thread is stalled, so wait for it to drain
+		while (!ringBuffer.offer(type, x, y, extra, width) && isAlive()) {
+			LockSupport.unpark(this);
+			Thread.yield();
+		}
+	}
+
+	private void render(int i) {
+		float x = drained[i + 1];
+		float y = drained[i + 2];
+		int pointerId = (int) drained[i + 3];
+		float width = drained[i + 4];
+
+		switch ((int) drained[i]) {
+			case TouchRingBuffer.TYPE_DOWN:
+				multiStrokeRasterizer.moveTo(pointerId, x, y, width);
+				break;
+			case TouchRingBuffer.TYPE_MOVE:
+				multiStrokeRasterizer.append(pointerId, x, y, width);
+				break;
+			case TouchRingBuffer.TYPE_UP:
+				multiStrokeRasterizer.flush(back, drawPaint, dirtyRect);
+				multiStrokeRasterizer.end(pointerId);
+				break;
+			case TouchRingBuffer.TYPE_BRUSH:
+				// pending points belong to the old brush
+				multiStrokeRasterizer.flush(back, drawPaint, dirtyRect);
+				float brushWidth = drained[i + 3];
+				drawPaint.setColor(((int) x << 16) | (int) y);
+				drawPaint.setStrokeWidth(Math.abs(brushWidth));
+				drawPaint.setXfermode(brushWidth < 0 ? new PorterDuffXfermode(PorterDuff.Mode.CLEAR) : null);
+				break;
+			case TouchRingBuffer.TYPE_BRUSH_STYLE:
+				multiStrokeRasterizer.flush(back, drawPaint, dirtyRect);
+				multiStrokeRasterizer.setBrush((int) x);
+				break;
+		}
+	}
+
+	private void publish() {
+		if (!dirtyRect.intersect(0, 0, back.getWidth(), back.getHeight())) {
+			return;
+		}
+
+		synchronized (frontLock) {
+			front.drawFrom(back, dirtyRect, copyPaint);
+			touchedRect.union(dirtyRect);
+		}
+
+		view.postInvalidate(dirtyRect.left, dirtyRect.top, dirtyRect.right, dirtyRect.bottom);
+	}
+}
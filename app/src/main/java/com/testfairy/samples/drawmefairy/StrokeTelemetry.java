@@ -0,0 +1,206 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.testfairy.TestFairy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import stroke.StrokeCodec;
+import stroke.StrokeLog;
+
+/**
+ * Streams every stroke to the TestFairy session as compact records.
+ *
+ * Each committed stroke is appended to a batch on the UI thread as a
+ * StrokeCodec record, with its start time and duration, which costs a few
+ * bytes per point. A batch is flushed once it reaches BATCH_BYTES, or
+ * MAX_BATCH_AGE after its first stroke even if no more strokes come: a
+ * background thread writes it as a .stk file, readable with
+ * StrokeCodec.decode, attaches it to the session and adds an event with the
+ * strokes it holds. The process is one session, so its panels share the
+ * counters: together they never attach more than SESSION_BYTE_BUDGET of
+ * records, strokes past it are only counted.
+ *
+ * Batch files are named by their number in the session. The files of earlier
+ * sessions are deleted when the first panel is created, as an upload may
+ * still be reading a file after it was handed to the session.
+ */
+class StrokeTelemetry {
+
+	private static final String TAG = "StrokeTelemetry";
+
+	/// a batch is flushed once it holds this many bytes
+	public static final int BATCH_BYTES = 16 * 1024;
+
+	/// ms a stroke may wait in a batch, so a slow session still shows its strokes
+	public static final long MAX_BATCH_AGE = 30 * 1000;
+
+	/// most bytes of records all panels of a session attach
+	public static final int SESSION_BYTE_BUDGET = 256 * 1024;
+
+	private static final String FILE_PREFIX = "strokes-";
+	private static final String FILE_SUFFIX = ".stk";
+
+	/// shared by all panels, so panels never leak threads
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "stroke-telemetry");
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private final File directory;
+
+	/// session totals of all panels, UI thread only
+	private static int sessionBytes = 0;
+	private static int batchNumber = 0;
+	private static int droppedStrokes = 0;
+
+	/// strokes recorded in the session, numbers the strokes in events, UI thread only
+	private static int recordedStrokes = 0;
+
+	/// have the batch files of earlier sessions been deleted? UI thread only
+	private static boolean staleFilesCleared = false;
+
+	/// records of the current batch, header included
+	private final StrokeCodec batch = new StrokeCodec(BATCH_BYTES + 1024);
+	private int batchStrokes = 0;
+
+	/// posted when a batch starts, so it is attached even if no more strokes come
+	private final Runnable ageFlush = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * @param directory where batch files are written before they are attached
+	 */
+	public StrokeTelemetry(File directory) {
+		this.directory = directory;
+		batch.writeHeader();
+
+		if (!staleFilesCleared) {
+			staleFilesCleared = true;
+			// queued before any batch of this session is written
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					deleteStaleFiles();
+				}
+			});
+		}
+	}
+
+	/**
+	 * add a committed stroke to the current batch, UI thread
+	 */
+	public void record(StrokeLog log, int stroke) {
+		int before = batch.size();
+		batch.writeStroke(log, stroke);
+		if (sessionBytes + batch.size() > SESSION_BYTE_BUDGET) {
+			batch.truncate(before);
+			if (droppedStrokes++ == 0) {
+				Log.v(TAG, "Session byte budget of " + SESSION_BYTE_BUDGET / 1024 + " KB reached, no longer recording strokes");
+				TestFairy.addEvent("Stroke telemetry budget reached");
+			}
+
+			flush();
+			return;
+		}
+
+		if (batchStrokes++ == 0) {
+			mainHandler.postDelayed(ageFlush, MAX_BATCH_AGE);
+		}
+
+		recordedStrokes++;
+		if (batch.size() >= BATCH_BYTES) {
+			flush();
+		}
+	}
+
+	/**
+	 * attach the strokes recorded since the last flush, if any, UI thread
+	 */
+	public void flush() {
+		mainHandler.removeCallbacks(ageFlush);
+		if (batchStrokes == 0) {
+			return;
+		}
+
+		final byte[] data = batch.toByteArray();
+		final int strokes = batchStrokes;
+		final int firstStroke = recordedStrokes - strokes;
+		final int number = batchNumber++;
+		sessionBytes += data.length;
+		batch.reset();
+		batch.writeHeader();
+		batchStrokes = 0;
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				write(data, number, firstStroke, strokes);
+			}
+		});
+	}
+
+	/**
+	 * report the session's totals, UI thread
+	 */
+	public void publish() {
+		TestFairy.setAttribute("stroke_telemetry_bytes", Integer.toString(sessionBytes));
+		if (droppedStrokes > 0) {
+			TestFairy.setAttribute("stroke_telemetry_dropped", Integer.toString(droppedStrokes));
+		}
+	}
+
+	private void deleteStaleFiles() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		int deleted = 0;
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX) && file.delete()) {
+				deleted++;
+			}
+		}
+
+		if (deleted > 0) {
+			Log.v(TAG, "Deleted " + deleted + " stroke batches of earlier sessions");
+		}
+	}
+
+	private void write(byte[] data, int number, int firstStroke, int strokes) {
+		try {
+			// every batch is a file of its own, an upload may still be reading the previous one
+			File file = new File(directory, FILE_PREFIX + number + FILE_SUFFIX);
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+
+			TestFairy.attachFile(file);
+			TestFairy.addEvent("Strokes " + (firstStroke + 1) + "-" + (firstStroke + strokes) + " attached, " + data.length + " bytes");
+		} catch (Exception e) {
+			Log.w(TAG, "Cannot attach stroke batch " + number, e);
+		}
+	}
+}
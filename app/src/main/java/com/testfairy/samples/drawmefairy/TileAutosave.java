@@ -0,0 +1,429 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Incremental autosave of the drawing's pixels into a tile store.
+ *
+ * The store is a directory with one PNG per allocated tile of every layer,
+ * named layer-row-column.png, and a layout file with the canvas size. A save
+ * takes copies of only the tiles each layer changed since the previous save,
+ * on the UI thread, and compresses and writes them on a background thread, so
+ * its cost follows what was drawn in between, not the size of the drawing.
+ * Tiles that became empty are deleted. While a save is still writing, the
+ * next one is skipped and its changes wait for the one after.
+ *
+ * PNG keeps the layers' transparency, and tiles are written to a temporary
+ * file first, so a crash mid-save leaves the previous tile in place.
+ *
+ * A save taken while the tiles show every applied stroke ends with a state
+ * file describing those strokes, and every save deletes it before touching a
+ * tile. load() brings the tiles back only if the state file describes the
+ * strokes just restored from the journal, so a drawing reopens without
+ * replaying them, and a store that is partly written or older than the
+ * journal is never trusted.
+ */
+class TileAutosave {
+
+	private static final String TAG = "TileAutosave";
+
+	private static final String LAYOUT_FILE = "layout";
+	private static final String STATE_FILE = "state";
+
+	/// shared by all panels, so panels never leak threads
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "tile-autosave");
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	private final File directory;
+
+	/// canvas saved under each layer number, a different one there is saved in full
+	private TiledCanvas[] savedCanvases = new TiledCanvas[0];
+
+	/// state file the last save wrote, see describe, valid if stateSaved
+	private long savedState;
+	private boolean stateSaved = false;
+
+	/// guarded by this, set while a save is writing
+	private boolean running = false;
+
+	/// a save failed, the changes it took are lost and the next one saves everything
+	private volatile boolean failed = false;
+
+	/// totals for reporting
+	private long savedTiles = 0;
+	private long savedBytes = 0;
+
+	/**
+	 * @param directory the tile store, created if needed
+	 */
+	public TileAutosave(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * save the tiles changed since the last save, UI thread
+	 *
+	 * @param current do the tiles show every applied stroke? false while the render thread still holds some
+	 * @return false if the previous save is still writing, nothing was taken then
+	 */
+	public boolean save(LayerStack layers, boolean current) {
+		synchronized (this) {
+			if (running) {
+				return false;
+			}
+		}
+
+		boolean all = failed;
+		failed = false;
+		int layerCount = layers.size();
+		final TiledCanvas.Changes[] changes = new TiledCanvas.Changes[layerCount];
+		int tileCount = 0;
+		for (int i = 0; i < layerCount; i++) {
+			TiledCanvas canvas = layers.get(i).canvas;
+
+			// a layer was inserted below, the files under this number are another canvas'
+			boolean moved = i >= savedCanvases.length || savedCanvases[i] != canvas;
+			changes[i] = canvas.takeChanges(moved || all);
+			tileCount += changes[i].size();
+		}
+
+		// the store may still hold more layers of an earlier drawing
+		final boolean fresh = savedCanvases.length == 0;
+		final long state = current ? describe(layers, false) : 0;
+		if (tileCount == 0 && savedCanvases.length == layerCount && stateSaved == current && savedState == state) {
+			return true;
+		}
+
+		savedState = state;
+		stateSaved = current;
+
+		savedCanvases = new TiledCanvas[layerCount];
+		for (int i = 0; i < layerCount; i++) {
+			savedCanvases[i] = layers.get(i).canvas;
+		}
+
+		final int width = layers.get(0).canvas.getWidth();
+		final int height = layers.get(0).canvas.getHeight();
+		synchronized (this) {
+			running = true;
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					write(changes, width, height, fresh, current ? Long.toString(state) : null);
+				} finally {
+					synchronized (TileAutosave.this) {
+						running = false;
+					}
+				}
+			}
+		});
+
+		return true;
+	}
+
+	/**
+	 * load the saved tiles into every layer, if they show exactly the layers' strokes, UI thread
+	 *
+	 * Waits for a save still writing, e.g. the one of the previous activity.
+	 *
+	 * @return false if the store is missing, of another size or not of these strokes, the layers are left alone then
+	 */
+	public boolean load(final LayerStack layers) {
+		if (layers.size() == 0) {
+			return false;
+		}
+
+		final String state = Long.toString(describe(layers, true));
+		final int layerCount = layers.size();
+		final int width = layers.get(0).canvas.getWidth();
+		final int height = layers.get(0).canvas.getHeight();
+		long start = SystemClock.uptimeMillis();
+		Bitmap[][] tiles;
+		try {
+			tiles = executor.submit(new Callable<Bitmap[][]>() {
+				@Override
+				public Bitmap[][] call() throws IOException {
+					return read(state, width, height, layerCount);
+				}
+			}).get();
+		} catch (Exception e) {
+			Log.w(TAG, "Cannot load autosaved tiles", e);
+			return false;
+		}
+
+		if (tiles == null) {
+			return false;
+		}
+
+		int loaded = 0;
+		savedCanvases = new TiledCanvas[layerCount];
+		for (int i = 0; i < layerCount; i++) {
+			savedCanvases[i] = layers.get(i).canvas;
+			savedCanvases[i].loadTiles(tiles[i]);
+			for (Bitmap tile : tiles[i]) {
+				if (tile != null) {
+					loaded++;
+				}
+			}
+		}
+
+		savedState = Long.parseLong(state);
+		stateSaved = true;
+		Log.v(TAG, "Loaded " + loaded + " autosaved tiles in " + (SystemClock.uptimeMillis() - start) + " ms");
+		return true;
+	}
+
+	/**
+	 * delete the tile store, e.g. when the drawing is discarded, UI thread
+	 */
+	public void clear() {
+		savedCanvases = new TiledCanvas[0];
+		stateSaved = false;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				deleteFiles();
+			}
+		});
+	}
+
+	private void deleteFiles() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * @param state describes the strokes the tiles show, null if they may lag behind
+	 */
+	private void write(TiledCanvas.Changes[] changes, int width, int height, boolean fresh, String state) {
+		long start = SystemClock.uptimeMillis();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			Log.w(TAG, "Cannot create tile store " + directory);
+			failed = true;
+			recycle(changes);
+			return;
+		}
+
+		if (fresh) {
+			deleteFiles();
+		}
+
+		// from here on the tiles are no longer those of the state file
+		File stateFile = new File(directory, STATE_FILE);
+		stateFile.delete();
+
+		int written = 0;
+		long bytes = 0;
+		try {
+			writeLayout(width, height, changes.length);
+			for (int layer = 0; layer < changes.length; layer++) {
+				TiledCanvas.Changes layerChanges = changes[layer];
+				if (layerChanges.complete && !fresh) {
+					deleteTiles(layer);
+				}
+
+				for (int i = 0; i < layerChanges.size(); i++) {
+					int index = layerChanges.indexes[i];
+					File file = new File(directory, layer + "-" + index / layerChanges.columns + "-" + index % layerChanges.columns + ".png");
+					Bitmap tile = layerChanges.tiles[i];
+					if (tile == null) {
+						file.delete();
+						continue;
+					}
+
+					bytes += writeTile(tile, file);
+					written++;
+				}
+			}
+
+			if (state != null) {
+				writeText(stateFile, state);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Autosave failed", e);
+			failed = true;
+		} finally {
+			recycle(changes);
+		}
+
+		savedTiles += written;
+		savedBytes += bytes;
+		Log.v(TAG, "Autosaved " + written + " tiles, " + bytes / 1024 + " KB in " + (SystemClock.uptimeMillis() - start)
+			+ " ms, " + savedTiles + " tiles and " + savedBytes / 1024 + " KB since start");
+	}
+
+	/**
+	 * @return bytes written
+	 */
+	private long writeTile(Bitmap tile, File file) throws IOException {
+		File temporary = new File(directory, file.getName() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		try {
+			tile.compress(Bitmap.CompressFormat.PNG, 100, out);
+		} finally {
+			out.close();
+		}
+
+		if (!temporary.renameTo(file)) {
+			throw new IOException("Cannot rename " + temporary + " to " + file);
+		}
+
+		return file.length();
+	}
+
+	private void writeLayout(int width, int height, int layerCount) throws IOException {
+		writeText(new File(directory, LAYOUT_FILE), width + " " + height + " " + TiledCanvas.TILE_SIZE + " " + layerCount);
+	}
+
+	private static void writeText(File file, String line) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write((line + "\n").getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the line of a text file, null if there is none
+	 */
+	private static String readText(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "US-ASCII"));
+		try {
+			return in.readLine();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * decode the tiles of every layer, background thread
+	 *
+	 * @return per layer, row-major tiles, null if the store does not hold exactly these strokes
+	 */
+	private Bitmap[][] read(String state, int width, int height, int layerCount) throws IOException {
+		String layout = width + " " + height + " " + TiledCanvas.TILE_SIZE + " " + layerCount;
+		if (!state.equals(readText(new File(directory, STATE_FILE)))
+			|| !layout.equals(readText(new File(directory, LAYOUT_FILE)))) {
+			return null;
+		}
+
+		int columns = (width + TiledCanvas.TILE_SIZE - 1) / TiledCanvas.TILE_SIZE;
+		int rows = (height + TiledCanvas.TILE_SIZE - 1) / TiledCanvas.TILE_SIZE;
+		Bitmap[][] tiles = new Bitmap[layerCount][columns * rows];
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inMutable = true;
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		for (int layer = 0; layer < layerCount; layer++) {
+			for (int index = 0; index < columns * rows; index++) {
+				File file = new File(directory, layer + "-" + index / columns + "-" + index % columns + ".png");
+				if (!file.isFile()) {
+					continue;
+				}
+
+				Bitmap tile = BitmapFactory.decodeFile(file.getPath(), options);
+				if (tile == null || tile.getWidth() != TiledCanvas.TILE_SIZE || tile.getHeight() != TiledCanvas.TILE_SIZE) {
+					Log.w(TAG, "Unreadable autosaved tile " + file);
+					if (tile != null) {
+						tile.recycle();
+					}
+
+					recycle(tiles);
+					return null;
+				}
+
+				tiles[layer][index] = tile;
+			}
+		}
+
+		return tiles;
+	}
+
+	/**
+	 * a cheap fingerprint of the strokes the layers' tiles show; points are left
+	 * out, the journal stores them quantized
+	 *
+	 * @param restored the logs were just restored, which drops the redo strokes, so every stroke is applied
+	 */
+	private static long describe(LayerStack layers, boolean restored) {
+		long state = layers.size();
+		for (int i = 0; i < layers.size(); i++) {
+			LayerStack.Layer layer = layers.get(i);
+			int applied = restored ? layer.log.size() : layer.history.getHead();
+			state = state * 31 + applied;
+			for (int stroke = 0; stroke < applied; stroke++) {
+				state = state * 31 + layer.log.getColor(stroke);
+				state = state * 31 + layer.log.getFlags(stroke);
+				state = state * 31 + layer.log.getPointCount(stroke);
+				state = state * 31 + layer.log.getStartTime(stroke);
+				state = state * 31 + layer.log.getDuration(stroke);
+			}
+		}
+
+		return state;
+	}
+
+	/**
+	 * delete every tile of a layer
+	 */
+	private void deleteTiles(int layer) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		String prefix = layer + "-";
+		for (File file : files) {
+			if (file.getName().startsWith(prefix)) {
+				file.delete();
+			}
+		}
+	}
+
+	private static void recycle(TiledCanvas.Changes[] changes) {
+		for (TiledCanvas.Changes layerChanges : changes) {
+			layerChanges.recycle();
+		}
+	}
+
+	private static void recycle(Bitmap[][] tiles) {
+		for (Bitmap[] layerTiles : tiles) {
+			for (Bitmap tile : layerTiles) {
+				if (tile != null) {
+					tile.recycle();
+				}
+			}
+		}
+	}
+}
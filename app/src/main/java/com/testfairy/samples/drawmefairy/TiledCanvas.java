@@ -0,0 +1,686 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+/**
+ * Drawing surface split into fixed-size tiles that are allocated lazily.
+ *
+ * A tile bitmap is only created the first time something is painted on it, so
+ * a sparse drawing costs a few tiles instead of a full-screen bitmap, and
+ * resizing only re-indexes the tile grid instead of reallocating pixels.
+ *
+ * Every tile painted, cleared or dropped is marked changed, and takeChanges()
+ * hands out copies of just those tiles, so an incremental save costs what
+ * changed since the last one instead of the whole canvas. loadTiles() brings
+ * such a save back without marking anything changed.
+ *
+ * Snapshots are copy-on-write per tile: a tile not painted since it was last
+ * copied into a snapshot, or restored from one, is shared with that snapshot
+ * instead of copied again, and restoring skips tiles that still hold the
+ * snapshot's pixels. A snapshot so costs the tiles changed since the previous
+ * one, and undoing a stroke copies back only the tiles it touched.
+ *
+ * A canvas can also shadow another one of the same size: its missing tiles
+ * read as the other canvas' tiles, and are copied from there when first
+ * painted. A buffer drawn over another canvas so only holds the tiles that
+ * were drawn on.
+ */
+class TiledCanvas {
+
+	public static final int TILE_SIZE = 256;
+
+	private int width = 0;
+	private int height = 0;
+	private int columns = 0;
+	private int rows = 0;
+
+	/// row-major tiles, null until first painted
+	private Bitmap[] tiles = new Bitmap[0];
+
+	/// tiles changed since the last takeChanges(), and whether the grid changed
+	private boolean[] changed = new boolean[0];
+	private boolean resized = false;
+
+	/// per tile, the snapshot tile holding the same pixels, null once painted since
+	private SharedTile[] clean = new SharedTile[0];
+
+	/// canvas whose tiles stand in for missing ones, see shadow
+	private TiledCanvas shadowed;
+
+	/// reused for drawing into whichever tile is being painted
+	private final Canvas tileCanvas = new Canvas();
+
+	/// copies pixels as-is, including transparent ones
+	private final Paint copyPaint = new Paint();
+
+	private final Rect tileRect = new Rect();
+
+	/// tile range set by setTileRange
+	private int firstColumn, lastColumn, firstRow, lastRow;
+
+	public TiledCanvas() {
+		copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+	}
+
+	/**
+	 * change the canvas size, tiles that are still inside the canvas are kept
+	 */
+	public void resize(int newWidth, int newHeight) {
+		int newColumns = (newWidth + TILE_SIZE - 1) / TILE_SIZE;
+		int newRows = (newHeight + TILE_SIZE - 1) / TILE_SIZE;
+		Bitmap[] newTiles = new Bitmap[newColumns * newRows];
+
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				Bitmap tile = tiles[row * columns + column];
+				if (tile == null) {
+					continue;
+				}
+
+				if (row < newRows && column < newColumns) {
+					newTiles[row * newColumns + column] = tile;
+				} else {
+					tile.recycle();
+				}
+			}
+		}
+
+		width = newWidth;
+		height = newHeight;
+		columns = newColumns;
+		rows = newRows;
+		tiles = newTiles;
+		changed = new boolean[newTiles.length];
+		clean = new SharedTile[newTiles.length];
+		resized = true;
+	}
+
+	/**
+	 * take the size of another canvas and read its tiles where this one has none
+	 *
+	 * @param source canvas to shadow, it must not change size while shadowed
+	 */
+	public void shadow(TiledCanvas source) {
+		resize(source.width, source.height);
+		shadowed = source;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean hasSize() {
+		return width > 0 && height > 0;
+	}
+
+	/**
+	 * draw a path into every tile it may touch
+	 *
+	 * @param path   path in canvas coordinates
+	 * @param paint  paint, a paint with a transfer mode is treated as an eraser
+	 * @param bounds canvas area the path may touch
+	 */
+	public void drawPath(Path path, Paint paint, Rect bounds) {
+		// erasing never needs to allocate, there is nothing to clear in a missing tile
+		boolean erase = paint.getXfermode() != null;
+
+		if (!setTileRange(bounds)) {
+			return;
+		}
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				Bitmap tile = erase ? getExistingTile(column, row) : getOrCreateTile(column, row);
+				if (tile == null) {
+					continue;
+				}
+
+				markChanged(row * columns + column);
+
+				tileCanvas.setBitmap(tile);
+				tileCanvas.save();
+				tileCanvas.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+				tileCanvas.drawPath(path, paint);
+				tileCanvas.restore();
+			}
+		}
+	}
+
+	/**
+	 * draw one bitmap at many positions, each tile is set up once for all of them
+	 *
+	 * @param bitmap    bitmap to draw, e.g. a brush stamp
+	 * @param positions left,top pairs in canvas coordinates
+	 * @param count     number of positions
+	 * @param paint     paint used for the bitmap
+	 * @param bounds    canvas area the bitmaps may touch
+	 */
+	public void drawBitmaps(Bitmap bitmap, float[] positions, int count, Paint paint, Rect bounds) {
+		if (!setTileRange(bounds)) {
+			return;
+		}
+
+		int bitmapWidth = bitmap.getWidth();
+		int bitmapHeight = bitmap.getHeight();
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				int tileLeft = column * TILE_SIZE;
+				int tileTop = row * TILE_SIZE;
+				Bitmap tile = null;
+				for (int i = 0; i < count; i++) {
+					float left = positions[i * 2];
+					float top = positions[i * 2 + 1];
+					if (left + bitmapWidth < tileLeft || top + bitmapHeight < tileTop
+						|| left > tileLeft + TILE_SIZE || top > tileTop + TILE_SIZE) {
+						continue;
+					}
+
+					// only allocated once a bitmap actually lands on it
+					if (tile == null) {
+						tile = getOrCreateTile(column, row);
+						tileCanvas.setBitmap(tile);
+					}
+
+					tileCanvas.drawBitmap(bitmap, left - tileLeft, top - tileTop, paint);
+				}
+			}
+		}
+	}
+
+	/**
+	 * copy a region of a full-size bitmap into the tiles, replacing their pixels
+	 *
+	 * @param bitmap bitmap in canvas coordinates
+	 * @param region area to copy
+	 */
+	public void copyFrom(Bitmap bitmap, Rect region) {
+		if (!setTileRange(region)) {
+			return;
+		}
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				tileCanvas.setBitmap(getOrCreateTile(column, row));
+				tileCanvas.save();
+				tileCanvas.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+				tileCanvas.clipRect(region);
+				tileCanvas.drawBitmap(bitmap, 0, 0, copyPaint);
+				tileCanvas.restore();
+			}
+		}
+	}
+
+	/**
+	 * draw the tiles of another canvas of the same size over this one's
+	 *
+	 * @param source canvas to blend in, its missing tiles are skipped
+	 * @param region area to blend
+	 * @param paint  paint with the blend mode and opacity, null for plain source over
+	 */
+	public void drawFrom(TiledCanvas source, Rect region, Paint paint) {
+		if (!setTileRange(region)) {
+			return;
+		}
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				Bitmap sourceTile = source.tiles[row * source.columns + column];
+				if (sourceTile == null) {
+					continue;
+				}
+
+				tileCanvas.setBitmap(getOrCreateTile(column, row));
+				tileCanvas.save();
+				tileCanvas.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+				tileCanvas.clipRect(region);
+				tileCanvas.drawBitmap(sourceTile, column * TILE_SIZE, row * TILE_SIZE, paint);
+				tileCanvas.restore();
+			}
+		}
+	}
+
+	/**
+	 * make a region transparent, tiles are kept allocated
+	 */
+	public void clear(Rect region) {
+		if (!setTileRange(region)) {
+			return;
+		}
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				Bitmap tile = tiles[row * columns + column];
+				if (tile == null) {
+					continue;
+				}
+
+				markChanged(row * columns + column);
+				tileCanvas.setBitmap(tile);
+				tileCanvas.save();
+				tileCanvas.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+				tileCanvas.clipRect(region);
+				tileCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+				tileCanvas.restore();
+			}
+		}
+	}
+
+	/**
+	 * draw the allocated tiles that intersect clip
+	 *
+	 * @param canvas target canvas, in canvas coordinates
+	 * @param clip   area to draw
+	 * @param paint  paint used for the tile bitmaps
+	 */
+	public void draw(Canvas canvas, Rect clip, Paint paint) {
+		if (!setTileRange(clip)) {
+			return;
+		}
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				Bitmap tile = tiles[row * columns + column];
+				if (tile == null && shadowed != null) {
+					tile = shadowed.tiles[row * columns + column];
+				}
+
+				if (tile == null) {
+					continue;
+				}
+
+				tileRect.set(column * TILE_SIZE, row * TILE_SIZE, (column + 1) * TILE_SIZE, (row + 1) * TILE_SIZE);
+				canvas.drawBitmap(tile, null, tileRect, paint);
+			}
+		}
+	}
+
+	/**
+	 * copy every pixel of the canvas into a flat array, missing tiles read as transparent
+	 *
+	 * @param out at least getWidth() * getHeight() ints, row-major ARGB
+	 */
+	public void readPixels(int[] out) {
+		for (int row = 0; row < rows; row++) {
+			int top = row * TILE_SIZE;
+			int tileHeight = Math.min(TILE_SIZE, height - top);
+			for (int column = 0; column < columns; column++) {
+				int left = column * TILE_SIZE;
+				int tileWidth = Math.min(TILE_SIZE, width - left);
+				Bitmap tile = tiles[row * columns + column];
+				if (tile != null) {
+					tile.getPixels(out, top * width + left, width, 0, 0, tileWidth, tileHeight);
+					continue;
+				}
+
+				for (int y = top; y < top + tileHeight; y++) {
+					Arrays.fill(out, y * width + left, y * width + left + tileWidth, 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * copy part of one row of a flat array, as filled by readPixels, back into the tiles
+	 *
+	 * @param pixels row-major ARGB pixels of the whole canvas
+	 * @param y      row to write
+	 * @param fromX  first column to write
+	 * @param toX    end of the columns to write, exclusive
+	 */
+	public void writeRow(int[] pixels, int y, int fromX, int toX) {
+		int row = y / TILE_SIZE;
+		for (int column = fromX / TILE_SIZE; column <= (toX - 1) / TILE_SIZE; column++) {
+			int left = Math.max(fromX, column * TILE_SIZE);
+			int right = Math.min(toX, (column + 1) * TILE_SIZE);
+			getOrCreateTile(column, row).setPixels(pixels, y * width + left, width,
+				left - column * TILE_SIZE, y - row * TILE_SIZE, right - left, 1);
+		}
+	}
+
+	/**
+	 * drop every tile
+	 */
+	public void clear() {
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] != null) {
+				tiles[i].recycle();
+				tiles[i] = null;
+				markChanged(i);
+			}
+		}
+	}
+
+	/**
+	 * copy the allocated tiles, e.g. to restore them later for undo, tiles
+	 * unchanged since an earlier snapshot are shared with it instead
+	 */
+	public Snapshot snapshot() {
+		SharedTile[] shared = new SharedTile[tiles.length];
+		long copiedBytes = 0;
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] == null) {
+				continue;
+			}
+
+			if (clean[i] != null && clean[i].retain()) {
+				shared[i] = clean[i];
+				continue;
+			}
+
+			shared[i] = new SharedTile(tiles[i].copy(Bitmap.Config.ARGB_8888, false));
+			clean[i] = shared[i];
+			copiedBytes += shared[i].bitmap.getByteCount();
+		}
+
+		return new Snapshot(shared, columns, rows, copiedBytes);
+	}
+
+	/**
+	 * replace the canvas content with a snapshot, the snapshot stays usable;
+	 * tiles still holding the snapshot's pixels are left alone
+	 */
+	public void restore(Snapshot snapshot) {
+		// the canvas may have been resized since the snapshot was taken
+		boolean sameGrid = snapshot.columns == columns && snapshot.rows == rows;
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				int index = row * columns + column;
+				SharedTile source = row < snapshot.rows && column < snapshot.columns
+					? snapshot.tiles[row * snapshot.columns + column] : null;
+				if (source != null && clean[index] == source) {
+					continue;
+				}
+
+				if (tiles[index] != null) {
+					tiles[index].recycle();
+					tiles[index] = null;
+					markChanged(index);
+				}
+
+				if (source != null) {
+					tiles[index] = source.bitmap.copy(Bitmap.Config.ARGB_8888, true);
+					markChanged(index);
+					if (sameGrid) {
+						clean[index] = source;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * replace every tile with saved pixels, e.g. loaded from an autosave, they are
+	 * not marked changed since they are saved already
+	 *
+	 * @param saved row-major tiles of this canvas' grid, null where transparent, owned by the canvas from now on
+	 */
+	public void loadTiles(Bitmap[] saved) {
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] != null) {
+				tiles[i].recycle();
+			}
+
+			tiles[i] = saved[i];
+			changed[i] = false;
+			clean[i] = null;
+		}
+
+		resized = false;
+	}
+
+	/**
+	 * copy the tiles changed since the last call and consider them saved
+	 *
+	 * @param all include every tile, e.g. when the copies replace another canvas' tiles
+	 * @return the changed tiles, none if nothing changed
+	 */
+	public Changes takeChanges(boolean all) {
+		boolean complete = all || resized;
+		int count = 0;
+		for (int i = 0; i < tiles.length; i++) {
+			if (complete || changed[i]) {
+				count++;
+			}
+		}
+
+		int[] indexes = new int[count];
+		Bitmap[] copies = new Bitmap[count];
+		int n = 0;
+		for (int i = 0; i < tiles.length; i++) {
+			if (complete || changed[i]) {
+				indexes[n] = i;
+				copies[n] = tiles[i] != null ? tiles[i].copy(Bitmap.Config.ARGB_8888, false) : null;
+				n++;
+				changed[i] = false;
+			}
+		}
+
+		resized = false;
+		return new Changes(indexes, copies, columns, complete);
+	}
+
+	/**
+	 * set the range of tiles covering area
+	 *
+	 * @return false if area is outside the canvas
+	 */
+	private boolean setTileRange(Rect area) {
+		if (area.right <= 0 || area.bottom <= 0 || area.left >= width || area.top >= height || area.isEmpty()) {
+			return false;
+		}
+
+		firstColumn = Math.max(0, area.left / TILE_SIZE);
+		lastColumn = Math.min(columns - 1, (area.right - 1) / TILE_SIZE);
+		firstRow = Math.max(0, area.top / TILE_SIZE);
+		lastRow = Math.min(rows - 1, (area.bottom - 1) / TILE_SIZE);
+		return true;
+	}
+
+	/**
+	 * a tile about to be painted, marked changed
+	 */
+	private Bitmap getOrCreateTile(int column, int row) {
+		int index = row * columns + column;
+		if (tiles[index] == null) {
+			Bitmap shadowedTile = shadowed != null ? shadowed.tiles[index] : null;
+			tiles[index] = shadowedTile != null ? shadowedTile.copy(Bitmap.Config.ARGB_8888, true)
+				: Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+		}
+
+		markChanged(index);
+
+		return tiles[index];
+	}
+
+	/**
+	 * a tile about to be erased, null if it is transparent anyway
+	 */
+	private Bitmap getExistingTile(int column, int row) {
+		int index = row * columns + column;
+		if (tiles[index] == null && (shadowed == null || shadowed.tiles[index] == null)) {
+			return null;
+		}
+
+		return getOrCreateTile(column, row);
+	}
+
+	/**
+	 * a tile's pixels are about to change, or it was dropped
+	 */
+	private void markChanged(int index) {
+		changed[index] = true;
+		clean[index] = null;
+	}
+
+	/**
+	 * copies of the tiles of a TiledCanvas changed since its last takeChanges()
+	 */
+	static class Changes {
+
+		/// row-major index of each changed tile, row * columns + column
+		final int[] indexes;
+
+		/// pixels of each changed tile, null where the tile was dropped and is transparent
+		final Bitmap[] tiles;
+
+		final int columns;
+
+		/// are these all the canvas' tiles? tiles saved before and missing here are gone
+		final boolean complete;
+
+		private Changes(int[] indexes, Bitmap[] tiles, int columns, boolean complete) {
+			this.indexes = indexes;
+			this.tiles = tiles;
+			this.columns = columns;
+			this.complete = complete;
+		}
+
+		public int size() {
+			return indexes.length;
+		}
+
+		public void recycle() {
+			for (Bitmap tile : tiles) {
+				if (tile != null) {
+					tile.recycle();
+				}
+			}
+		}
+	}
+
+	/**
+	 * immutable tile pixels, shared by the snapshots taken while the tile was unchanged
+	 */
+	private static class SharedTile {
+
+		final Bitmap bitmap;
+
+		/// guarded by this, snapshots holding the tile, recycled once none is left
+		private int references = 1;
+
+		SharedTile(Bitmap bitmap) {
+			this.bitmap = bitmap;
+		}
+
+		/**
+		 * @return false if the tile was already recycled and cannot be shared anymore
+		 */
+		synchronized boolean retain() {
+			if (references == 0) {
+				return false;
+			}
+
+			references++;
+			return true;
+		}
+
+		/**
+		 * @return bytes freed, 0 while other snapshots still hold the tile
+		 */
+		synchronized long release() {
+			if (--references > 0) {
+				return 0;
+			}
+
+			long bytes = bitmap.getByteCount();
+			bitmap.recycle();
+			return bytes;
+		}
+	}
+
+	/**
+	 * immutable copy of a TiledCanvas' allocated tiles
+	 */
+	static class Snapshot {
+
+		private final SharedTile[] tiles;
+		private final int columns;
+		private final int rows;
+		private final long byteCount;
+		private final Rect tileRect = new Rect();
+
+		private Snapshot(SharedTile[] tiles, int columns, int rows, long byteCount) {
+			this.tiles = tiles;
+			this.columns = columns;
+			this.rows = rows;
+			this.byteCount = byteCount;
+		}
+
+		/**
+		 * draw the snapshot's tiles that intersect clip, like TiledCanvas.draw
+		 *
+		 * @param canvas target canvas, in canvas coordinates
+		 * @param clip   area to draw
+		 * @param paint  paint used for the tile bitmaps
+		 */
+		public void draw(Canvas canvas, Rect clip, Paint paint) {
+			if (clip.right <= 0 || clip.bottom <= 0 || clip.isEmpty()) {
+				return;
+			}
+
+			int firstColumn = Math.max(0, clip.left / TILE_SIZE);
+			int lastColumn = Math.min(columns - 1, (clip.right - 1) / TILE_SIZE);
+			int firstRow = Math.max(0, clip.top / TILE_SIZE);
+			int lastRow = Math.min(rows - 1, (clip.bottom - 1) / TILE_SIZE);
+			for (int row = firstRow; row <= lastRow; row++) {
+				for (int column = firstColumn; column <= lastColumn; column++) {
+					SharedTile tile = tiles[row * columns + column];
+					if (tile == null) {
+						continue;
+					}
+
+					tileRect.set(column * TILE_SIZE, row * TILE_SIZE, (column + 1) * TILE_SIZE, (row + 1) * TILE_SIZE);
+					canvas.drawBitmap(tile.bitmap, null, tileRect, paint);
+				}
+			}
+		}
+
+		/**
+		 * another reference to the same tiles, which stay allocated until both are recycled
+		 */
+		public Snapshot share() {
+			for (SharedTile tile : tiles) {
+				if (tile != null) {
+					tile.retain();
+				}
+			}
+
+			return new Snapshot(tiles, columns, rows, 0);
+		}
+
+		/**
+		 * memory the snapshot added when it was taken, tiles shared with an earlier one are not counted
+		 */
+		public long getByteCount() {
+			return byteCount;
+		}
+
+		/**
+		 * release the snapshot's tiles, tiles other snapshots still share are kept
+		 *
+		 * @return bytes freed
+		 */
+		public long recycle() {
+			long freed = 0;
+			for (SharedTile tile : tiles) {
+				if (tile != null) {
+					freed += tile.release();
+				}
+			}
+
+			return freed;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.testfairy.TestFairy;
+
+import stroke.LatencyHistogram;
+
+/**
+ * Measures how long touch samples take to show up on screen.
+ *
+ * The event time of the oldest touch sample not drawn yet is kept until the
+ * next onDraw. A frame drawn in onDraw is shown at the following vsync, so
+ * the latency is taken from a Choreographer frame callback: vsync time minus
+ * event time. One sample is recorded per frame with new touches, into a
+ * LatencyHistogram. Percentiles are published to TestFairy as session
+ * attributes and an event every PUBLISH_INTERVAL_MS.
+ *
+ * UI thread only.
+ */
+class TouchLatencyTracker implements Choreographer.FrameCallback {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/// how often percentiles are published while drawing
+	private static final long PUBLISH_INTERVAL_MS = 30 * 1000;
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	/// uptime of the oldest touch sample not drawn yet, or -1
+	private long pendingEventTime = -1;
+
+	/// uptime of the oldest touch sample drawn but not shown yet, or -1
+	private long drawnEventTime = -1;
+
+	private boolean frameCallbackPosted = false;
+
+	private long lastPublishTime = 0;
+	private long lastPublishCount = 0;
+
+	/**
+	 * a touch event added pixels to the canvas
+	 *
+	 * @param eventTime MotionEvent.getEventTime() of the oldest sample
+	 */
+	public void onTouchSample(long eventTime) {
+		if (pendingEventTime < 0) {
+			pendingEventTime = eventTime;
+		}
+	}
+
+	/**
+	 * the view is drawing a frame
+	 */
+	public void onDraw() {
+		if (pendingEventTime < 0) {
+			return;
+		}
+
+		drawnEventTime = drawnEventTime < 0 ? pendingEventTime : Math.min(drawnEventTime, pendingEventTime);
+		pendingEventTime = -1;
+		if (!frameCallbackPosted) {
+			Choreographer.getInstance().postFrameCallback(this);
+			frameCallbackPosted = true;
+		}
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		frameCallbackPosted = false;
+		if (drawnEventTime < 0) {
+			return;
+		}
+
+		// frame time is on the uptime clock, in nanoseconds
+		long frameTime = frameTimeNanos / 1000000;
+		histogram.record(frameTime - drawnEventTime);
+		drawnEventTime = -1;
+
+		if (frameTime - lastPublishTime >= PUBLISH_INTERVAL_MS) {
+			publish();
+			lastPublishTime = frameTime;
+		}
+	}
+
+	/**
+	 * stop waiting for frames and publish whatever was recorded since the last time
+	 */
+	public void stop() {
+		if (frameCallbackPosted) {
+			Choreographer.getInstance().removeFrameCallback(this);
+			frameCallbackPosted = false;
+		}
+
+		pendingEventTime = -1;
+		drawnEventTime = -1;
+		publish();
+	}
+
+	/**
+	 * report the percentiles of every sample so far
+	 */
+	public void publish() {
+		long count = histogram.getCount();
+		if (count == lastPublishCount) {
+			return;
+		}
+
+		lastPublishCount = count;
+		long p50 = histogram.getPercentile(0.5);
+		long p90 = histogram.getPercentile(0.9);
+		long p99 = histogram.getPercentile(0.99);
+
+		TestFairy.setAttribute("touch_latency_p50_ms", String.valueOf(p50));
+		TestFairy.setAttribute("touch_latency_p90_ms", String.valueOf(p90));
+		TestFairy.setAttribute("touch_latency_p99_ms", String.valueOf(p99));
+
+		String summary = "Touch latency p50 " + p50 + " ms, p90 " + p90 + " ms, p99 " + p99 + " ms over " + count + " frames";
+		Log.v(TAG, summary);
+		TestFairy.addEvent(summary);
+	}
+}
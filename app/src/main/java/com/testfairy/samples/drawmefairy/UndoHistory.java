@@ -0,0 +1,391 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+import stroke.StrokeLog;
+
+/**
+ * Undo/redo over the strokes of a StrokeLog.
+ *
+ * The log itself is the command list: undo moves a head index back, redo moves
+ * it forward again, and a new stroke drops everything after the head. Every
+ * KEYFRAME_INTERVAL strokes a snapshot of the tiles is kept as a keyframe, so
+ * undo only restores the nearest keyframe and replays at most a few strokes.
+ * Snapshots share the tiles that did not change in between, so a keyframe
+ * copies only the tiles painted since the previous one. Keyframes are evicted
+ * oldest first once they and the base exceed the byte budget, and history
+ * older than the oldest keyframe can no longer be undone. That keeps
+ * both the memory and the undo latency bounded no matter how long the session.
+ *
+ * Older strokes can also be baked: StrokeBaker flattens them, starting from a
+ * keyframe or the previous base, and hands back a base snapshot sharing the
+ * tiles the baked strokes left alone. Baked strokes are frozen, they can no longer
+ * be undone or edited, and rebuilds start from the base at the latest, so
+ * erasing a stroke never replays the whole log. The log keeps every stroke for
+ * the journal and the replay.
+ */
+class UndoHistory {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/// strokes between two keyframes
+	public static final int KEYFRAME_INTERVAL = 16;
+
+	/// default memory for keyframe and base pixels
+	public static final long DEFAULT_BYTE_BUDGET = 24 * 1024 * 1024;
+
+	private final StrokeLog log;
+	private final StrokeLogRenderer renderer;
+
+	/// strokes [0, head) are applied, [head, log.size()) can be redone
+	private int head = 0;
+
+	/// oldest stroke count undo can go back to, 0, the oldest keyframe or the baked count
+	private int floor = 0;
+
+	/// keyframes ordered by stroke count, the blank canvas at 0 is implicit
+	private final ArrayList<Keyframe> keyframes = new ArrayList<Keyframe>();
+	private long byteBudget = DEFAULT_BYTE_BUDGET;
+
+	/// pixels held by the keyframes and the base, a tile they share is counted once
+	private long storedBytes = 0;
+
+	/// strokes [0, bakedCount) are frozen, baked into base or being baked
+	private int bakedCount = 0;
+
+	/// pixels of strokes [0, baseCount), null until a bake finished
+	private TiledCanvas.Snapshot base;
+	private int baseCount = 0;
+
+	/// changes on reset, so a bake started before it is dropped
+	private int generation = 0;
+
+	public UndoHistory(StrokeLog log, StrokeLogRenderer renderer) {
+		this.log = log;
+		this.renderer = renderer;
+	}
+
+	/**
+	 * set the memory keyframes and the base may use, older keyframes are dropped to fit
+	 *
+	 * @param bytes
+	 */
+	public void setByteBudget(long bytes) {
+		byteBudget = bytes;
+		evictKeyframes();
+	}
+
+	/**
+	 * number of applied strokes, strokes from here on are only kept for redo
+	 */
+	public int getHead() {
+		return head;
+	}
+
+	/**
+	 * number of frozen strokes, strokes from here on can still be edited
+	 */
+	public int getBakedCount() {
+		return bakedCount;
+	}
+
+	/**
+	 * number of strokes in the base snapshot
+	 */
+	public int getBaseCount() {
+		return baseCount;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public boolean canUndo() {
+		return head > floor;
+	}
+
+	public boolean canRedo() {
+		return head < log.size();
+	}
+
+	/**
+	 * forget the redo history, call before appending a new stroke to the log
+	 */
+	public void discardRedo() {
+		log.truncate(head);
+		while (!keyframes.isEmpty() && keyframes.get(keyframes.size() - 1).strokeCount > head) {
+			removeKeyframe(keyframes.size() - 1);
+		}
+	}
+
+	/**
+	 * a stroke was appended to the log and drawn
+	 *
+	 * @param canvas canvas holding the result, or null if its tiles are not up to date
+	 */
+	public void commit(TiledCanvas canvas) {
+		head = log.size();
+		if (canvas != null && head % KEYFRAME_INTERVAL == 0) {
+			addKeyframe(canvas);
+		} else if (floor > 0 && keyframes.isEmpty() && base == null) {
+			// nothing to rebuild from until the next keyframe
+			floor = head;
+		}
+	}
+
+	/**
+	 * undo the last stroke
+	 *
+	 * @return false if there was nothing to undo
+	 */
+	public boolean undo(TiledCanvas canvas) {
+		if (!canUndo()) {
+			return false;
+		}
+
+		head--;
+		rebuild(canvas);
+		return true;
+	}
+
+	/**
+	 * redo the last undone stroke
+	 *
+	 * @return false if there was nothing to redo
+	 */
+	public boolean redo(TiledCanvas canvas) {
+		if (!canRedo()) {
+			return false;
+		}
+
+		renderer.drawStroke(log, head, canvas);
+		head++;
+		return true;
+	}
+
+	/**
+	 * redraw the canvas after a stroke was marked deleted in the log
+	 *
+	 * @param stroke the deleted stroke
+	 * @param canvas canvas to rebuild
+	 */
+	public void rebuildWithout(int stroke, TiledCanvas canvas) {
+		// keyframes taken after the stroke still show it
+		while (!keyframes.isEmpty() && keyframes.get(keyframes.size() - 1).strokeCount > stroke) {
+			removeKeyframe(keyframes.size() - 1);
+		}
+
+		if (!keyframes.isEmpty() || floor == 0 || base != null) {
+			rebuild(canvas);
+			return;
+		}
+
+		// the stroke is older than anything undo can reach, replay the whole log
+		canvas.clear();
+		renderer.drawStrokes(log, 0, head, canvas);
+		reset(canvas);
+	}
+
+	/**
+	 * throw away whatever was drawn since the last commit, e.g. a cancelled stroke
+	 *
+	 * @param canvas canvas to rebuild
+	 */
+	public void revert(TiledCanvas canvas) {
+		if (!keyframes.isEmpty() || floor == 0 || base != null) {
+			rebuild(canvas);
+			return;
+		}
+
+		// nothing undo can reach holds the strokes before floor, replay the whole log
+		canvas.clear();
+		renderer.drawStrokes(log, 0, head, canvas);
+	}
+
+	/**
+	 * drop all history, e.g. when the canvas content was rebuilt from elsewhere
+	 *
+	 * @param canvas current canvas content, becomes the oldest state undo can reach
+	 */
+	public void reset(TiledCanvas canvas) {
+		while (!keyframes.isEmpty()) {
+			removeKeyframe(0);
+		}
+
+		// the log may have changed under the base, bake again from the start
+		generation++;
+		if (base != null) {
+			storedBytes -= base.recycle();
+			base = null;
+		}
+
+		baseCount = 0;
+		bakedCount = 0;
+
+		head = log.size();
+		floor = head;
+		if (head > 0) {
+			addKeyframe(canvas);
+		}
+	}
+
+	/**
+	 * freeze strokes before a bake of them starts, they can no longer be undone or edited
+	 *
+	 * @param count strokes [0, count) are frozen, at most head
+	 */
+	public void freeze(int count) {
+		bakedCount = Math.max(bakedCount, Math.min(count, head));
+		floor = Math.max(floor, bakedCount);
+	}
+
+	/**
+	 * a bake finished, use its snapshot as the base
+	 *
+	 * @param count      strokes baked into the snapshot
+	 * @param generation generation the bake was started in
+	 * @return false if the bake is out of date, the snapshot is not used then
+	 */
+	public boolean setBase(int count, int generation, TiledCanvas.Snapshot snapshot) {
+		if (generation != this.generation || count < baseCount) {
+			return false;
+		}
+
+		if (base != null) {
+			storedBytes -= base.recycle();
+		}
+
+		base = snapshot;
+		baseCount = count;
+		storedBytes += snapshot.getByteCount();
+
+		// everything after the base can be replayed from it
+		floor = bakedCount;
+
+		// keyframes up to the base are never restored again
+		while (!keyframes.isEmpty() && keyframes.get(0).strokeCount <= count) {
+			removeKeyframe(0);
+		}
+
+		evictKeyframes();
+		return true;
+	}
+
+	/**
+	 * stroke count of the newest keyframe or base at or before count
+	 *
+	 * @return 0 if there is none, the blank canvas
+	 */
+	public int getRestorePoint(int count) {
+		for (int i = keyframes.size() - 1; i >= 0; i--) {
+			if (keyframes.get(i).strokeCount <= count) {
+				return keyframes.get(i).strokeCount;
+			}
+		}
+
+		return base != null && baseCount <= count ? baseCount : 0;
+	}
+
+	/**
+	 * share the snapshot at a restore point, e.g. for a bake to start from, give it back with release
+	 *
+	 * @param count a restore point returned by getRestorePoint
+	 * @return null for the blank canvas
+	 */
+	public TiledCanvas.Snapshot shareRestorePoint(int count) {
+		for (int i = keyframes.size() - 1; i >= 0; i--) {
+			if (keyframes.get(i).strokeCount == count) {
+				return keyframes.get(i).snapshot.share();
+			}
+		}
+
+		return base != null && baseCount == count ? base.share() : null;
+	}
+
+	/**
+	 * give back a snapshot from shareRestorePoint, the tiles it was the last to hold are freed
+	 */
+	public void release(TiledCanvas.Snapshot share) {
+		storedBytes -= share.recycle();
+	}
+
+	/**
+	 * draw the base, e.g. under the editable strokes of a zoomed view
+	 */
+	public void drawBase(Canvas canvas, Rect clip, Paint paint) {
+		if (base != null) {
+			base.draw(canvas, clip, paint);
+		}
+	}
+
+	/**
+	 * restore the nearest keyframe at or before head, or the base, and replay the strokes after it
+	 */
+	private void rebuild(TiledCanvas canvas) {
+		int from = floor;
+		Keyframe keyframe = null;
+		for (int i = keyframes.size() - 1; i >= 0; i--) {
+			if (keyframes.get(i).strokeCount <= head) {
+				keyframe = keyframes.get(i);
+				break;
+			}
+		}
+
+		if (keyframe != null) {
+			canvas.restore(keyframe.snapshot);
+			from = keyframe.strokeCount;
+		} else if (base != null) {
+			canvas.restore(base);
+			from = baseCount;
+		} else if (floor == 0) {
+			canvas.clear();
+		} else {
+			// the canvas content before floor is gone, nothing better to rebuild from
+			Log.w(TAG, "No keyframe to rebuild from");
+			return;
+		}
+
+		renderer.drawStrokes(log, from, head, canvas);
+	}
+
+	private void addKeyframe(TiledCanvas canvas) {
+		Keyframe keyframe = new Keyframe(head, canvas.snapshot());
+		keyframes.add(keyframe);
+		storedBytes += keyframe.snapshot.getByteCount();
+		evictKeyframes();
+	}
+
+	private void evictKeyframes() {
+		// the base is never evicted, it is what rebuilds fall back to
+		while (storedBytes > byteBudget && !keyframes.isEmpty()) {
+			// without the oldest keyframe, undo may only go back as far as the next one, or the base
+			if (base == null) {
+				floor = Math.max(bakedCount, keyframes.size() > 1 ? keyframes.get(1).strokeCount : head);
+			}
+
+			removeKeyframe(0);
+		}
+	}
+
+	private void removeKeyframe(int index) {
+		Keyframe keyframe = keyframes.remove(index);
+		storedBytes -= keyframe.snapshot.recycle();
+	}
+
+	private static class Keyframe {
+
+		/// number of strokes applied when the snapshot was taken
+		final int strokeCount;
+		final TiledCanvas.Snapshot snapshot;
+
+		Keyframe(int strokeCount, TiledCanvas.Snapshot snapshot) {
+			this.strokeCount = strokeCount;
+			this.snapshot = snapshot;
+		}
+	}
+}
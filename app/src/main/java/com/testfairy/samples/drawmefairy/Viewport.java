@@ -0,0 +1,114 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Zoom and pan of the drawing inside the view.
+ *
+ * A view point is the canvas point times scale plus offset. The scale never
+ * goes below 1 and the offset is clamped, so the canvas always fills the view.
+ */
+class Viewport {
+
+	public static final float MIN_SCALE = 1;
+	public static final float MAX_SCALE = 8;
+
+	private float scale = 1;
+	private float offsetX = 0;
+	private float offsetY = 0;
+
+	private int width = 0;
+	private int height = 0;
+
+	private final Matrix matrix = new Matrix();
+	private final Matrix inverse = new Matrix();
+	private final RectF mapped = new RectF();
+
+	public void setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+		update();
+	}
+
+	/**
+	 * true when the canvas is shown 1:1
+	 */
+	public boolean isIdentity() {
+		return scale == 1 && offsetX == 0 && offsetY == 0;
+	}
+
+	public float getScale() {
+		return scale;
+	}
+
+	public void reset() {
+		scale = 1;
+		offsetX = 0;
+		offsetY = 0;
+		update();
+	}
+
+	/**
+	 * zoom around a view point, which stays where it is
+	 */
+	public void zoomBy(float factor, float focusX, float focusY) {
+		float newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+		factor = newScale / scale;
+		offsetX = focusX - (focusX - offsetX) * factor;
+		offsetY = focusY - (focusY - offsetY) * factor;
+		scale = newScale;
+		update();
+	}
+
+	/**
+	 * move the canvas by a distance in view pixels
+	 */
+	public void panBy(float dx, float dy) {
+		offsetX += dx;
+		offsetY += dy;
+		update();
+	}
+
+	/**
+	 * canvas to view transform
+	 */
+	public Matrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * view to canvas transform
+	 */
+	public Matrix getInverse() {
+		return inverse;
+	}
+
+	/**
+	 * canvas area shown in the view
+	 */
+	public void getVisibleRect(Rect out) {
+		mapped.set(0, 0, width, height);
+		inverse.mapRect(mapped);
+		mapped.roundOut(out);
+	}
+
+	/**
+	 * view area covered by a canvas area
+	 */
+	public void mapToView(Rect canvasRect, Rect out) {
+		mapped.set(canvasRect);
+		matrix.mapRect(mapped);
+		mapped.roundOut(out);
+	}
+
+	private void update() {
+		offsetX = Math.max(width - width * scale, Math.min(0, offsetX));
+		offsetY = Math.max(height - height * scale, Math.min(0, offsetY));
+
+		matrix.setScale(scale, scale);
+		matrix.postTranslate(offsetX, offsetY);
+		matrix.invert(inverse);
+	}
+}
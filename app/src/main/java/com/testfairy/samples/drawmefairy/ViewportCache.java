@@ -0,0 +1,279 @@
+package com.testfairy.samples.drawmefairy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+import stroke.StrokeLog;
+
+/**
+ * Level-of-detail images of a zoomed drawing.
+ *
+ * The layers' tiles hold the drawing at canvas resolution, which looks blurry
+ * once zoomed in. Two images are kept instead:
+ *
+ * - lowRes: the whole drawing flattened at half resolution. While a pinch or
+ *   pan is in progress, every frame is a single scaled draw of it.
+ * - detail: the visible region re-rendered from the stroke logs at the zoomed
+ *   resolution, once the gesture settles. Strokes whose bounds are outside the
+ *   view are skipped, so the cost depends on what is visible, not on the size
+ *   of the drawing. A layer with bucket fills is scaled from its tiles instead,
+ *   since a fill cannot be redrawn without the pixels it was poured into.
+ *   Strokes already baked by StrokeBaker are scaled from the layer's base.
+ *
+ * A change to part of the drawing, e.g. a new, undone or erased stroke, only
+ * marks its region of detail stale, and updateDetail re-renders just that
+ * region. A change to the whole drawing, e.g. a layer's opacity, drops both
+ * images, and detail is only rendered again on the next zoom or pan, until
+ * then the tiles are shown scaled. Their pixels are freed by release() once
+ * the view is back at 1:1.
+ */
+class ViewportCache {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/// lowRes is this many times smaller than the canvas
+	private static final int LOW_RES_DOWNSCALE = 2;
+
+	private Bitmap lowRes;
+	private boolean lowResValid = false;
+
+	private Bitmap detail;
+	private boolean detailValid = false;
+
+	/// canvas region of detail to re-render, empty if none
+	private final Rect staleRect = new Rect();
+
+	/// each layer is rendered alone here, then blended into detail
+	private Bitmap layerBitmap;
+
+	private final Canvas drawCanvas = new Canvas();
+	private final Paint filterPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+	private final Rect visibleRect = new Rect();
+	private final float[] strokeBounds = new float[4];
+
+	/// area being rendered, in canvas and in view pixels
+	private final Rect renderRect = new Rect();
+	private final Rect viewRect = new Rect();
+	private final RectF mappedRect = new RectF();
+
+	/**
+	 * the whole drawing changed, both images are stale
+	 */
+	public void invalidate() {
+		lowResValid = false;
+		detailValid = false;
+		staleRect.setEmpty();
+	}
+
+	/**
+	 * part of the drawing changed, lowRes is stale and so is the region of detail
+	 *
+	 * @param region changed area in canvas coordinates
+	 */
+	public void invalidate(Rect region) {
+		lowResValid = false;
+		if (detailValid) {
+			staleRect.union(region);
+		}
+	}
+
+	/**
+	 * is detail complete and current?
+	 */
+	public boolean isDetailValid() {
+		return detailValid && staleRect.isEmpty();
+	}
+
+	/**
+	 * is detail current except for a region updateDetail can re-render?
+	 */
+	public boolean hasStaleRegion() {
+		return detailValid && !staleRect.isEmpty();
+	}
+
+	/**
+	 * free every image, e.g. once the view is back at 1:1
+	 */
+	public void release() {
+		invalidate();
+		if (lowRes != null) {
+			lowRes.recycle();
+			lowRes = null;
+		}
+
+		if (detail != null) {
+			detail.recycle();
+			detail = null;
+		}
+
+		if (layerBitmap != null) {
+			layerBitmap.recycle();
+			layerBitmap = null;
+		}
+	}
+
+	/**
+	 * flatten the layers into lowRes unless it is up to date
+	 */
+	public void updateLowRes(LayerStack layers, int width, int height) {
+		if (lowResValid) {
+			return;
+		}
+
+		int lowWidth = Math.max(1, width / LOW_RES_DOWNSCALE);
+		int lowHeight = Math.max(1, height / LOW_RES_DOWNSCALE);
+		lowRes = reuse(lowRes, lowWidth, lowHeight);
+
+		drawCanvas.setBitmap(lowRes);
+		drawCanvas.save();
+		drawCanvas.scale(lowWidth / (float) width, lowHeight / (float) height);
+		layers.draw(drawCanvas, new Rect(0, 0, width, height), filterPaint);
+		drawCanvas.restore();
+		lowResValid = true;
+	}
+
+	/**
+	 * draw lowRes in canvas coordinates, the canvas carries the viewport transform
+	 */
+	public void drawLowRes(Canvas canvas, int width, int height) {
+		canvas.save();
+		canvas.scale(width / (float) lowRes.getWidth(), height / (float) lowRes.getHeight());
+		canvas.drawBitmap(lowRes, 0, 0, filterPaint);
+		canvas.restore();
+	}
+
+	/**
+	 * re-render detail from the layers' strokes at the viewport's resolution
+	 *
+	 * @param all render the whole visible region, e.g. after a zoom or pan, instead of only the stale region
+	 */
+	public void updateDetail(LayerStack layers, Viewport viewport, StrokeLogRenderer renderer, int width, int height, boolean all) {
+		long start = System.nanoTime();
+		viewport.getVisibleRect(visibleRect);
+		boolean partial = !all && hasStaleRegion() && detail.getWidth() == width && detail.getHeight() == height;
+		if (partial) {
+			if (!renderRect.setIntersect(staleRect, visibleRect)) {
+				staleRect.setEmpty();
+				return;
+			}
+
+			// filtering reaches a pixel past the mapped region
+			mappedRect.set(renderRect);
+			viewport.getMatrix().mapRect(mappedRect);
+			mappedRect.roundOut(viewRect);
+			viewRect.inset(-1, -1);
+			viewRect.intersect(0, 0, width, height);
+		} else {
+			renderRect.set(visibleRect);
+			viewRect.set(0, 0, width, height);
+		}
+
+		detail = allocate(detail, width, height);
+		staleRect.setEmpty();
+
+		int drawn = 0;
+		for (int i = 0; i < layers.size(); i++) {
+			LayerStack.Layer layer = layers.get(i);
+
+			// a bottom layer drawn normally can go straight into detail, nothing is under it to blend with
+			boolean direct = i == 0 && layer.getBlendMode() == PorterDuff.Mode.SRC_OVER && layer.getOpacity() == 255;
+			Bitmap target = direct ? detail : (layerBitmap = allocate(layerBitmap, width, height));
+
+			drawCanvas.setBitmap(target);
+			drawCanvas.save();
+			drawCanvas.clipRect(viewRect);
+			drawCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+			drawCanvas.concat(viewport.getMatrix());
+			StrokeLog log = layer.log;
+			int head = layer.history.getHead();
+
+			// baked strokes are only pixels now, scaled like the tiles
+			int baked = layer.history.getBaseCount();
+			if (hasFills(log, baked, head)) {
+				// a fill depends on the pixels it was poured into, so the layer's tiles are scaled instead
+				layer.canvas.draw(drawCanvas, renderRect, filterPaint);
+			} else {
+				layer.history.drawBase(drawCanvas, renderRect, filterPaint);
+				for (int stroke = baked; stroke < head; stroke++) {
+					// the index pads by half the width, a stamped brush may reach up to the whole width
+					layer.index.getBounds(stroke, strokeBounds);
+					float pad = log.getWidth(stroke) / 2;
+					if (strokeBounds[2] + pad < renderRect.left || strokeBounds[0] - pad > renderRect.right
+						|| strokeBounds[3] + pad < renderRect.top || strokeBounds[1] - pad > renderRect.bottom) {
+						continue;
+					}
+
+					renderer.drawStroke(log, stroke, drawCanvas);
+					drawn++;
+				}
+			}
+			drawCanvas.restore();
+
+			if (!direct) {
+				drawCanvas.setBitmap(detail);
+				drawCanvas.save();
+				drawCanvas.clipRect(viewRect);
+				drawCanvas.drawBitmap(layerBitmap, 0, 0, layer.paint);
+				drawCanvas.restore();
+			}
+		}
+
+		detailValid = true;
+		Log.v(TAG, "Rendered " + drawn + " strokes " + (partial ? "in a stale region" : "visible") + " in "
+			+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	/**
+	 * draw detail in view coordinates
+	 */
+	public void drawDetail(Canvas canvas, Paint paint) {
+		canvas.drawBitmap(detail, 0, 0, paint);
+	}
+
+	private static boolean hasFills(StrokeLog log, int from, int to) {
+		for (int stroke = from; stroke < to; stroke++) {
+			if (log.isFill(stroke) && !log.isDeleted(stroke)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * a bitmap of the given size, the old one as it is if it fits
+	 */
+	private static Bitmap allocate(Bitmap bitmap, int width, int height) {
+		if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+			return bitmap;
+		}
+
+		if (bitmap != null) {
+			bitmap.recycle();
+		}
+
+		return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+	}
+
+	/**
+	 * a transparent bitmap of the given size, the old one cleared if it fits
+	 */
+	private static Bitmap reuse(Bitmap bitmap, int width, int height) {
+		if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+			bitmap.eraseColor(0);
+			return bitmap;
+		}
+
+		if (bitmap != null) {
+			bitmap.recycle();
+		}
+
+		return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+	}
+}
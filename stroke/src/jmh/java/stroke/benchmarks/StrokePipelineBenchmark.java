@@ -0,0 +1,192 @@
+package stroke.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import stroke.PointBuffer;
+import stroke.StrokeCodec;
+import stroke.StrokeGridIndex;
+import stroke.StrokeLog;
+import stroke.StrokeOutline;
+import stroke.StrokeSimplifier;
+import stroke.TouchRingBuffer;
+
+/**
+ * The pure-Java hot paths of a stroke, from touch samples to hit-testing.
+ *
+ * Each invocation handles one stroke of POINTS points, and the score is
+ * divided by POINTS, so it reads as ns per point. With the gc profiler on,
+ * gc.alloc.rate.norm is bytes per point as well; multiply by POINTS for bytes
+ * per stroke. Buffers are warm, so in steady state every path should report
+ * close to zero allocations.
+ *
+ * Run with ./gradlew :stroke:jmh, or java -jar stroke/build/libs/stroke-jmh.jar -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StrokePipelineBenchmark {
+
+	/// points per stroke
+	public static final int POINTS = 256;
+
+	/// strokes in the log hit-tests run against
+	private static final int INDEXED_STROKES = 500;
+
+	@Param({TouchTraces.SPIRAL, TouchTraces.SCRIBBLE, TouchTraces.LINE})
+	public String trace;
+
+	/// pixels between samples, from a slow finger to a fast flick
+	@Param({"0.5", "4", "32"})
+	public float spacing;
+
+	private float[] xy;
+
+	private final PointBuffer pointBuffer = new PointBuffer();
+	private final TouchRingBuffer ringBuffer = new TouchRingBuffer(POINTS * 2);
+	private final float[] drained = new float[POINTS * TouchRingBuffer.STRIDE];
+
+	/// thins the samples out into simplifiedPoints
+	private final StrokeSimplifier simplifier = new StrokeSimplifier(0.5f);
+	private final PointBuffer simplifiedPoints = new PointBuffer();
+
+	/// variable-width outline, extended one point at a time
+	private final StrokeOutline outline = new StrokeOutline();
+
+	/// one stroke, rewritten by every invocation that appends
+	private final StrokeLog strokeLog = new StrokeLog();
+	private final StrokeCodec codec = new StrokeCodec();
+	private byte[] encoded;
+
+	/// many copies of the trace, for hit-testing
+	private final StrokeLog indexedLog = new StrokeLog();
+	private final StrokeGridIndex index = new StrokeGridIndex(64);
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		xy = TouchTraces.create(trace, POINTS, spacing);
+
+		codec.writeStroke(0xff336699, 15, 0, xy, 0, POINTS);
+		encoded = codec.toByteArray();
+
+		// shifted copies, so hit-tests see overlapping strokes in every cell
+		float[] shifted = new float[xy.length];
+		for (int s = 0; s < INDEXED_STROKES; s++) {
+			float dx = (s * 37) % 200 - 100;
+			float dy = (s * 53) % 200 - 100;
+			for (int i = 0; i < POINTS; i++) {
+				shifted[i * 2] = xy[i * 2] + dx;
+				shifted[i * 2 + 1] = xy[i * 2 + 1] + dy;
+			}
+			indexedLog.append(0xff336699, 15, 0, shifted, 0, POINTS);
+		}
+
+		index.resize(1080, 1920);
+		index.addAll(indexedLog, 0);
+	}
+
+	/**
+	 * touch samples collected into the per-pointer buffer on the UI thread
+	 */
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public float collectPoints() {
+		pointBuffer.clear();
+		for (int i = 0; i < POINTS; i++) {
+			pointBuffer.add(xy[i * 2], xy[i * 2 + 1]);
+		}
+
+		return pointBuffer.getX(POINTS - 1);
+	}
+
+	/**
+	 * samples thinned out into the points the stroke is stored with
+	 */
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public int simplifyPoints() {
+		simplifier.begin(simplifiedPoints, xy[0], xy[1], 0);
+		for (int i = 1; i < POINTS; i++) {
+			simplifier.add(xy[i * 2], xy[i * 2 + 1], 0);
+		}
+
+		simplifier.end();
+		return simplifiedPoints.size();
+	}
+
+	/**
+	 * samples handed to the render thread through the ring buffer
+	 */
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public int queueSamples() {
+		for (int i = 0; i < POINTS; i++) {
+			ringBuffer.offer(TouchRingBuffer.TYPE_MOVE, xy[i * 2], xy[i * 2 + 1], 0);
+		}
+
+		return ringBuffer.drain(drained);
+	}
+
+	/**
+	 * variable-width stroke tessellated as its samples arrive, the cost per
+	 * point should not grow with the length of the stroke
+	 */
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public int extendOutline() {
+		outline.begin(xy[0], xy[1], 15);
+		for (int i = 1; i < POINTS; i++) {
+			outline.add(xy[i * 2], xy[i * 2 + 1], 10 + (i & 15) * 0.5f);
+		}
+
+		return outline.size();
+	}
+
+	/**
+	 * finished stroke appended to the log
+	 */
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public int appendToLog() {
+		strokeLog.clear();
+		return strokeLog.append(0xff336699, 15, 0, xy, 0, POINTS);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public int encode() {
+		codec.reset();
+		codec.writeStroke(0xff336699, 15, 0, xy, 0, POINTS);
+		return codec.size();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public int decode() throws IOException {
+		strokeLog.clear();
+		return StrokeCodec.decodeStroke(encoded, 0, encoded.length, strokeLog);
+	}
+
+	/**
+	 * stroke eraser dragged along the trace over INDEXED_STROKES strokes
+	 */
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void hitTest(Blackhole blackhole) {
+		for (int i = 0; i < POINTS; i++) {
+			blackhole.consume(index.hitTest(indexedLog, xy[i * 2], xy[i * 2 + 1], 16, INDEXED_STROKES));
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package stroke.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import stroke.StrokeLog;
+import stroke.StrokeRasterizer;
+
+/**
+ * A whole drawing rendered headless, on the calling thread and in bands
+ * across every core.
+ *
+ * Each invocation renders STROKES strokes of POINTS points into a cleared
+ * 1080x1920 image, so the score is ms per full render.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StrokeRasterizerBenchmark {
+
+	private static final int WIDTH = 1080;
+	private static final int HEIGHT = 1920;
+	private static final int STROKES = 200;
+	private static final int POINTS = 128;
+
+	@Param({"false", "true"})
+	public boolean parallel;
+
+	@Param({"4", "32"})
+	public float strokeWidth;
+
+	private final StrokeLog log = new StrokeLog();
+	private final int[] pixels = new int[WIDTH * HEIGHT];
+	private ForkJoinPool pool;
+	private StrokeRasterizer rasterizer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		// shifted copies of the scribble, spread over the whole image
+		float[] xy = TouchTraces.create(TouchTraces.SCRIBBLE, POINTS, 4);
+		float[] shifted = new float[xy.length];
+		for (int s = 0; s < STROKES; s++) {
+			float dx = (s * 37) % 400 - 200;
+			float dy = (s * 53) % 800 - 400;
+			for (int i = 0; i < POINTS; i++) {
+				shifted[i * 2] = xy[i * 2] + dx;
+				shifted[i * 2 + 1] = xy[i * 2 + 1] + dy;
+			}
+
+			log.append(0xff000000 | (s * 0x9e3779), strokeWidth, s % 10 == 9 ? StrokeLog.FLAG_ERASE : 0, shifted, 0, POINTS);
+		}
+
+		pool = parallel ? new ForkJoinPool() : null;
+		rasterizer = new StrokeRasterizer(pool);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public int render() {
+		Arrays.fill(pixels, 0);
+		rasterizer.render(log, 0, log.size(), pixels, WIDTH, HEIGHT, 1);
+		return pixels[WIDTH * HEIGHT / 2];
+	}
+}
@@ -0,0 +1,106 @@
+package stroke.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Synthetic touch traces for the benchmarks.
+ *
+ * Every trace has a fixed number of points spaced roughly evenly along the
+ * path, so the spacing controls the point density: a small spacing looks like
+ * a slow finger on a high-rate touch screen, a large one like a fast flick.
+ * Traces are deterministic, so runs are comparable.
+ */
+public class TouchTraces {
+
+	public static final String SPIRAL = "spiral";
+	public static final String SCRIBBLE = "scribble";
+	public static final String LINE = "line";
+
+	/**
+	 * build a trace
+	 *
+	 * @param shape   SPIRAL, SCRIBBLE or LINE
+	 * @param points  number of points
+	 * @param spacing distance between consecutive points, in pixels
+	 * @return x,y pairs
+	 */
+	public static float[] create(String shape, int points, float spacing) {
+		if (SPIRAL.equals(shape)) {
+			return spiral(points, spacing);
+		} else if (SCRIBBLE.equals(shape)) {
+			return scribble(points, spacing);
+		} else if (LINE.equals(shape)) {
+			return line(points, spacing);
+		}
+
+		throw new IllegalArgumentException("Unknown trace " + shape);
+	}
+
+	/**
+	 * archimedean spiral around 540,960, turns get tighter towards the center
+	 */
+	private static float[] spiral(int points, float spacing) {
+		float[] xy = new float[points * 2];
+		double radius = 20;
+		double angle = 0;
+		for (int i = 0; i < points; i++) {
+			xy[i * 2] = (float) (540 + radius * Math.cos(angle));
+			xy[i * 2 + 1] = (float) (960 + radius * Math.sin(angle));
+
+			// advance by spacing along the arc and grow the radius 30px per turn
+			double step = spacing / radius;
+			angle += step;
+			radius += 30 * step / (2 * Math.PI);
+		}
+
+		return xy;
+	}
+
+	/**
+	 * random walk with a slowly wandering heading, bouncing off a 1080x1920 screen
+	 */
+	private static float[] scribble(int points, float spacing) {
+		Random random = new Random(42);
+		float[] xy = new float[points * 2];
+		double x = 540;
+		double y = 960;
+		double heading = 0;
+		for (int i = 0; i < points; i++) {
+			xy[i * 2] = (float) x;
+			xy[i * 2 + 1] = (float) y;
+
+			heading += (random.nextDouble() - 0.5) * 0.8;
+			x += spacing * Math.cos(heading);
+			y += spacing * Math.sin(heading);
+			if (x < 0 || x > 1080) {
+				heading = Math.PI - heading;
+				x = Math.max(0, Math.min(1080, x));
+			}
+			if (y < 0 || y > 1920) {
+				heading = -heading;
+				y = Math.max(0, Math.min(1920, y));
+			}
+		}
+
+		return xy;
+	}
+
+	/**
+	 * straight line along the screen diagonal, going back and forth if it is longer than that
+	 */
+	private static float[] line(int points, float spacing) {
+		float[] xy = new float[points * 2];
+		double diagonal = Math.sqrt(1080 * 1080 + 1920 * 1920);
+		for (int i = 0; i < points; i++) {
+			double t = (i * (double) spacing) % (2 * diagonal);
+			if (t > diagonal) {
+				t = 2 * diagonal - t;
+			}
+
+			xy[i * 2] = (float) (t * 1080 / diagonal);
+			xy[i * 2 + 1] = (float) (t * 1920 / diagonal);
+		}
+
+		return xy;
+	}
+}
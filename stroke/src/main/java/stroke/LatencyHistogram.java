@@ -0,0 +1,98 @@
+package stroke;
+
+/**
+ * Fixed-size histogram of latencies with logarithmic buckets.
+ *
+ * Values below SUB_BUCKETS get a bucket each; above that every power of two
+ * is split into SUB_BUCKETS linear buckets, so a bucket is never wider than
+ * 1/SUB_BUCKETS of its value. All counts live in one preallocated array, so
+ * recording a sample is a few shifts and an increment, with no allocation.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/// largest power of two tracked, larger values land in the last bucket
+	private static final int MAX_EXPONENT = 20;
+
+	private final int[] counts = new int[SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+	private long count = 0;
+	private long max = 0;
+
+	/**
+	 * add a sample, negative values count as 0
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		counts[bucketOf(value)]++;
+		count++;
+		max = Math.max(max, value);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * value below which the given fraction of samples fall, rounded up to the bucket's upper bound
+	 *
+	 * @param fraction 0..1, e.g. 0.99 for p99
+	 * @return the percentile, or 0 without samples
+	 */
+	public long getPercentile(double fraction) {
+		long target = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int bucket = 0; bucket < counts.length; bucket++) {
+			seen += counts[bucket];
+			if (seen >= target) {
+				// the last bucket has no upper bound but the largest sample
+				return bucket == counts.length - 1 ? max : Math.min(upperBoundOf(bucket), max);
+			}
+		}
+
+		return max;
+	}
+
+	public void reset() {
+		for (int bucket = 0; bucket < counts.length; bucket++) {
+			counts[bucket] = 0;
+		}
+
+		count = 0;
+		max = 0;
+	}
+
+	private int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return counts.length - 1;
+		}
+
+		// the SUB_BUCKET_BITS bits below the leading one pick the sub-bucket
+		int sub = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * largest value falling into a bucket
+	 */
+	private long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (sub + 1) * width - 1;
+	}
+}
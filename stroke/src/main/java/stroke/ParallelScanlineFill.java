@@ -0,0 +1,81 @@
+package stroke;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ScanlineFill that tests the tolerance of the remaining pixels at once, split
+ * into bands of rows across a ForkJoinPool, once a fill turns out to be large.
+ *
+ * The span walk itself stays sequential; comparing colors is the part that
+ * grows with the region, and it is independent per pixel. Every fill starts on
+ * the sequential, test-on-demand path and only switches over after it has
+ * filled CLASSIFY_AFTER pixels, so small images and small regions of a large
+ * image never pay for classifying pixels the fill does not reach.
+ */
+public class ParallelScanlineFill extends ScanlineFill {
+
+	/// images with fewer pixels are filled sequentially
+	public static final int PARALLEL_THRESHOLD = 256 * 1024;
+
+	/// filled pixels after which the rest of the image is classified in parallel
+	public static final int CLASSIFY_AFTER = 32 * 1024;
+
+	/// a band is not split further below this many pixels
+	private static final int MIN_BAND_PIXELS = 32 * 1024;
+
+	private final ForkJoinPool pool;
+
+	public ParallelScanlineFill(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	protected int getClassifyThreshold(int width, int height) {
+		return width * height < PARALLEL_THRESHOLD ? Integer.MAX_VALUE : CLASSIFY_AFTER;
+	}
+
+	@Override
+	protected void classify(int[] pixels, int width, int height, int target, int tolerance) {
+		pool.invoke(new ClassifyBand(pixels, state, width, 0, height, target, tolerance));
+	}
+
+	private static class ClassifyBand extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] pixels;
+		private final byte[] state;
+		private final int width;
+		private final int fromRow, toRow;
+		private final int target, tolerance;
+
+		ClassifyBand(int[] pixels, byte[] state, int width, int fromRow, int toRow, int target, int tolerance) {
+			this.pixels = pixels;
+			this.state = state;
+			this.width = width;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.target = target;
+			this.tolerance = tolerance;
+		}
+
+		@Override
+		protected void compute() {
+			int rows = toRow - fromRow;
+			if (rows > 1 && rows * width > MIN_BAND_PIXELS) {
+				int middle = fromRow + rows / 2;
+				invokeAll(new ClassifyBand(pixels, state, width, fromRow, middle, target, tolerance),
+					new ClassifyBand(pixels, state, width, middle, toRow, target, tolerance));
+				return;
+			}
+
+			// pixels the fill already reached keep their state, filled ones no longer hold their old color
+			for (int i = fromRow * width, end = toRow * width; i < end; i++) {
+				if (state[i] == UNKNOWN) {
+					state[i] = isWithin(pixels[i], target, tolerance) ? MATCH : NO_MATCH;
+				}
+			}
+		}
+	}
+}
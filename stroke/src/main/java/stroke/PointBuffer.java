@@ -0,0 +1,93 @@
+package stroke;
+
+/**
+ * Growable list of x,y points backed by a single float array, optionally with
+ * a width per point.
+ */
+public class PointBuffer {
+
+	private float[] points;
+
+	/// number of points, not floats
+	private int size = 0;
+
+	/// width per point, null until the first point with a width is added
+	private float[] widths;
+
+	public PointBuffer() {
+		this(64);
+	}
+
+	/**
+	 * @param capacity initial number of points
+	 */
+	public PointBuffer(int capacity) {
+		points = new float[Math.max(1, capacity) * 2];
+	}
+
+	public void add(float x, float y) {
+		if (size * 2 == points.length) {
+			float[] grown = new float[points.length * 2];
+			System.arraycopy(points, 0, grown, 0, points.length);
+			points = grown;
+		}
+
+		points[size * 2] = x;
+		points[size * 2 + 1] = y;
+		size++;
+	}
+
+	/**
+	 * add a point of a variable-width stroke
+	 */
+	public void add(float x, float y, float width) {
+		if (widths == null || widths.length == size) {
+			float[] grown = new float[Math.max(size * 2, points.length / 2)];
+			if (widths != null) {
+				System.arraycopy(widths, 0, grown, 0, size);
+			}
+
+			widths = grown;
+		}
+
+		widths[size] = width;
+		add(x, y);
+	}
+
+	public float getX(int index) {
+		return points[index * 2];
+	}
+
+	public float getY(int index) {
+		return points[index * 2 + 1];
+	}
+
+	/**
+	 * width of a point added with add(x, y, width)
+	 */
+	public float getWidth(int index) {
+		return widths[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * raw x,y pairs, only the first size() points are valid
+	 */
+	public float[] array() {
+		return points;
+	}
+
+	/**
+	 * raw widths, null if no point had a width, only valid for points added with one
+	 */
+	public float[] widthArray() {
+		return widths;
+	}
+}
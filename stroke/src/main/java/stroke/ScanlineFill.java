@@ -0,0 +1,221 @@
+package stroke;
+
+import java.util.Arrays;
+
+/**
+ * Span-based flood fill over a flat array of ARGB pixels.
+ *
+ * Starting from a seed, whole horizontal runs of matching pixels are filled
+ * at once and only the start of each matching run in the rows above and below
+ * is pushed on an explicit stack, so there is no recursion and every pixel is
+ * looked at a small constant number of times. A pixel matches when no channel
+ * differs from the seed's by more than the tolerance.
+ *
+ * The changed span of every row is recorded, so callers can write back only
+ * what the fill touched. Buffers are kept between fills.
+ */
+public class ScanlineFill {
+
+	/// per pixel state, only meaningful during a fill
+	protected static final byte UNKNOWN = 0;
+	protected static final byte MATCH = 1;
+	protected static final byte NO_MATCH = 2;
+	protected static final byte FILLED = 3;
+
+	protected byte[] state = new byte[0];
+
+	/// changed columns [rowStart, rowEnd) per row, rowStart > rowEnd if unchanged
+	private int[] rowStart = new int[0];
+	private int[] rowEnd = new int[0];
+	private int firstRow, lastRow;
+
+	/// x,y seeds still to scan
+	private int[] stack = new int[256];
+	private int stackSize;
+
+	/**
+	 * fill the region connected to a seed
+	 *
+	 * @param pixels    ARGB pixels, row-major, changed in place
+	 * @param width     pixels per row
+	 * @param height    rows
+	 * @param x         seed
+	 * @param y         seed
+	 * @param color     ARGB fill color
+	 * @param tolerance largest per-channel difference to the seed color still filled, 0..255
+	 * @return number of pixels filled
+	 */
+	public int fill(int[] pixels, int width, int height, int x, int y, int color, int tolerance) {
+		firstRow = height;
+		lastRow = -1;
+		if (x < 0 || y < 0 || x >= width || y >= height || pixels[y * width + x] == color) {
+			return 0;
+		}
+
+		prepare(width * height, height);
+		int target = pixels[y * width + x];
+		int classifyAfter = getClassifyThreshold(width, height);
+
+		int filled = 0;
+		stackSize = 0;
+		push(x, y);
+		while (stackSize > 0) {
+			stackSize -= 2;
+			int seedX = stack[stackSize];
+			int seedY = stack[stackSize + 1];
+			int row = seedY * width;
+			if (!matches(pixels, row + seedX, target, tolerance)) {
+				continue;
+			}
+
+			// grow the run both ways from the seed
+			int left = seedX;
+			while (left > 0 && matches(pixels, row + left - 1, target, tolerance)) {
+				left--;
+			}
+
+			int right = seedX;
+			while (right < width - 1 && matches(pixels, row + right + 1, target, tolerance)) {
+				right++;
+			}
+
+			for (int i = row + left; i <= row + right; i++) {
+				pixels[i] = color;
+				state[i] = FILLED;
+			}
+
+			if (filled < classifyAfter && filled + right - left + 1 >= classifyAfter) {
+				classify(pixels, width, height, target, tolerance);
+			}
+
+			filled += right - left + 1;
+			markRow(seedY, left, right + 1);
+
+			if (seedY > 0) {
+				pushRuns(pixels, seedY - 1, width, left, right, target, tolerance);
+			}
+
+			if (seedY < height - 1) {
+				pushRuns(pixels, seedY + 1, width, left, right, target, tolerance);
+			}
+		}
+
+		return filled;
+	}
+
+	/**
+	 * first row changed by the last fill, greater than getLastRow() if nothing changed
+	 */
+	public int getFirstRow() {
+		return firstRow;
+	}
+
+	public int getLastRow() {
+		return lastRow;
+	}
+
+	/**
+	 * first changed column of a row, only valid for rows getFirstRow()..getLastRow()
+	 */
+	public int getRowStart(int row) {
+		return rowStart[row];
+	}
+
+	/**
+	 * end of the changed columns of a row, exclusive, not greater than getRowStart() if the row is unchanged
+	 */
+	public int getRowEnd(int row) {
+		return rowEnd[row];
+	}
+
+	/**
+	 * number of filled pixels after which classify() is called once, the default never calls it
+	 */
+	protected int getClassifyThreshold(int width, int height) {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * decide which of the pixels still UNKNOWN match, subclasses may do it for the
+	 * rest of the image at once, the default leaves them to be tested when reached
+	 */
+	protected void classify(int[] pixels, int width, int height, int target, int tolerance) {
+	}
+
+	protected static boolean isWithin(int pixel, int target, int tolerance) {
+		if (pixel == target) {
+			return true;
+		}
+
+		return Math.abs((pixel >>> 24) - (target >>> 24)) <= tolerance
+			&& Math.abs(((pixel >> 16) & 0xff) - ((target >> 16) & 0xff)) <= tolerance
+			&& Math.abs(((pixel >> 8) & 0xff) - ((target >> 8) & 0xff)) <= tolerance
+			&& Math.abs((pixel & 0xff) - (target & 0xff)) <= tolerance;
+	}
+
+	private boolean matches(int[] pixels, int i, int target, int tolerance) {
+		byte s = state[i];
+		if (s == UNKNOWN) {
+			s = isWithin(pixels[i], target, tolerance) ? MATCH : NO_MATCH;
+			state[i] = s;
+		}
+
+		return s == MATCH;
+	}
+
+	/**
+	 * push the start of every matching run of a row between left and right
+	 */
+	private void pushRuns(int[] pixels, int y, int width, int left, int right, int target, int tolerance) {
+		int row = y * width;
+		boolean inRun = false;
+		for (int x = left; x <= right; x++) {
+			boolean match = matches(pixels, row + x, target, tolerance);
+			if (match && !inRun) {
+				push(x, y);
+			}
+
+			inRun = match;
+		}
+	}
+
+	private void push(int x, int y) {
+		if (stackSize + 2 > stack.length) {
+			int[] grown = new int[stack.length * 2];
+			System.arraycopy(stack, 0, grown, 0, stackSize);
+			stack = grown;
+		}
+
+		stack[stackSize++] = x;
+		stack[stackSize++] = y;
+	}
+
+	private void markRow(int y, int start, int end) {
+		if (rowStart[y] > rowEnd[y]) {
+			rowStart[y] = start;
+			rowEnd[y] = end;
+		} else {
+			rowStart[y] = Math.min(rowStart[y], start);
+			rowEnd[y] = Math.max(rowEnd[y], end);
+		}
+
+		firstRow = Math.min(firstRow, y);
+		lastRow = Math.max(lastRow, y);
+	}
+
+	private void prepare(int pixelCount, int height) {
+		if (state.length != pixelCount) {
+			state = new byte[pixelCount];
+		} else {
+			Arrays.fill(state, UNKNOWN);
+		}
+
+		if (rowStart.length != height) {
+			rowStart = new int[height];
+			rowEnd = new int[height];
+		}
+
+		Arrays.fill(rowStart, 1);
+		Arrays.fill(rowEnd, 0);
+	}
+}
@@ -0,0 +1,91 @@
+package stroke;
+
+/**
+ * Points of a stroke waiting to be drawn, led by the newest already drawn ones.
+ *
+ * A stroke drawn one segment at a time keeps the last CONTEXT_SIZE drawn points
+ * and draws them again together with the pending ones, so the join at the
+ * previous point comes from the path's own join and not from two overlapping
+ * caps. Points may be appended in batches and drawn with one call.
+ */
+public class SegmentQueue {
+
+	/// already drawn points kept as context for the next segment
+	public static final int CONTEXT_SIZE = 2;
+
+	/// x,y pairs, the first contextCount of them already drawn
+	private float[] points = new float[32];
+
+	/// number of points in points
+	private int count = 0;
+
+	/// number of leading points that were already drawn
+	private int contextCount = 0;
+
+	/**
+	 * start a new stroke at the given point, it counts as drawn
+	 */
+	public void moveTo(float x, float y) {
+		count = 0;
+		append(x, y);
+		contextCount = 1;
+	}
+
+	/**
+	 * queue a point, it is pending until the next keepContext()
+	 */
+	public void append(float x, float y) {
+		if (count * 2 == points.length) {
+			float[] grown = new float[points.length * 2];
+			System.arraycopy(points, 0, grown, 0, points.length);
+			points = grown;
+		}
+
+		points[count * 2] = x;
+		points[count * 2 + 1] = y;
+		count++;
+	}
+
+	public boolean hasPending() {
+		return count > contextCount;
+	}
+
+	/**
+	 * number of points, context and pending
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * index of the first pending point, the ones before it are context
+	 */
+	public int getContextCount() {
+		return contextCount;
+	}
+
+	public float getX(int index) {
+		return points[index * 2];
+	}
+
+	public float getY(int index) {
+		return points[index * 2 + 1];
+	}
+
+	/**
+	 * x,y pairs of the size() points, valid until the next change
+	 */
+	public float[] array() {
+		return points;
+	}
+
+	/**
+	 * the points were drawn, keep the newest of them as context for the next segment
+	 */
+	public void keepContext() {
+		int keep = Math.min(CONTEXT_SIZE, count);
+		System.arraycopy(points, (count - keep) * 2, points, 0, keep * 2);
+		count = keep;
+		contextCount = keep;
+	}
+}
@@ -0,0 +1,351 @@
+package stroke;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compact binary encoding of strokes.
+ *
+ * An encoded file starts with the magic "STK" and a version byte, followed by
+ * stroke records until the end of the data. Each record is self-contained:
+ *
+ * <pre>
+ * color      4 bytes, big-endian ARGB
+ * width      varint, 1/16 pixel units, a fill's tolerance instead
+ * flags      varint, StrokeLog flags shifted down by 16
+ * count      varint, number of points
+ * time       only with StrokeLog.FLAG_TIMED: 8 bytes, big-endian start time,
+ *            then a varint duration, both in milliseconds
+ * points     count x,y pairs, zig-zag varints of the delta to the previous
+ *            point in 1/8 pixel units, the first point relative to 0,0
+ *            with StrokeLog.FLAG_VARIABLE_WIDTH each point is followed by
+ *            a zig-zag varint of the delta to the previous point's width in
+ *            1/16 pixel units
+ * </pre>
+ *
+ * Touch samples are usually a few pixels apart, so most coordinates take one
+ * or two bytes and a typical stroke costs 2-4 bytes per point.
+ */
+public class StrokeCodec {
+
+	public static final byte[] MAGIC = {'S', 'T', 'K'};
+	public static final int VERSION = 2;
+
+	/// points are stored in 1/POINT_SCALE pixel units
+	public static final int POINT_SCALE = 8;
+
+	/// widths are stored in 1/WIDTH_SCALE pixel units
+	private static final int WIDTH_SCALE = 16;
+
+	private static final int FLAGS_SHIFT = 16;
+
+	private byte[] buffer;
+	private int length = 0;
+
+	public StrokeCodec() {
+		this(1024);
+	}
+
+	/**
+	 * @param capacity initial buffer size in bytes
+	 */
+	public StrokeCodec(int capacity) {
+		buffer = new byte[Math.max(16, capacity)];
+	}
+
+	/**
+	 * encode every stroke of a log, header included
+	 */
+	public static byte[] encode(StrokeLog log) {
+		StrokeCodec codec = new StrokeCodec(log.getTotalPointCount() * 3 + log.size() * 8 + 16);
+		codec.writeHeader();
+		for (int stroke = 0; stroke < log.size(); stroke++) {
+			codec.writeStroke(log, stroke);
+		}
+
+		return codec.toByteArray();
+	}
+
+	/**
+	 * decode data written by encode, header included
+	 *
+	 * @param into receives the decoded strokes
+	 * @throws IOException if the data is not a valid encoding
+	 */
+	public static void decode(byte[] data, StrokeLog into) throws IOException {
+		if (data.length < MAGIC.length + 1 || data[0] != MAGIC[0] || data[1] != MAGIC[1] || data[2] != MAGIC[2]) {
+			throw new IOException("Not a stroke file");
+		}
+
+		if (data[3] != VERSION) {
+			throw new IOException("Unsupported stroke file version " + data[3]);
+		}
+
+		decodeStrokes(data, MAGIC.length + 1, data.length, into);
+	}
+
+	/**
+	 * decode stroke records without a header
+	 *
+	 * @param from first byte of the first record
+	 * @param to   end of the last record
+	 * @param into receives the decoded strokes
+	 * @throws IOException if a record is truncated or malformed
+	 */
+	public static void decodeStrokes(byte[] data, int from, int to, StrokeLog into) throws IOException {
+		Reader reader = new Reader(data, from, to);
+		PointBuffer points = new PointBuffer();
+
+		while (reader.position < to) {
+			readStroke(reader, points, into);
+		}
+	}
+
+	/**
+	 * decode a single stroke record
+	 *
+	 * @param from first byte of the record
+	 * @param to   end of the data, the record may be followed by anything
+	 * @param into receives the decoded stroke
+	 * @return position right after the record
+	 * @throws IOException if the record is truncated or malformed
+	 */
+	public static int decodeStroke(byte[] data, int from, int to, StrokeLog into) throws IOException {
+		Reader reader = new Reader(data, from, to);
+		readStroke(reader, new PointBuffer(), into);
+		return reader.position;
+	}
+
+	private static void readStroke(Reader reader, PointBuffer points, StrokeLog into) throws IOException {
+		int color = reader.readInt();
+		float width = reader.readVarint() / (float) WIDTH_SCALE;
+		int flags = reader.readVarint() << FLAGS_SHIFT;
+		int count = reader.readVarint();
+		if (count < 0) {
+			throw new IOException("Malformed point count " + count);
+		}
+
+		long startTime = 0;
+		int duration = 0;
+		if ((flags & StrokeLog.FLAG_TIMED) != 0) {
+			startTime = reader.readLong();
+			duration = reader.readVarint();
+		}
+
+		points.clear();
+		boolean variableWidth = (flags & StrokeLog.FLAG_VARIABLE_WIDTH) != 0;
+		int x = 0;
+		int y = 0;
+		int pointWidth = 0;
+		for (int i = 0; i < count; i++) {
+			x += zigZagDecode(reader.readVarint());
+			y += zigZagDecode(reader.readVarint());
+			if (variableWidth) {
+				pointWidth += zigZagDecode(reader.readVarint());
+				points.add(x / (float) POINT_SCALE, y / (float) POINT_SCALE, pointWidth / (float) WIDTH_SCALE);
+			} else {
+				points.add(x / (float) POINT_SCALE, y / (float) POINT_SCALE);
+			}
+		}
+
+		int stroke = into.append(color, width, flags, points);
+		if ((flags & StrokeLog.FLAG_TIMED) != 0) {
+			into.setTime(stroke, startTime, duration);
+		}
+	}
+
+	/**
+	 * append the magic and version
+	 */
+	public void writeHeader() {
+		ensureCapacity(MAGIC.length + 1);
+		System.arraycopy(MAGIC, 0, buffer, length, MAGIC.length);
+		length += MAGIC.length;
+		buffer[length++] = VERSION;
+	}
+
+	/**
+	 * append one stroke of a log
+	 */
+	public void writeStroke(StrokeLog log, int stroke) {
+		writeStroke(log.getColor(stroke), log.getStoredWidth(stroke), log.getFlags(stroke), log.getStartTime(stroke),
+			log.getDuration(stroke), log.getPoints(), log.getPointWidths(), log.getPointOffset(stroke), log.getPointCount(stroke));
+	}
+
+	/**
+	 * append one stroke
+	 *
+	 * @param color  ARGB color
+	 * @param width  width in pixels
+	 * @param flags  StrokeLog flags
+	 * @param xy     x,y pairs
+	 * @param offset first point in xy
+	 * @param count  number of points
+	 */
+	public void writeStroke(int color, float width, int flags, float[] xy, int offset, int count) {
+		writeStroke(color, width, flags & ~StrokeLog.FLAG_TIMED, 0, 0, xy, null, offset, count);
+	}
+
+	/**
+	 * append one stroke
+	 *
+	 * @param startTime start time in milliseconds, only used with StrokeLog.FLAG_TIMED
+	 * @param duration  duration in milliseconds, only used with StrokeLog.FLAG_TIMED
+	 * @param widths    width per point, only used with StrokeLog.FLAG_VARIABLE_WIDTH
+	 */
+	public void writeStroke(int color, float width, int flags, long startTime, int duration,
+	                        float[] xy, float[] widths, int offset, int count) {
+		boolean variableWidth = (flags & StrokeLog.FLAG_VARIABLE_WIDTH) != 0;
+
+		// worst case: 4 color bytes, 3 varints of 5 bytes, 13 time bytes and 10 bytes per point, 15 with a width
+		ensureCapacity(4 + 15 + 13 + count * (variableWidth ? 15 : 10));
+
+		writeInt(color);
+		writeVarint(Math.round(width * WIDTH_SCALE));
+		writeVarint(flags >>> FLAGS_SHIFT);
+		writeVarint(count);
+		if ((flags & StrokeLog.FLAG_TIMED) != 0) {
+			writeInt((int) (startTime >>> 32));
+			writeInt((int) startTime);
+			writeVarint(duration);
+		}
+
+		// deltas are taken between quantized points, so rounding errors never accumulate
+		int lastX = 0;
+		int lastY = 0;
+		int lastWidth = 0;
+		for (int i = offset; i < offset + count; i++) {
+			int x = Math.round(xy[i * 2] * POINT_SCALE);
+			int y = Math.round(xy[i * 2 + 1] * POINT_SCALE);
+			writeVarint(zigZagEncode(x - lastX));
+			writeVarint(zigZagEncode(y - lastY));
+			lastX = x;
+			lastY = y;
+
+			if (variableWidth) {
+				int pointWidth = Math.round(widths[i] * WIDTH_SCALE);
+				writeVarint(zigZagEncode(pointWidth - lastWidth));
+				lastWidth = pointWidth;
+			}
+		}
+	}
+
+	/**
+	 * number of bytes written so far
+	 */
+	public int size() {
+		return length;
+	}
+
+	/**
+	 * forget everything written, the buffer is kept
+	 */
+	public void reset() {
+		length = 0;
+	}
+
+	/**
+	 * forget what was written after the first size bytes, e.g. a record that does not fit
+	 */
+	public void truncate(int size) {
+		length = Math.min(length, size);
+	}
+
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[length];
+		System.arraycopy(buffer, 0, bytes, 0, length);
+		return bytes;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, 0, length);
+	}
+
+	/**
+	 * raw buffer, only the first size() bytes are valid
+	 */
+	public byte[] array() {
+		return buffer;
+	}
+
+	private void writeInt(int value) {
+		buffer[length++] = (byte) (value >>> 24);
+		buffer[length++] = (byte) (value >>> 16);
+		buffer[length++] = (byte) (value >>> 8);
+		buffer[length++] = (byte) value;
+	}
+
+	private void writeVarint(int value) {
+		while ((value & ~0x7f) != 0) {
+			buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+
+		buffer[length++] = (byte) value;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (length + extra > buffer.length) {
+			byte[] grown = new byte[Math.max(buffer.length * 2, length + extra)];
+			System.arraycopy(buffer, 0, grown, 0, length);
+			buffer = grown;
+		}
+	}
+
+	private static int zigZagEncode(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int zigZagDecode(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * bounds-checked cursor over encoded bytes
+	 */
+	private static class Reader {
+
+		private final byte[] data;
+		private final int end;
+		private int position;
+
+		Reader(byte[] data, int from, int to) {
+			this.data = data;
+			this.position = from;
+			this.end = to;
+		}
+
+		int readInt() throws IOException {
+			if (position + 4 > end) {
+				throw new IOException("Truncated stroke record");
+			}
+
+			int value = ((data[position] & 0xff) << 24) | ((data[position + 1] & 0xff) << 16)
+				| ((data[position + 2] & 0xff) << 8) | (data[position + 3] & 0xff);
+			position += 4;
+			return value;
+		}
+
+		long readLong() throws IOException {
+			long high = readInt();
+			return (high << 32) | (readInt() & 0xffffffffL);
+		}
+
+		int readVarint() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				if (position >= end) {
+					throw new IOException("Truncated stroke record");
+				}
+
+				byte b = data[position++];
+				value |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+
+			throw new IOException("Malformed varint");
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package stroke;
+
+/**
+ * Stroke width from touch pressure and drawing speed.
+ *
+ * Harder presses draw wider, faster moves draw thinner, like ink running out
+ * of a pen. Both inputs are noisy from sample to sample, so speed and width
+ * are smoothed with an exponential moving average. One instance per pointer.
+ */
+public class StrokeDynamics {
+
+	/// speed in pixels per millisecond at which the width is halved
+	private static final float HALF_WIDTH_SPEED = 3f;
+
+	/// width never drops below this fraction of the brush width
+	private static final float MIN_FACTOR = 0.3f;
+
+	/// weight of the newest sample in the moving averages
+	private static final float SMOOTHING = 0.3f;
+
+	private float lastX, lastY;
+	private long lastTime;
+	private float speed;
+	private float width;
+
+	/**
+	 * start a stroke
+	 *
+	 * @param time     sample time in milliseconds
+	 * @param pressure MotionEvent pressure, nominally 0..1
+	 * @return width at the first point
+	 */
+	public float begin(float x, float y, long time, float pressure, float brushWidth) {
+		lastX = x;
+		lastY = y;
+		lastTime = time;
+		speed = 0;
+		width = brushWidth * factor(pressure, 0);
+		return width;
+	}
+
+	/**
+	 * width at the next point of the stroke
+	 *
+	 * @param time     sample time in milliseconds
+	 * @param pressure MotionEvent pressure, nominally 0..1
+	 */
+	public float next(float x, float y, long time, float pressure, float brushWidth) {
+		float dx = x - lastX;
+		float dy = y - lastY;
+		long elapsed = Math.max(1, time - lastTime);
+		speed += SMOOTHING * ((float) Math.sqrt(dx * dx + dy * dy) / elapsed - speed);
+
+		lastX = x;
+		lastY = y;
+		lastTime = time;
+		width += SMOOTHING * (brushWidth * factor(pressure, speed) - width);
+		return width;
+	}
+
+	private static float factor(float pressure, float speed) {
+		// pressure 0..1 scales from half to one and a half times the brush width
+		float pressureFactor = 0.5f + Math.max(0, Math.min(1, pressure));
+		float speedFactor = 1 / (1 + speed / HALF_WIDTH_SPEED);
+		return Math.max(MIN_FACTOR, pressureFactor * speedFactor);
+	}
+}
@@ -0,0 +1,239 @@
+package stroke;
+
+/**
+ * Uniform grid over the segments of a StrokeLog, for hit-testing strokes.
+ *
+ * Every segment is registered in each cell its padded bounding box covers, as
+ * a (stroke, first point) pair in a growable int array per cell. A hit-test
+ * only looks at the few cells around the query point, checks the stroke's
+ * bounding box and then the exact distance to the segment, so its cost does not
+ * depend on how many strokes the drawing has. Points outside the grid are
+ * clamped to the border cells.
+ */
+public class StrokeGridIndex {
+
+	/// ints per segment reference
+	private static final int REF_STRIDE = 2;
+
+	private final int cellSize;
+	private int columns = 1;
+	private int rows = 1;
+
+	/// per cell (stroke, point) pairs, null until a segment lands in the cell
+	private int[][] cells = new int[1][];
+	private int[] cellCounts = new int[1];
+
+	/// minX, minY, maxX, maxY per stroke, padded by half the width
+	private float[] strokeBounds = new float[64 * 4];
+
+	/// number of strokes added
+	private int strokeCount = 0;
+
+	/**
+	 * @param cellSize cell edge in pixels
+	 */
+	public StrokeGridIndex(int cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * set the area covered by the grid, drops every stroke
+	 */
+	public void resize(int width, int height) {
+		columns = Math.max(1, (width + cellSize - 1) / cellSize);
+		rows = Math.max(1, (height + cellSize - 1) / cellSize);
+		cells = new int[columns * rows][];
+		cellCounts = new int[columns * rows];
+		strokeCount = 0;
+	}
+
+	/**
+	 * number of strokes indexed
+	 */
+	public int size() {
+		return strokeCount;
+	}
+
+	/**
+	 * index every stroke of a log from the given one on
+	 */
+	public void addAll(StrokeLog log, int from) {
+		for (int stroke = from; stroke < log.size(); stroke++) {
+			add(log, stroke);
+		}
+	}
+
+	/**
+	 * index a stroke, strokes must be added in log order
+	 */
+	public void add(StrokeLog log, int stroke) {
+		if (stroke != strokeCount) {
+			throw new IllegalArgumentException("Stroke " + stroke + " added out of order, expected " + strokeCount);
+		}
+
+		int offset = log.getPointOffset(stroke);
+		int count = log.getPointCount(stroke);
+		float pad = log.getWidth(stroke) / 2;
+
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+
+		// a single point is indexed as a zero-length segment
+		int segments = Math.max(1, count - 1);
+		for (int i = 0; i < segments && count > 0; i++) {
+			int a = offset + i;
+			int b = offset + Math.min(i + 1, count - 1);
+			float left = Math.min(log.getX(a), log.getX(b)) - pad;
+			float top = Math.min(log.getY(a), log.getY(b)) - pad;
+			float right = Math.max(log.getX(a), log.getX(b)) + pad;
+			float bottom = Math.max(log.getY(a), log.getY(b)) + pad;
+
+			int firstColumn = column(left), lastColumn = column(right);
+			int firstRow = row(top), lastRow = row(bottom);
+			for (int r = firstRow; r <= lastRow; r++) {
+				for (int c = firstColumn; c <= lastColumn; c++) {
+					addRef(r * columns + c, stroke, a);
+				}
+			}
+
+			minX = Math.min(minX, left);
+			minY = Math.min(minY, top);
+			maxX = Math.max(maxX, right);
+			maxY = Math.max(maxY, bottom);
+		}
+
+		if ((strokeCount + 1) * 4 > strokeBounds.length) {
+			float[] grown = new float[strokeBounds.length * 2];
+			System.arraycopy(strokeBounds, 0, grown, 0, strokeBounds.length);
+			strokeBounds = grown;
+		}
+
+		strokeBounds[stroke * 4] = minX;
+		strokeBounds[stroke * 4 + 1] = minY;
+		strokeBounds[stroke * 4 + 2] = maxX;
+		strokeBounds[stroke * 4 + 3] = maxY;
+		strokeCount++;
+	}
+
+	/**
+	 * forget every stroke from the given index on, e.g. after the log was truncated
+	 */
+	public void truncate(int size) {
+		if (size >= strokeCount) {
+			return;
+		}
+
+		for (int cell = 0; cell < cells.length; cell++) {
+			int[] refs = cells[cell];
+			int kept = 0;
+			for (int i = 0; i < cellCounts[cell]; i += REF_STRIDE) {
+				if (refs[i] < size) {
+					refs[kept] = refs[i];
+					refs[kept + 1] = refs[i + 1];
+					kept += REF_STRIDE;
+				}
+			}
+
+			cellCounts[cell] = kept;
+		}
+
+		strokeCount = size;
+	}
+
+	/**
+	 * find the topmost stroke passing within radius of a point, fills and erasers are never hit
+	 *
+	 * @param log      the indexed log
+	 * @param x        query point
+	 * @param y        query point
+	 * @param radius   touch tolerance, added to the stroke's half width
+	 * @param limit    only strokes below this index are considered, e.g. the undo head
+	 * @return stroke index, or -1 if no stroke is hit
+	 */
+	public int hitTest(StrokeLog log, float x, float y, float radius, int limit) {
+		int best = -1;
+		int firstColumn = column(x - radius), lastColumn = column(x + radius);
+		int firstRow = row(y - radius), lastRow = row(y + radius);
+
+		for (int r = firstRow; r <= lastRow; r++) {
+			for (int c = firstColumn; c <= lastColumn; c++) {
+				int cell = r * columns + c;
+				int[] refs = cells[cell];
+				for (int i = 0; i < cellCounts[cell]; i += REF_STRIDE) {
+					int stroke = refs[i];
+					if (stroke <= best || stroke >= limit || !intersectsBounds(stroke, x, y, radius)) {
+						continue;
+					}
+
+					// a fill has no outline to hit, only its seed is recorded, and deleting
+					// an eraser stroke would bring back the pixels it erased
+					if ((log.getFlags(stroke) & (StrokeLog.FLAG_DELETED | StrokeLog.FLAG_FILL | StrokeLog.FLAG_ERASE)) != 0) {
+						continue;
+					}
+
+					int a = refs[i + 1];
+					int b = Math.min(a + 1, log.getPointOffset(stroke) + log.getPointCount(stroke) - 1);
+					float reach = radius + log.getWidth(stroke) / 2;
+					if (distanceSquared(x, y, log.getX(a), log.getY(a), log.getX(b), log.getY(b)) <= reach * reach) {
+						best = stroke;
+					}
+				}
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * bounding box of a stroke, padded by half its width
+	 *
+	 * @param out receives minX, minY, maxX, maxY
+	 */
+	public void getBounds(int stroke, float[] out) {
+		System.arraycopy(strokeBounds, stroke * 4, out, 0, 4);
+	}
+
+	private boolean intersectsBounds(int stroke, float x, float y, float radius) {
+		int i = stroke * 4;
+		return x + radius >= strokeBounds[i] && y + radius >= strokeBounds[i + 1]
+			&& x - radius <= strokeBounds[i + 2] && y - radius <= strokeBounds[i + 3];
+	}
+
+	private void addRef(int cell, int stroke, int point) {
+		int[] refs = cells[cell];
+		if (refs == null) {
+			refs = cells[cell] = new int[8 * REF_STRIDE];
+		} else if (cellCounts[cell] + REF_STRIDE > refs.length) {
+			int[] grown = new int[refs.length * 2];
+			System.arraycopy(refs, 0, grown, 0, refs.length);
+			refs = cells[cell] = grown;
+		}
+
+		refs[cellCounts[cell]] = stroke;
+		refs[cellCounts[cell] + 1] = point;
+		cellCounts[cell] += REF_STRIDE;
+	}
+
+	private int column(float x) {
+		return Math.min(columns - 1, Math.max(0, (int) (x / cellSize)));
+	}
+
+	private int row(float y) {
+		return Math.min(rows - 1, Math.max(0, (int) (y / cellSize)));
+	}
+
+	/**
+	 * squared distance from p to the segment a-b
+	 */
+	private static float distanceSquared(float px, float py, float ax, float ay, float bx, float by) {
+		float dx = bx - ax;
+		float dy = by - ay;
+		float lengthSquared = dx * dx + dy * dy;
+		float t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+
+		float cx = ax + t * dx - px;
+		float cy = ay + t * dy - py;
+		return cx * cx + cy * cy;
+	}
+}
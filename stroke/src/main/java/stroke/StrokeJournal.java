@@ -0,0 +1,354 @@
+package stroke;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only journal of the changes made to a StrokeLog, in a memory-mapped file.
+ *
+ * Appending a record is only a few memory stores into the mapping, cheap
+ * enough for the UI thread. The kernel owns the mapped pages, so everything
+ * written survives the process being killed or crashing; only a power loss
+ * before the pages are flushed can lose the tail.
+ *
+ * <pre>
+ * magic      "STJ" and a version byte
+ * committed  4 bytes, end of the last complete record
+ * records    op byte followed by its payload:
+ *            OP_STROKE  a StrokeCodec record, appended at the head
+ *            OP_HEAD    4 bytes, new head after an undo or redo
+ *            OP_DELETE  4 bytes, stroke removed by the stroke eraser
+ *            OP_LAYER   4 bytes, layer the following records apply to
+ * </pre>
+ *
+ * Records apply to layer 0 until the first OP_LAYER.
+ *
+ * A record is written first and committed by updating the committed length
+ * afterwards, so a record torn by a crash is simply never replayed.
+ */
+public class StrokeJournal {
+
+	public static final byte[] MAGIC = {'S', 'T', 'J'};
+	public static final int VERSION = 2;
+
+	/// most layers a journal holds, a record naming a later one is taken as corruption
+	public static final int MAX_LAYERS = 256;
+
+	private static final int COMMITTED_OFFSET = 4;
+	private static final int HEADER_SIZE = 8;
+
+	/// bytes mapped for a new journal, doubled whenever it fills up
+	private static final int INITIAL_MAPPING_SIZE = 256 * 1024;
+
+	private static final byte OP_STROKE = 1;
+	private static final byte OP_HEAD = 2;
+	private static final byte OP_DELETE = 3;
+	private static final byte OP_LAYER = 4;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private MappedByteBuffer buffer;
+
+	/// end of the last committed record
+	private int length;
+
+	/// layer of the last record, -1 until known
+	private int layer = -1;
+
+	/// stroke records are encoded here before being copied into the mapping
+	private final StrokeCodec codec = new StrokeCodec();
+
+	/**
+	 * open a journal, a missing or unreadable file starts out empty
+	 *
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public StrokeJournal(File path) throws IOException {
+		this(path, false);
+	}
+
+	private StrokeJournal(File path, boolean readOnly) throws IOException {
+		file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+		channel = file.getChannel();
+		if (readOnly) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} else {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(file.length(), INITIAL_MAPPING_SIZE));
+		}
+
+		if (hasHeader()) {
+			length = buffer.getInt(COMMITTED_OFFSET);
+		} else if (readOnly) {
+			// unreadable, replays as empty and is left for the next writer to start over
+			length = 0;
+		} else {
+			// new or unreadable, start over
+			clear();
+		}
+	}
+
+	/**
+	 * open an existing journal only to replay it, the file is never changed,
+	 * not even when it is unreadable, and every write throws
+	 *
+	 * @throws IOException if the file is missing or cannot be mapped
+	 */
+	public static StrokeJournal openReadOnly(File path) throws IOException {
+		return new StrokeJournal(path, true);
+	}
+
+	/**
+	 * rebuild the log of one layer from the journal
+	 *
+	 * @param into  cleared, then receives every journaled stroke of the layer including the redo history
+	 * @param layer layer to replay
+	 * @return number of applied strokes, the rest of into can only be redone
+	 * @throws IOException if a committed record is malformed
+	 */
+	public int replay(StrokeLog into, int layer) throws IOException {
+		into.clear();
+		return scan(into, layer);
+	}
+
+	/**
+	 * number of layers with journaled records, at least 1
+	 *
+	 * @throws IOException if a committed record is malformed
+	 */
+	public int getLayerCount() throws IOException {
+		return scan(null, -1);
+	}
+
+	/**
+	 * walk the committed records
+	 *
+	 * @param into  receives the strokes of the layer, or null to only count layers
+	 * @param layer layer to replay
+	 * @return head of the layer, or the number of layers if into is null
+	 */
+	private int scan(StrokeLog into, int layer) throws IOException {
+		byte[] data = new byte[length];
+		buffer.position(0);
+		buffer.get(data, 0, length);
+
+		// records of other layers are decoded into here and dropped
+		StrokeLog skipped = new StrokeLog();
+		int current = 0;
+		int layerCount = 1;
+		int head = 0;
+		int position = HEADER_SIZE;
+		while (position < length) {
+			byte op = data[position++];
+			boolean replayed = into != null && current == layer;
+			switch (op) {
+				case OP_STROKE:
+					if (replayed) {
+						into.truncate(head);
+						position = StrokeCodec.decodeStroke(data, position, length, into);
+						head = into.size();
+					} else {
+						skipped.clear();
+						position = StrokeCodec.decodeStroke(data, position, length, skipped);
+					}
+					break;
+				case OP_HEAD:
+					int newHead = readInt(data, position);
+					if (newHead < 0) {
+						throw new IOException("Negative head " + newHead + " at " + (position - 1));
+					}
+
+					if (replayed) {
+						head = Math.min(newHead, into.size());
+					}
+					position += 4;
+					break;
+				case OP_DELETE:
+					int stroke = readInt(data, position);
+					if (stroke < 0) {
+						throw new IOException("Negative deleted stroke " + stroke + " at " + (position - 1));
+					}
+
+					position += 4;
+					if (replayed && stroke < into.size()) {
+						into.setDeleted(stroke, true);
+					}
+					break;
+				case OP_LAYER:
+					current = readInt(data, position);
+					if (current < 0 || current >= MAX_LAYERS) {
+						throw new IOException("Layer " + current + " out of range at " + (position - 1));
+					}
+
+					position += 4;
+					layerCount = Math.max(layerCount, current + 1);
+					break;
+				default:
+					throw new IOException("Unknown journal record " + op + " at " + (position - 1));
+			}
+		}
+
+		return into != null ? head : layerCount;
+	}
+
+	/**
+	 * make the following records apply to a layer, only journaled if the layer changed
+	 *
+	 * @throws IOException if the journal cannot grow, or the layer is not below MAX_LAYERS
+	 */
+	public void setLayer(int layer) throws IOException {
+		if (layer < 0 || layer >= MAX_LAYERS) {
+			throw new IOException("Cannot journal layer " + layer + ", at most " + MAX_LAYERS + " layers");
+		}
+
+		if (layer != this.layer) {
+			writeIntRecord(OP_LAYER, layer);
+			this.layer = layer;
+		}
+	}
+
+	/**
+	 * journal a stroke appended at the head, dropping the redo history
+	 *
+	 * @throws IOException if the journal cannot grow
+	 */
+	public void appendStroke(StrokeLog log, int stroke) throws IOException {
+		codec.reset();
+		codec.writeStroke(log, stroke);
+
+		ensureCapacity(1 + codec.size());
+		buffer.position(length);
+		buffer.put(OP_STROKE);
+		buffer.put(codec.array(), 0, codec.size());
+		commit(buffer.position());
+	}
+
+	/**
+	 * journal an undo or redo
+	 *
+	 * @param head number of applied strokes
+	 * @throws IOException if the journal cannot grow
+	 */
+	public void setHead(int head) throws IOException {
+		writeIntRecord(OP_HEAD, head);
+	}
+
+	/**
+	 * journal a stroke removed with the stroke eraser
+	 *
+	 * @throws IOException if the journal cannot grow
+	 */
+	public void setDeleted(int stroke) throws IOException {
+		writeIntRecord(OP_DELETE, stroke);
+	}
+
+	/**
+	 * replace the journal with the strokes of every layer, e.g. to compact it after a replay
+	 *
+	 * @param logs one log per layer, bottom first
+	 * @throws IOException if the journal cannot grow
+	 */
+	public void rewrite(StrokeLog[] logs) throws IOException {
+		clear();
+		for (int i = 0; i < logs.length; i++) {
+			setLayer(i);
+			for (int stroke = 0; stroke < logs[i].size(); stroke++) {
+				appendStroke(logs[i], stroke);
+			}
+		}
+	}
+
+	/**
+	 * drop every record
+	 */
+	public void clear() {
+		buffer.position(0);
+		buffer.put(MAGIC);
+		buffer.put((byte) VERSION);
+		commit(HEADER_SIZE);
+		layer = 0;
+	}
+
+	/**
+	 * bytes used by committed records and the header
+	 */
+	public int size() {
+		return length;
+	}
+
+	/**
+	 * flush the mapped pages to storage, only needed to survive a power loss
+	 */
+	public void force() {
+		buffer.force();
+	}
+
+	public void close() {
+		try {
+			channel.close();
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private boolean hasHeader() {
+		if (buffer.capacity() < HEADER_SIZE) {
+			return false;
+		}
+
+		int committed = buffer.getInt(COMMITTED_OFFSET);
+		if (committed < HEADER_SIZE || committed > buffer.capacity()) {
+			return false;
+		}
+
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (buffer.get(i) != MAGIC[i]) {
+				return false;
+			}
+		}
+
+		return buffer.get(MAGIC.length) == VERSION;
+	}
+
+	private void writeIntRecord(byte op, int value) throws IOException {
+		ensureCapacity(5);
+		buffer.position(length);
+		buffer.put(op);
+		buffer.putInt(value);
+		commit(buffer.position());
+	}
+
+	/**
+	 * publish everything written up to end, a single int store
+	 */
+	private void commit(int end) {
+		buffer.putInt(COMMITTED_OFFSET, end);
+		length = end;
+	}
+
+	private void ensureCapacity(int extra) throws IOException {
+		if (length + extra <= buffer.capacity()) {
+			return;
+		}
+
+		long size = buffer.capacity();
+		while (size < length + extra) {
+			size *= 2;
+		}
+
+		// mapping past the end grows the file, the old mapping is released by the GC
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	private static int readInt(byte[] data, int position) throws IOException {
+		if (position + 4 > data.length) {
+			throw new IOException("Truncated journal record");
+		}
+
+		return ((data[position] & 0xff) << 24) | ((data[position + 1] & 0xff) << 16)
+			| ((data[position + 2] & 0xff) << 8) | (data[position + 3] & 0xff);
+	}
+}
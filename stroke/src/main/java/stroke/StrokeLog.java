@@ -0,0 +1,355 @@
+package stroke;
+
+/**
+ * Append-only record of every stroke in a drawing.
+ *
+ * All points of all strokes live in one growable float array of x,y pairs,
+ * with a parallel array of per-point widths for variable-width strokes.
+ * Each stroke is a fixed-size record in a growable int array holding its first
+ * point, its point count, its color, a packed attribute word (width in fixed
+ * point plus flags) and when it was drawn. There are no per-point or per-stroke objects, so the
+ * log can be replayed, exported or serialized without boxing or allocations.
+ */
+public class StrokeLog {
+
+	/// ints per stroke record
+	private static final int STROKE_STRIDE = 7;
+	private static final int OFFSET = 0;
+	private static final int COUNT = 1;
+	private static final int COLOR = 2;
+	private static final int ATTRIBUTES = 3;
+	/// the 64-bit start time as two ints
+	private static final int START_TIME_LOW = 4;
+	private static final int START_TIME_HIGH = 5;
+	private static final int DURATION = 6;
+
+	/// widths are stored in 1/16 pixel units in the low 16 bits of the attribute word
+	private static final float WIDTH_SCALE = 16f;
+	private static final int WIDTH_MASK = 0xffff;
+
+	/// stroke clears pixels instead of painting them
+	public static final int FLAG_ERASE = 1 << 16;
+
+	/// stroke was removed with the stroke eraser and is not drawn
+	public static final int FLAG_DELETED = 1 << 17;
+
+	/// bucket fill from the stroke's single point, see appendFill; it has no width, the
+	/// width field holds its color tolerance instead
+	public static final int FLAG_FILL = 1 << 18;
+
+	/// brush the stroke was drawn with, one of BRUSH_*, in two bits of the flags
+	private static final int BRUSH_SHIFT = 19;
+	private static final int BRUSH_MASK = 3 << BRUSH_SHIFT;
+
+	/// every point has its own width, the stroke's width is the largest of them
+	public static final int FLAG_VARIABLE_WIDTH = 1 << 21;
+
+	/// stroke has a start time and a duration, see setTime
+	public static final int FLAG_TIMED = 1 << 22;
+
+	/// plain round stroke
+	public static final int BRUSH_ROUND = 0;
+	/// soft sprayed dabs
+	public static final int BRUSH_AIRBRUSH = 1;
+	/// small grainy dabs
+	public static final int BRUSH_PENCIL = 2;
+	/// translucent dabs, strokes build up where they cross
+	public static final int BRUSH_MARKER = 3;
+
+	/// x,y pairs of all strokes
+	private float[] points = new float[1024];
+	private int pointCount = 0;
+
+	/// width per point, null until the first variable-width stroke, only valid for those strokes
+	private float[] pointWidths;
+
+	/// stroke records
+	private int[] strokes = new int[64 * STROKE_STRIDE];
+	private int strokeCount = 0;
+
+	/// seed point of the fill being appended
+	private final float[] fillSeed = new float[2];
+
+	/**
+	 * append a complete stroke
+	 *
+	 * @param color  ARGB color
+	 * @param width  stroke width in pixels
+	 * @param flags  FLAG_* bits
+	 * @param xy     x,y pairs
+	 * @param offset first point in xy
+	 * @param count  number of points
+	 * @return index of the new stroke
+	 */
+	public int append(int color, float width, int flags, float[] xy, int offset, int count) {
+		return append(color, width, flags, xy, null, offset, count);
+	}
+
+	/**
+	 * append a complete stroke
+	 *
+	 * @param widths width per point, only used with FLAG_VARIABLE_WIDTH
+	 * @return index of the new stroke
+	 */
+	public int append(int color, float width, int flags, float[] xy, float[] widths, int offset, int count) {
+		ensurePointCapacity(pointCount + count);
+		System.arraycopy(xy, offset * 2, points, pointCount * 2, count * 2);
+		if ((flags & FLAG_VARIABLE_WIDTH) != 0) {
+			if (pointWidths == null) {
+				pointWidths = new float[points.length / 2];
+			}
+
+			System.arraycopy(widths, offset, pointWidths, pointCount, count);
+		}
+
+		if ((strokeCount + 1) * STROKE_STRIDE > strokes.length) {
+			int[] grown = new int[strokes.length * 2];
+			System.arraycopy(strokes, 0, grown, 0, strokes.length);
+			strokes = grown;
+		}
+
+		int s = strokeCount * STROKE_STRIDE;
+		strokes[s + OFFSET] = pointCount;
+		strokes[s + COUNT] = count;
+		strokes[s + COLOR] = color;
+		strokes[s + ATTRIBUTES] = packAttributes(width, flags);
+		strokes[s + START_TIME_LOW] = 0;
+		strokes[s + START_TIME_HIGH] = 0;
+		strokes[s + DURATION] = 0;
+
+		pointCount += count;
+		return strokeCount++;
+	}
+
+	/**
+	 * append a complete stroke
+	 *
+	 * @return index of the new stroke
+	 */
+	public int append(int color, float width, int flags, PointBuffer buffer) {
+		return append(color, width, flags, buffer.array(), buffer.widthArray(), 0, buffer.size());
+	}
+
+	/**
+	 * append a bucket fill
+	 *
+	 * @param color     ARGB color poured
+	 * @param tolerance how far a pixel's channels may differ from the seed's to be filled, 0..255
+	 * @param x         seed point
+	 * @param y         seed point
+	 * @return index of the new stroke
+	 */
+	public int appendFill(int color, int tolerance, float x, float y) {
+		fillSeed[0] = x;
+		fillSeed[1] = y;
+		return append(color, tolerance, FLAG_FILL, fillSeed, 0, 1);
+	}
+
+	/**
+	 * append a copy of another log's stroke, including its time
+	 *
+	 * @return index of the new stroke
+	 */
+	public int append(StrokeLog source, int stroke) {
+		int appended = append(source.getColor(stroke), source.getStoredWidth(stroke), source.getFlags(stroke),
+			source.points, source.pointWidths, source.getPointOffset(stroke), source.getPointCount(stroke));
+		long startTime = source.getStartTime(stroke);
+		int s = appended * STROKE_STRIDE;
+		strokes[s + START_TIME_LOW] = (int) startTime;
+		strokes[s + START_TIME_HIGH] = (int) (startTime >>> 32);
+		strokes[s + DURATION] = source.getDuration(stroke);
+		return appended;
+	}
+
+	/**
+	 * number of strokes
+	 */
+	public int size() {
+		return strokeCount;
+	}
+
+	/**
+	 * number of points in all strokes
+	 */
+	public int getTotalPointCount() {
+		return pointCount;
+	}
+
+	/**
+	 * index of the stroke's first point, for use with getX/getY
+	 */
+	public int getPointOffset(int stroke) {
+		return strokes[stroke * STROKE_STRIDE + OFFSET];
+	}
+
+	public int getPointCount(int stroke) {
+		return strokes[stroke * STROKE_STRIDE + COUNT];
+	}
+
+	public int getColor(int stroke) {
+		return strokes[stroke * STROKE_STRIDE + COLOR];
+	}
+
+	/**
+	 * stroke width in pixels, 0 for a fill, which draws no outline
+	 */
+	public float getWidth(int stroke) {
+		return isFill(stroke) ? 0 : getStoredWidth(stroke);
+	}
+
+	/**
+	 * color tolerance of a fill, see appendFill, 0 for other strokes
+	 */
+	public int getFillTolerance(int stroke) {
+		return isFill(stroke) ? Math.round(getStoredWidth(stroke)) : 0;
+	}
+
+	/**
+	 * the width field as stored, a fill's tolerance or any other stroke's width, e.g. for copying a stroke
+	 */
+	public float getStoredWidth(int stroke) {
+		return (strokes[stroke * STROKE_STRIDE + ATTRIBUTES] & WIDTH_MASK) / WIDTH_SCALE;
+	}
+
+	public int getFlags(int stroke) {
+		return strokes[stroke * STROKE_STRIDE + ATTRIBUTES] & ~WIDTH_MASK;
+	}
+
+	public boolean isErase(int stroke) {
+		return (getFlags(stroke) & FLAG_ERASE) != 0;
+	}
+
+	/**
+	 * @return one of BRUSH_*
+	 */
+	public int getBrush(int stroke) {
+		return (getFlags(stroke) & BRUSH_MASK) >>> BRUSH_SHIFT;
+	}
+
+	/**
+	 * flags recording a brush, to be or'ed into the flags passed to append
+	 *
+	 * @param brush one of BRUSH_*
+	 */
+	public static int brushFlags(int brush) {
+		return (brush << BRUSH_SHIFT) & BRUSH_MASK;
+	}
+
+	public boolean isVariableWidth(int stroke) {
+		return (getFlags(stroke) & FLAG_VARIABLE_WIDTH) != 0;
+	}
+
+	public boolean isFill(int stroke) {
+		return (getFlags(stroke) & FLAG_FILL) != 0;
+	}
+
+	public boolean isDeleted(int stroke) {
+		return (getFlags(stroke) & FLAG_DELETED) != 0;
+	}
+
+	/**
+	 * mark a stroke as removed, its points stay in the log
+	 */
+	public void setDeleted(int stroke, boolean deleted) {
+		if (deleted) {
+			strokes[stroke * STROKE_STRIDE + ATTRIBUTES] |= FLAG_DELETED;
+		} else {
+			strokes[stroke * STROKE_STRIDE + ATTRIBUTES] &= ~FLAG_DELETED;
+		}
+	}
+
+	/**
+	 * record when a stroke was drawn and set FLAG_TIMED
+	 *
+	 * @param startTime wall-clock time in milliseconds
+	 * @param duration  milliseconds from touch down to touch up
+	 */
+	public void setTime(int stroke, long startTime, int duration) {
+		int s = stroke * STROKE_STRIDE;
+		strokes[s + START_TIME_LOW] = (int) startTime;
+		strokes[s + START_TIME_HIGH] = (int) (startTime >>> 32);
+		strokes[s + DURATION] = Math.max(0, duration);
+		strokes[s + ATTRIBUTES] |= FLAG_TIMED;
+	}
+
+	public boolean isTimed(int stroke) {
+		return (getFlags(stroke) & FLAG_TIMED) != 0;
+	}
+
+	/**
+	 * wall-clock start time in milliseconds, only valid if isTimed
+	 */
+	public long getStartTime(int stroke) {
+		int s = stroke * STROKE_STRIDE;
+		return ((long) strokes[s + START_TIME_HIGH] << 32) | (strokes[s + START_TIME_LOW] & 0xffffffffL);
+	}
+
+	/**
+	 * milliseconds from touch down to touch up, only valid if isTimed
+	 */
+	public int getDuration(int stroke) {
+		return strokes[stroke * STROKE_STRIDE + DURATION];
+	}
+
+	public float getX(int point) {
+		return points[point * 2];
+	}
+
+	public float getY(int point) {
+		return points[point * 2 + 1];
+	}
+
+	/**
+	 * width at a point of a variable-width stroke
+	 */
+	public float getPointWidth(int point) {
+		return pointWidths[point];
+	}
+
+	/**
+	 * raw x,y pairs of all strokes, only the first getTotalPointCount() points are valid
+	 */
+	public float[] getPoints() {
+		return points;
+	}
+
+	/**
+	 * raw per-point widths, null if there never was a variable-width stroke
+	 */
+	public float[] getPointWidths() {
+		return pointWidths;
+	}
+
+	/**
+	 * drop every stroke from the given index on
+	 */
+	public void truncate(int size) {
+		if (size < strokeCount) {
+			strokeCount = size;
+			pointCount = size == 0 ? 0 : getPointOffset(size - 1) + getPointCount(size - 1);
+		}
+	}
+
+	public void clear() {
+		truncate(0);
+	}
+
+	private static int packAttributes(float width, int flags) {
+		int fixedWidth = Math.min(WIDTH_MASK, Math.max(0, Math.round(width * WIDTH_SCALE)));
+		return (flags & ~WIDTH_MASK) | fixedWidth;
+	}
+
+	private void ensurePointCapacity(int count) {
+		if (count * 2 > points.length) {
+			float[] grown = new float[Math.max(points.length * 2, count * 2)];
+			System.arraycopy(points, 0, grown, 0, pointCount * 2);
+			points = grown;
+
+			if (pointWidths != null) {
+				float[] grownWidths = new float[points.length / 2];
+				System.arraycopy(pointWidths, 0, grownWidths, 0, pointCount);
+				pointWidths = grownWidths;
+			}
+		}
+	}
+}
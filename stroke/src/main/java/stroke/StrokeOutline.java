@@ -0,0 +1,136 @@
+package stroke;
+
+/**
+ * Incremental tessellation of a variable-width stroke into filled pieces.
+ *
+ * Every point is a disc of its own width. Each new point adds exactly one
+ * piece: the disc around it and the quad spanning the two outer tangents
+ * between the previous disc and this one. The union of the pieces is the
+ * stroke's outline with round joins and caps. Pieces never change once added,
+ * so the outline built so far is kept as is and a new sample only extends
+ * the tail, instead of re-tessellating the whole stroke.
+ *
+ * Every quad winds clockwise on screen (positive area in y-down coordinates).
+ * With the discs drawn clockwise too, all pieces can be filled together as
+ * one path with the non-zero rule without overlaps cancelling out.
+ */
+public class StrokeOutline {
+
+	/// floats per piece: 4 quad corners as x,y pairs, then the disc's center x,y and radius
+	public static final int PIECE_STRIDE = 11;
+	public static final int QUAD = 0;
+	public static final int DISC_X = 8;
+	public static final int DISC_Y = 9;
+	public static final int DISC_RADIUS = 10;
+
+	private float[] pieces = new float[64 * PIECE_STRIDE];
+	private int pieceCount = 0;
+
+	/// previous point
+	private float lastX, lastY, lastRadius;
+
+	/**
+	 * start a new outline
+	 *
+	 * @param width stroke width at the point
+	 */
+	public void begin(float x, float y, float width) {
+		pieceCount = 0;
+		lastX = x;
+		lastY = y;
+		lastRadius = width / 2;
+		addPiece(x, y, lastRadius, false, 0, 0, 0);
+	}
+
+	/**
+	 * extend the outline to a point
+	 *
+	 * @param width stroke width at the point
+	 */
+	public void add(float x, float y, float width) {
+		float radius = width / 2;
+		float dx = x - lastX;
+		float dy = y - lastY;
+		float distance = (float) Math.sqrt(dx * dx + dy * dy);
+
+		// a disc inside the other one has no tangents, the discs alone cover the segment
+		if (distance > Math.abs(radius - lastRadius)) {
+			addPiece(x, y, radius, true, dx / distance, dy / distance, (lastRadius - radius) / distance);
+		} else {
+			addPiece(x, y, radius, false, 0, 0, 0);
+		}
+
+		lastX = x;
+		lastY = y;
+		lastRadius = radius;
+	}
+
+	/**
+	 * number of pieces, one per point
+	 */
+	public int size() {
+		return pieceCount;
+	}
+
+	/**
+	 * raw pieces, PIECE_STRIDE floats each, only the first size() are valid
+	 */
+	public float[] array() {
+		return pieces;
+	}
+
+	/**
+	 * does a piece have a quad, or only its disc?
+	 */
+	public boolean hasQuad(int piece) {
+		int i = piece * PIECE_STRIDE;
+		return pieces[i] != pieces[i + 4] || pieces[i + 1] != pieces[i + 5];
+	}
+
+	public void clear() {
+		pieceCount = 0;
+	}
+
+	/**
+	 * @param ux  unit direction from the previous point, if hasQuad
+	 * @param uy  unit direction from the previous point, if hasQuad
+	 * @param sin sine of the tangents' angle to the segment, (r0 - r1) / distance
+	 */
+	private void addPiece(float x, float y, float radius, boolean hasQuad, float ux, float uy, float sin) {
+		if ((pieceCount + 1) * PIECE_STRIDE > pieces.length) {
+			float[] grown = new float[pieces.length * 2];
+			System.arraycopy(pieces, 0, grown, 0, pieceCount * PIECE_STRIDE);
+			pieces = grown;
+		}
+
+		int i = pieceCount * PIECE_STRIDE;
+		if (hasQuad) {
+			// outer tangent points sit at this angle from the segment's normal on both discs
+			float cos = (float) Math.sqrt(Math.max(0, 1 - sin * sin));
+			float nx = -uy;
+			float ny = ux;
+			float leftX = nx * cos + ux * sin, leftY = ny * cos + uy * sin;
+			float rightX = -nx * cos + ux * sin, rightY = -ny * cos + uy * sin;
+
+			// previous left, previous right, current right, current left: positive area in y-down coordinates
+			pieces[i] = lastX + leftX * lastRadius;
+			pieces[i + 1] = lastY + leftY * lastRadius;
+			pieces[i + 2] = lastX + rightX * lastRadius;
+			pieces[i + 3] = lastY + rightY * lastRadius;
+			pieces[i + 4] = x + rightX * radius;
+			pieces[i + 5] = y + rightY * radius;
+			pieces[i + 6] = x + leftX * radius;
+			pieces[i + 7] = y + leftY * radius;
+		} else {
+			for (int corner = 0; corner < 4; corner++) {
+				pieces[i + corner * 2] = x;
+				pieces[i + corner * 2 + 1] = y;
+			}
+		}
+
+		pieces[i + DISC_X] = x;
+		pieces[i + DISC_Y] = y;
+		pieces[i + DISC_RADIUS] = radius;
+		pieceCount++;
+	}
+}
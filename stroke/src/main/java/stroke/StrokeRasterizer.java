@@ -0,0 +1,326 @@
+package stroke;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders a StrokeLog into a flat array of ARGB pixels without Android, e.g.
+ * for thumbnails or golden images on a build host.
+ *
+ * Strokes look like DrawingPanel's drawPaint draws them: anti-aliased, with
+ * round caps and joins, composited source-over, and erasers clearing what is
+ * under them. A stroke is the union of capsules, one per segment; the coverage
+ * of a pixel is how far its center lies inside the nearest capsule, clamped
+ * to one pixel of soft edge. Coverage is gathered per stroke before it is
+ * composited, so segments overlapping at joins do not darken each other.
+ * Variable-width strokes interpolate the radius along every segment. Textured
+ * brushes have no stamps here and come out as plain round strokes.
+ *
+ * Strokes are rendered in bands of rows across a ForkJoinPool, each band
+ * walking only the segments that reach into it. A fill needs every pixel
+ * drawn before it, so the strokes between two fills are rendered in parallel
+ * and the fill itself runs on the whole image in between.
+ */
+public class StrokeRasterizer {
+
+	/// images with fewer pixels are rendered on the calling thread
+	public static final int PARALLEL_THRESHOLD = 256 * 1024;
+
+	/// a band is not split further below this many rows
+	private static final int MIN_BAND_ROWS = 32;
+
+	/// narrowest radius drawn, a hairline
+	private static final float MIN_RADIUS = 0.5f;
+
+	/// renders on the calling thread if null
+	private final ForkJoinPool pool;
+
+	private final ScanlineFill fill;
+
+	/// x0,y0,x1,y1 bounds per stroke of the run being rendered, shared by all bands
+	private float[] strokeBounds = new float[64 * 4];
+
+	/**
+	 * render on the calling thread
+	 */
+	public StrokeRasterizer() {
+		this(null);
+	}
+
+	/**
+	 * @param pool renders large images in bands, null to render on the calling thread
+	 */
+	public StrokeRasterizer(ForkJoinPool pool) {
+		this.pool = pool;
+		fill = pool != null ? new ParallelScanlineFill(pool) : new ScanlineFill();
+	}
+
+	/**
+	 * draw strokes [from, to) of a log over the pixels
+	 *
+	 * @param pixels ARGB pixels, not premultiplied, row-major, changed in place
+	 * @param width  pixels per row
+	 * @param height rows
+	 * @param scale  canvas pixels per log pixel, 1 for full size, less for a thumbnail
+	 */
+	public void render(StrokeLog log, int from, int to, int[] pixels, int width, int height, float scale) {
+		int stroke = from;
+		while (stroke < to) {
+			if (log.isFill(stroke)) {
+				if (!log.isDeleted(stroke)) {
+					int seed = log.getPointOffset(stroke);
+					fill.fill(pixels, width, height, (int) (log.getX(seed) * scale), (int) (log.getY(seed) * scale),
+						log.getColor(stroke), log.getFillTolerance(stroke));
+				}
+
+				stroke++;
+				continue;
+			}
+
+			int end = stroke + 1;
+			while (end < to && !log.isFill(end)) {
+				end++;
+			}
+
+			renderRun(log, stroke, end, pixels, width, height, scale);
+			stroke = end;
+		}
+	}
+
+	/**
+	 * draw a run of strokes without fills
+	 */
+	private void renderRun(StrokeLog log, int from, int to, int[] pixels, int width, int height, float scale) {
+		if (strokeBounds.length < (to - from) * 4) {
+			strokeBounds = new float[(to - from) * 4];
+		}
+
+		for (int stroke = from; stroke < to; stroke++) {
+			measure(log, stroke, scale, strokeBounds, (stroke - from) * 4);
+		}
+
+		Band band = new Band(log, from, to, strokeBounds, pixels, width, 0, height, scale);
+		if (pool == null || width * height < PARALLEL_THRESHOLD) {
+			band.render();
+		} else {
+			pool.invoke(band);
+		}
+	}
+
+	/**
+	 * bounds of a stroke in canvas pixels, including its width, empty if it draws nothing
+	 */
+	private static void measure(StrokeLog log, int stroke, float scale, float[] bounds, int at) {
+		int offset = log.getPointOffset(stroke);
+		int count = log.getPointCount(stroke);
+		if (count == 0 || log.isDeleted(stroke)) {
+			bounds[at] = bounds[at + 1] = 0;
+			bounds[at + 2] = bounds[at + 3] = -1;
+			return;
+		}
+
+		float minX = log.getX(offset), maxX = minX;
+		float minY = log.getY(offset), maxY = minY;
+		for (int i = offset + 1; i < offset + count; i++) {
+			minX = Math.min(minX, log.getX(i));
+			maxX = Math.max(maxX, log.getX(i));
+			minY = Math.min(minY, log.getY(i));
+			maxY = Math.max(maxY, log.getY(i));
+		}
+
+		// the stroke's width bounds every point's width, plus a pixel of soft edge
+		float pad = Math.max(MIN_RADIUS, log.getWidth(stroke) * scale / 2) + 1;
+		bounds[at] = minX * scale - pad;
+		bounds[at + 1] = minY * scale - pad;
+		bounds[at + 2] = maxX * scale + pad;
+		bounds[at + 3] = maxY * scale + pad;
+	}
+
+	/**
+	 * rows [fromRow, toRow) of the image, split further while large enough
+	 */
+	private static class Band extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final StrokeLog log;
+		private final int fromStroke, toStroke;
+		private final float[] strokeBounds;
+		private final int[] pixels;
+		private final int width;
+		private final int fromRow, toRow;
+		private final float scale;
+
+		/// coverage of the current stroke, 0..1 per pixel of its bounds within the band, grown as needed
+		private float[] coverage = new float[0];
+
+		/// bounds of the current stroke within the band, coverage is indexed relative to them
+		private int boxLeft, boxTop, boxRight, boxBottom;
+
+		Band(StrokeLog log, int fromStroke, int toStroke, float[] strokeBounds,
+		     int[] pixels, int width, int fromRow, int toRow, float scale) {
+			this.log = log;
+			this.fromStroke = fromStroke;
+			this.toStroke = toStroke;
+			this.strokeBounds = strokeBounds;
+			this.pixels = pixels;
+			this.width = width;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.scale = scale;
+		}
+
+		@Override
+		protected void compute() {
+			int rows = toRow - fromRow;
+			if (rows >= MIN_BAND_ROWS * 2 && rows * width > PARALLEL_THRESHOLD / 8) {
+				int middle = fromRow + rows / 2;
+				invokeAll(new Band(log, fromStroke, toStroke, strokeBounds, pixels, width, fromRow, middle, scale),
+					new Band(log, fromStroke, toStroke, strokeBounds, pixels, width, middle, toRow, scale));
+				return;
+			}
+
+			render();
+		}
+
+		void render() {
+			for (int stroke = fromStroke; stroke < toStroke; stroke++) {
+				int b = (stroke - fromStroke) * 4;
+				boxLeft = Math.max(0, (int) Math.floor(strokeBounds[b]));
+				boxTop = Math.max(fromRow, (int) Math.floor(strokeBounds[b + 1]));
+				boxRight = Math.min(width, (int) Math.ceil(strokeBounds[b + 2]) + 1);
+				boxBottom = Math.min(toRow, (int) Math.ceil(strokeBounds[b + 3]) + 1);
+				if (boxLeft >= boxRight || boxTop >= boxBottom) {
+					continue;
+				}
+
+				// composite leaves the buffer cleared, so it only ever grows
+				int size = (boxRight - boxLeft) * (boxBottom - boxTop);
+				if (coverage.length < size) {
+					coverage = new float[Math.max(size, coverage.length * 2)];
+				}
+
+				cover(stroke);
+				composite(stroke);
+			}
+		}
+
+		/**
+		 * gather the coverage of every segment of a stroke that reaches into the band
+		 */
+		private void cover(int stroke) {
+			int offset = log.getPointOffset(stroke);
+			int count = log.getPointCount(stroke);
+			boolean variableWidth = log.isVariableWidth(stroke);
+			float radius = Math.max(MIN_RADIUS, log.getWidth(stroke) * scale / 2);
+
+			float x0 = log.getX(offset) * scale;
+			float y0 = log.getY(offset) * scale;
+			float r0 = variableWidth ? Math.max(MIN_RADIUS, log.getPointWidth(offset) * scale / 2) : radius;
+
+			// a single point is a dot, a capsule of length 0
+			if (count == 1) {
+				coverSegment(x0, y0, r0, x0, y0, r0);
+			}
+
+			for (int i = offset + 1; i < offset + count; i++) {
+				float x1 = log.getX(i) * scale;
+				float y1 = log.getY(i) * scale;
+				float r1 = variableWidth ? Math.max(MIN_RADIUS, log.getPointWidth(i) * scale / 2) : radius;
+				coverSegment(x0, y0, r0, x1, y1, r1);
+				x0 = x1;
+				y0 = y1;
+				r0 = r1;
+			}
+		}
+
+		/**
+		 * raise the coverage of the pixels under a capsule, the radius going from r0 to r1
+		 */
+		private void coverSegment(float x0, float y0, float r0, float x1, float y1, float r1) {
+			float reach = Math.max(r0, r1) + 1;
+			int top = Math.max(boxTop, (int) Math.floor(Math.min(y0, y1) - reach));
+			int bottom = Math.min(boxBottom, (int) Math.ceil(Math.max(y0, y1) + reach));
+			int left = Math.max(boxLeft, (int) Math.floor(Math.min(x0, x1) - reach));
+			int right = Math.min(boxRight, (int) Math.ceil(Math.max(x0, x1) + reach));
+			if (top >= bottom || left >= right) {
+				return;
+			}
+
+			int boxWidth = boxRight - boxLeft;
+
+			float dx = x1 - x0;
+			float dy = y1 - y0;
+			float lengthSquared = dx * dx + dy * dy;
+			for (int y = top; y < bottom; y++) {
+				float py = y + 0.5f - y0;
+				int row = (y - boxTop) * boxWidth - boxLeft;
+				for (int x = left; x < right; x++) {
+					float px = x + 0.5f - x0;
+
+					// nearest point of the segment to the pixel center
+					float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+					float ex = px - t * dx;
+					float ey = py - t * dy;
+					float distance = (float) Math.sqrt(ex * ex + ey * ey);
+
+					float value = r0 + t * (r1 - r0) + 0.5f - distance;
+					if (value > coverage[row + x]) {
+						coverage[row + x] = Math.min(1, value);
+					}
+				}
+			}
+		}
+
+		/**
+		 * blend the gathered coverage of a stroke into the pixels and reset it
+		 */
+		private void composite(int stroke) {
+			int color = log.getColor(stroke);
+			boolean erase = log.isErase(stroke);
+			int boxWidth = boxRight - boxLeft;
+			for (int y = boxTop; y < boxBottom; y++) {
+				int row = (y - boxTop) * boxWidth - boxLeft;
+				for (int x = boxLeft; x < boxRight; x++) {
+					float value = coverage[row + x];
+					if (value <= 0) {
+						continue;
+					}
+
+					coverage[row + x] = 0;
+					int i = y * width + x;
+					pixels[i] = erase ? clear(pixels[i], value) : blend(pixels[i], color, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * source-over of a color with partial coverage, not premultiplied
+	 */
+	static int blend(int destination, int color, float coverage) {
+		float sourceAlpha = (color >>> 24) / 255f * coverage;
+		float destinationAlpha = (destination >>> 24) / 255f * (1 - sourceAlpha);
+		float alpha = sourceAlpha + destinationAlpha;
+		if (alpha <= 0) {
+			return 0;
+		}
+
+		int r = mix((color >> 16) & 0xff, (destination >> 16) & 0xff, sourceAlpha, destinationAlpha, alpha);
+		int g = mix((color >> 8) & 0xff, (destination >> 8) & 0xff, sourceAlpha, destinationAlpha, alpha);
+		int b = mix(color & 0xff, destination & 0xff, sourceAlpha, destinationAlpha, alpha);
+		return (Math.round(alpha * 255) << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * erase with partial coverage, like PorterDuff CLEAR on an anti-aliased edge
+	 */
+	static int clear(int destination, float coverage) {
+		int alpha = Math.round((destination >>> 24) * (1 - coverage));
+		return alpha == 0 ? 0 : (alpha << 24) | (destination & 0xffffff);
+	}
+
+	private static int mix(int source, int destination, float sourceAlpha, float destinationAlpha, float alpha) {
+		return Math.min(255, Math.round((source * sourceAlpha + destination * destinationAlpha) / alpha));
+	}
+}
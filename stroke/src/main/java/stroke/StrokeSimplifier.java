@@ -0,0 +1,337 @@
+package stroke;
+
+/**
+ * Streaming simplification of touch samples into the points a stroke is
+ * stored with.
+ *
+ * Samples are decimated as they arrive with an incremental form of
+ * Ramer-Douglas-Peucker: the samples since the last kept point are held in a
+ * window, and a sample is only kept once the chord from the last kept point
+ * to the newest sample would pass farther than the tolerance from one of the
+ * samples in between. The window is bounded, so every sample costs at most
+ * MAX_WINDOW distance tests and nothing is ever revisited.
+ *
+ * The kept points are then joined with a uniform Catmull-Rom spline. A chord
+ * is subdivided only where the spline bows away from it by more than the
+ * tolerance, so straight runs stay two points while curves keep their shape
+ * instead of becoming polygon corners. The spline and the samples the chord
+ * replaced must stay within the tolerance of each other, otherwise the chord
+ * is kept: the output never strays from what was drawn live by more than the
+ * tolerance, and a chord between two samples that were both kept, e.g. of a
+ * fast flick, is never bent. The spline needs the next kept point, so output
+ * lags one kept point behind the input until end(); a live stroke drawn from
+ * the output is drawn from exactly the points that are stored.
+ *
+ * Widths of variable-width strokes are decimated and interpolated along with
+ * the positions. Counters of samples in and points out are kept across
+ * strokes for reporting the reduction.
+ */
+public class StrokeSimplifier {
+
+	/// most samples held between two kept points, more keep the newest one regardless;
+	/// output lags up to two windows behind the input, so this bounds how far a
+	/// stroke drawn from the output trails the finger
+	public static final int MAX_WINDOW = 16;
+
+	/// most points inserted into one chord by the spline
+	private static final int MAX_SUBDIVISIONS = 8;
+
+	private final float tolerance;
+
+	private PointBuffer out;
+	private boolean hasWidth;
+
+	/// samples since the last kept point, which is the first one, as x,y,width triples
+	private final float[] window = new float[MAX_WINDOW * 3];
+	private int windowSize = 0;
+
+	/// last four kept points as x,y,width triples, the spline runs between the middle two
+	private final float[] keys = new float[4 * 3];
+	private int keyCount = 0;
+
+	/// x,y of the subdivided spline of one chord
+	private final float[] curve = new float[(MAX_SUBDIVISIONS + 1) * 2];
+
+	/// per kept point, the samples of the chord ending at it, as in window
+	private final float[][] keyWindows = new float[4][MAX_WINDOW * 3];
+	private final int[] keyWindowSizes = new int[4];
+
+	/// totals across every stroke
+	private long inputCount = 0;
+	private long outputCount = 0;
+
+	/**
+	 * @param tolerance largest distance of the output from the samples, in pixels, greater than 0
+	 */
+	public StrokeSimplifier(float tolerance) {
+		if (!(tolerance > 0) || Float.isInfinite(tolerance)) {
+			throw new IllegalArgumentException("Tolerance must be a positive number of pixels, got " + tolerance);
+		}
+
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * start a stroke, the first point is written right away
+	 *
+	 * @param out   cleared, then receives the simplified points
+	 * @param width width at the point, 0 for a stroke without per-point widths
+	 */
+	public void begin(PointBuffer out, float x, float y, float width) {
+		this.out = out;
+		hasWidth = width > 0;
+		out.clear();
+		windowSize = 0;
+		keyCount = 0;
+		inputCount++;
+
+		addToWindow(x, y, width);
+		addKey(x, y, width, 0);
+	}
+
+	/**
+	 * add the next touch sample
+	 *
+	 * @param width width at the point, ignored for a stroke begun without one
+	 */
+	public void add(float x, float y, float width) {
+		inputCount++;
+		if (windowSize == MAX_WINDOW || !coversWindow(x, y, width)) {
+			// the previous sample is the farthest the chord can reach, keep it
+			int last = (windowSize - 1) * 3;
+			float keptX = window[last], keptY = window[last + 1], keptWidth = window[last + 2];
+			addKey(keptX, keptY, keptWidth, windowSize);
+			windowSize = 0;
+			addToWindow(keptX, keptY, keptWidth);
+		}
+
+		addToWindow(x, y, width);
+	}
+
+	/**
+	 * finish the stroke, writing the last sample and the rest of the spline
+	 */
+	public void end() {
+		if (windowSize > 1) {
+			int last = (windowSize - 1) * 3;
+			addKey(window[last], window[last + 1], window[last + 2], windowSize);
+		}
+
+		// repeat the last point, so the spline reaches it
+		if (keyCount >= 3) {
+			int last = (keyCount - 1) * 3;
+			addKey(keys[last], keys[last + 1], keys[last + 2], 0);
+		}
+
+		windowSize = 0;
+		keyCount = 0;
+	}
+
+	/**
+	 * samples passed to begin and add, over every stroke
+	 */
+	public long getInputCount() {
+		return inputCount;
+	}
+
+	/**
+	 * points written, over every stroke
+	 */
+	public long getOutputCount() {
+		return outputCount;
+	}
+
+	/**
+	 * samples per written point, over every stroke, 1 if nothing was simplified yet
+	 */
+	public float getReductionRatio() {
+		return outputCount == 0 ? 1 : inputCount / (float) outputCount;
+	}
+
+	/**
+	 * is every sample in the window within tolerance of the chord from its first sample to this one?
+	 */
+	private boolean coversWindow(float x, float y, float width) {
+		float anchorX = window[0], anchorY = window[1], anchorWidth = window[2];
+		float dx = x - anchorX;
+		float dy = y - anchorY;
+		float lengthSquared = dx * dx + dy * dy;
+		float toleranceSquared = tolerance * tolerance;
+
+		for (int i = 1; i < windowSize; i++) {
+			float px = window[i * 3];
+			float py = window[i * 3 + 1];
+			if (distanceSquared(px, py, anchorX, anchorY, x, y) > toleranceSquared) {
+				return false;
+			}
+
+			// the edge moves by half the width difference
+			if (hasWidth) {
+				float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - anchorX) * dx + (py - anchorY) * dy) / lengthSquared));
+				if (Math.abs(window[i * 3 + 2] - (anchorWidth + t * (width - anchorWidth))) > tolerance * 2) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	private void addToWindow(float x, float y, float width) {
+		int i = windowSize * 3;
+		window[i] = x;
+		window[i + 1] = y;
+		window[i + 2] = width;
+		windowSize++;
+	}
+
+	/**
+	 * add a kept point and write the spline up to the previous one
+	 *
+	 * @param samples number of samples in window that the chord to this point replaces, ends included
+	 */
+	private void addKey(float x, float y, float width, int samples) {
+		if (keyCount == 0) {
+			// the first point is its own neighbour on the spline
+			write(x, y, width);
+			setKey(0, x, y, width);
+			setKey(1, x, y, width);
+			keyCount = 2;
+			return;
+		}
+
+		if (keyCount == 4) {
+			System.arraycopy(keys, 3, keys, 0, 9);
+			float[] recycled = keyWindows[0];
+			System.arraycopy(keyWindows, 1, keyWindows, 0, 3);
+			System.arraycopy(keyWindowSizes, 1, keyWindowSizes, 0, 3);
+			keyWindows[3] = recycled;
+			keyCount = 3;
+		}
+
+		System.arraycopy(window, 0, keyWindows[keyCount], 0, samples * 3);
+		keyWindowSizes[keyCount] = samples;
+		setKey(keyCount++, x, y, width);
+		if (keyCount == 4) {
+			writeSpline();
+		}
+	}
+
+	private void setKey(int key, float x, float y, float width) {
+		keys[key * 3] = x;
+		keys[key * 3 + 1] = y;
+		keys[key * 3 + 2] = width;
+	}
+
+	/**
+	 * write the spline from the second key to the third, the second is already written
+	 */
+	private void writeSpline() {
+		float x0 = keys[0], y0 = keys[1];
+		float x1 = keys[3], y1 = keys[4], w1 = keys[5];
+		float x2 = keys[6], y2 = keys[7], w2 = keys[8];
+		float x3 = keys[9], y3 = keys[10];
+
+		// the spline's midpoint is off the chord's by (p1 + p2 - p0 - p3) / 16, and
+		// with n pieces the largest error shrinks by about n squared
+		float bowX = (x1 + x2 - x0 - x3) / 16;
+		float bowY = (y1 + y2 - y0 - y3) / 16;
+		float bow = (float) Math.sqrt(bowX * bowX + bowY * bowY);
+
+		// never more points than the samples the chord replaced
+		int replaced = keyWindowSizes[2] - 2;
+		int pieces = bow <= tolerance || replaced <= 0 ? 1
+			: Math.min(Math.min(MAX_SUBDIVISIONS, replaced + 1), (int) Math.ceil(Math.sqrt(bow / tolerance)));
+
+		for (int i = 1; i < pieces; i++) {
+			float t = i / (float) pieces;
+			curve[i * 2] = catmullRom(x0, x1, x2, x3, t);
+			curve[i * 2 + 1] = catmullRom(y0, y1, y2, y3, t);
+		}
+
+		curve[0] = x1;
+		curve[1] = y1;
+		curve[pieces * 2] = x2;
+		curve[pieces * 2 + 1] = y2;
+		if (pieces > 1 && !fitsSamples(curve, pieces, keyWindows[2], keyWindowSizes[2])) {
+			pieces = 1;
+		}
+
+		for (int i = 1; i < pieces; i++) {
+			write(curve[i * 2], curve[i * 2 + 1], w1 + i * (w2 - w1) / pieces);
+		}
+
+		write(x2, y2, w2);
+	}
+
+	/**
+	 * do the subdivided spline and the samples it replaces stay within tolerance of each other?
+	 */
+	private boolean fitsSamples(float[] curve, int pieces, float[] samples, int sampleCount) {
+		// every replaced sample near the spline
+		for (int i = 1; i < sampleCount - 1; i++) {
+			if (!isNear(samples[i * 3], samples[i * 3 + 1], curve, 2, pieces + 1)) {
+				return false;
+			}
+		}
+
+		// and every inserted point near the samples, so turns are not overshot
+		for (int i = 1; i < pieces; i++) {
+			if (!isNear(curve[i * 2], curve[i * 2 + 1], samples, 3, sampleCount)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * is a point within tolerance of a polyline?
+	 *
+	 * @param stride floats per vertex, x and y first
+	 * @param count  number of vertices
+	 */
+	private boolean isNear(float x, float y, float[] polyline, int stride, int count) {
+		float toleranceSquared = tolerance * tolerance;
+		for (int i = 1; i < count; i++) {
+			int from = (i - 1) * stride;
+			int to = i * stride;
+			if (distanceSquared(x, y, polyline[from], polyline[from + 1], polyline[to], polyline[to + 1]) <= toleranceSquared) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * squared distance from a point to a segment
+	 */
+	private static float distanceSquared(float x, float y, float x0, float y0, float x1, float y1) {
+		float dx = x1 - x0;
+		float dy = y1 - y0;
+		float px = x - x0;
+		float py = y - y0;
+		float lengthSquared = dx * dx + dy * dy;
+		float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+		float ex = px - t * dx;
+		float ey = py - t * dy;
+		return ex * ex + ey * ey;
+	}
+
+	private static float catmullRom(float p0, float p1, float p2, float p3, float t) {
+		float t2 = t * t;
+		float t3 = t2 * t;
+		return 0.5f * (2 * p1 + (p2 - p0) * t + (2 * p0 - 5 * p1 + 4 * p2 - p3) * t2 + (3 * p1 - p0 - 3 * p2 + p3) * t3);
+	}
+
+	private void write(float x, float y, float width) {
+		if (hasWidth) {
+			out.add(x, y, width);
+		} else {
+			out.add(x, y);
+		}
+
+		outputCount++;
+	}
+}
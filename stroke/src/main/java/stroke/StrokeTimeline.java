@@ -0,0 +1,156 @@
+package stroke;
+
+/**
+ * When each stroke of a drawing appears during a time-lapse replay.
+ *
+ * The strokes of every layer are merged into the order they were drawn in,
+ * by start time. Each stroke appears at the moment its touch ended, measured
+ * on a playback clock that starts at 0 with the first stroke. Pauses between
+ * strokes are kept up to MAX_PAUSE, longer ones (the user put the phone away,
+ * or the drawing was continued days later) are shortened to it.
+ *
+ * Strokes without FLAG_TIMED, e.g. from journals written before strokes had
+ * times, take UNTIMED_DURATION each and follow the previous stroke of their
+ * layer, or come first if their layer has no timed stroke before them.
+ * Deleted strokes are not replayed.
+ */
+public class StrokeTimeline {
+
+	/// longest pause between two strokes, in milliseconds
+	public static final int MAX_PAUSE = 1000;
+
+	/// playback time of a stroke without a recorded time, in milliseconds
+	public static final int UNTIMED_DURATION = 250;
+
+	/// per replayed stroke, in drawing order
+	private final int[] layers;
+	private final int[] strokes;
+	/// playback time at which each stroke is complete, never decreasing
+	private final long[] endTimes;
+	private int size = 0;
+
+	/**
+	 * @param logs one log per layer, bottom first, each in the order its strokes were drawn
+	 */
+	public StrokeTimeline(StrokeLog[] logs) {
+		int total = 0;
+		for (StrokeLog log : logs) {
+			total += log.size();
+		}
+
+		layers = new int[total];
+		strokes = new int[total];
+		endTimes = new long[total];
+
+		// next stroke of every layer, and the time its order is decided by
+		int[] next = new int[logs.length];
+		long[] orderTimes = new long[logs.length];
+		boolean[] hasOrderTime = new boolean[logs.length];
+
+		long clock = 0;
+		long lastEnd = 0;
+		boolean started = false;
+		while (true) {
+			// every layer is already in order, so merging is picking the earliest head
+			int layer = -1;
+			for (int i = 0; i < logs.length; i++) {
+				while (next[i] < logs[i].size() && logs[i].isDeleted(next[i])) {
+					next[i]++;
+				}
+
+				if (next[i] == logs[i].size()) {
+					continue;
+				}
+
+				if (logs[i].isTimed(next[i])) {
+					orderTimes[i] = logs[i].getStartTime(next[i]);
+					hasOrderTime[i] = true;
+				}
+
+				// strokes from before times were recorded come first
+				if (layer < 0 || (hasOrderTime[layer] && (!hasOrderTime[i] || orderTimes[i] < orderTimes[layer]))) {
+					layer = i;
+				}
+			}
+
+			if (layer < 0) {
+				break;
+			}
+
+			StrokeLog log = logs[layer];
+			int stroke = next[layer]++;
+			if (log.isTimed(stroke)) {
+				long start = log.getStartTime(stroke);
+				if (started) {
+					clock += Math.max(0, Math.min(MAX_PAUSE, start - lastEnd));
+				}
+
+				clock += log.getDuration(stroke);
+				lastEnd = start + log.getDuration(stroke);
+				started = true;
+			} else {
+				clock += UNTIMED_DURATION;
+			}
+
+			layers[size] = layer;
+			strokes[size] = stroke;
+			endTimes[size] = clock;
+			size++;
+		}
+	}
+
+	/**
+	 * number of replayed strokes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * layer of the index-th replayed stroke
+	 */
+	public int getLayer(int index) {
+		return layers[index];
+	}
+
+	/**
+	 * index in its layer's log of the index-th replayed stroke
+	 */
+	public int getStroke(int index) {
+		return strokes[index];
+	}
+
+	/**
+	 * playback time at which the index-th replayed stroke is complete, in milliseconds
+	 */
+	public long getEndTime(int index) {
+		return endTimes[index];
+	}
+
+	/**
+	 * length of the whole replay at normal speed, in milliseconds
+	 */
+	public long getDuration() {
+		return size == 0 ? 0 : endTimes[size - 1];
+	}
+
+	/**
+	 * number of strokes complete at a playback time, i.e. to be drawn by then
+	 *
+	 * @param time playback time in milliseconds
+	 */
+	public int countAt(long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (endTimes[middle] <= time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+}
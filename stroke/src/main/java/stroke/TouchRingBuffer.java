@@ -0,0 +1,108 @@
+package stroke;
+
+/**
+ * Preallocated single-producer/single-consumer queue of touch samples.
+ *
+ * Each sample is five floats (type, x, y, extra, width) stored in one flat
+ * array, so offering and draining never allocates. For touch samples extra is
+ * the pointer id and width the stroke width at the sample, 0 unless the
+ * stroke has a variable width. The producer only writes head and the consumer only writes tail;
+ * both are volatile, which is enough to publish the sample data between the
+ * two threads without locks.
+ *
+ * The last eighth of the slots is kept for every other type than TYPE_MOVE.
+ * A consumer falling behind then only loses move samples, which cost some
+ * detail, never the downs, ups and brush changes the strokes are cut by.
+ */
+public class TouchRingBuffer {
+
+	/// floats per sample
+	public static final int STRIDE = 5;
+
+	public static final int TYPE_DOWN = 0;
+	public static final int TYPE_MOVE = 1;
+	public static final int TYPE_UP = 2;
+	/// brush change, x/y carry the high/low 16 bits of the color, extra the width (negative for erase)
+	public static final int TYPE_BRUSH = 3;
+	/// brush style change, x is one of StrokeLog.BRUSH_*
+	public static final int TYPE_BRUSH_STYLE = 4;
+
+	private final float[] samples;
+	private final int mask;
+
+	/// free slots only samples other than TYPE_MOVE may take
+	private final int reserved;
+
+	/// next sample to write, only advanced by the producer
+	private volatile long head = 0;
+
+	/// next sample to read, only advanced by the consumer
+	private volatile long tail = 0;
+
+	/**
+	 * @param capacity maximum number of queued samples, rounded up to a power of two
+	 */
+	public TouchRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		samples = new float[size * STRIDE];
+		mask = size - 1;
+		reserved = size / 8;
+	}
+
+	/**
+	 * queue a sample, producer thread only
+	 *
+	 * @return false if the sample was not queued, see offer(int, float, float, float, float)
+	 */
+	public boolean offer(int type, float x, float y, float extra) {
+		return offer(type, x, y, extra, 0);
+	}
+
+	/**
+	 * queue a sample, producer thread only
+	 *
+	 * @return false if the buffer is full and the sample was not queued, a TYPE_MOVE
+	 * sample is already refused when only the reserved slots are left
+	 */
+	public boolean offer(int type, float x, float y, float extra, float width) {
+		long h = head;
+		if (h - tail > mask - (type == TYPE_MOVE ? reserved : 0)) {
+			return false;
+		}
+
+		int i = (int) (h & mask) * STRIDE;
+		samples[i] = type;
+		samples[i + 1] = x;
+		samples[i + 2] = y;
+		samples[i + 3] = extra;
+		samples[i + 4] = width;
+
+		// volatile write publishes the sample to the consumer
+		head = h + 1;
+		return true;
+	}
+
+	/**
+	 * copy queued samples into out, consumer thread only
+	 *
+	 * @param out receives STRIDE floats per sample
+	 * @return number of samples copied
+	 */
+	public int drain(float[] out) {
+		long t = tail;
+		int count = (int) Math.min(head - t, out.length / STRIDE);
+
+		for (int n = 0; n < count; n++) {
+			int i = (int) ((t + n) & mask) * STRIDE;
+			System.arraycopy(samples, i, out, n * STRIDE, STRIDE);
+		}
+
+		// volatile write hands the slots back to the producer
+		tail = t + count;
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return head == tail;
+	}
+}
@@ -0,0 +1,120 @@
+package stroke;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LatencyHistogram bucket bounds and percentiles.
+ */
+public class LatencyHistogramTest {
+
+	/// a value larger than every bucket but the last
+	private static final long PAST_LAST_BUCKET = 1L << 21;
+
+	@Test
+	public void emptyHistogramReportsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(0.99));
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		for (long value = 0; value < 8; value++) {
+			assertEquals(value, upperBoundOf(value));
+		}
+	}
+
+	@Test
+	public void bucketsAreNeverWiderThanAnEighthOfTheirValue() {
+		for (long value = 8; value < PAST_LAST_BUCKET; value += 1 + value / 97) {
+			long bound = upperBoundOf(value);
+			assertTrue(value + " reported as " + bound, bound >= value && bound <= value + value / 8);
+		}
+	}
+
+	@Test
+	public void bucketBoundsFollowPowersOfTwo() {
+		assertEquals(8, upperBoundOf(8));
+		assertEquals(15, upperBoundOf(15));
+		assertEquals(17, upperBoundOf(16));
+		assertEquals(17, upperBoundOf(17));
+		assertEquals(19, upperBoundOf(18));
+		assertEquals(1023, upperBoundOf(1000));
+		assertEquals(1151, upperBoundOf(1024));
+	}
+
+	@Test
+	public void percentileIsNeverAboveMax() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1000);
+
+		assertEquals(1000, histogram.getPercentile(0.5));
+		assertEquals(1000, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void valuesPastTheLastBucketReportMax() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(5);
+		histogram.record(PAST_LAST_BUCKET * 3);
+		histogram.record(PAST_LAST_BUCKET * 5);
+
+		assertEquals(PAST_LAST_BUCKET * 5, histogram.getMax());
+		assertEquals(PAST_LAST_BUCKET * 5, histogram.getPercentile(0.5));
+	}
+
+	@Test
+	public void percentilesPickTheRankedSample() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int value = 1; value <= 100; value++) {
+			histogram.record(value);
+		}
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(1, histogram.getPercentile(0));
+		assertEquals(1, histogram.getPercentile(0.01));
+		// the 25th sample lands in 24..25
+		assertEquals(25, histogram.getPercentile(0.25));
+		// the 50th sample lands in 48..51
+		assertEquals(51, histogram.getPercentile(0.5));
+		// the 99th in 96..103, capped by the largest sample
+		assertEquals(100, histogram.getPercentile(0.99));
+	}
+
+	@Test
+	public void negativeValuesCountAsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-20);
+		histogram.record(3);
+
+		assertEquals(2, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(0.5));
+	}
+
+	@Test
+	public void resetForgetsEverySample() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(300);
+		histogram.reset();
+		histogram.record(2);
+
+		assertEquals(1, histogram.getCount());
+		assertEquals(2, histogram.getMax());
+		assertEquals(2, histogram.getPercentile(1));
+	}
+
+	/**
+	 * upper bound of the bucket a value falls in, seen through a percentile that max does not cap
+	 */
+	private static long upperBoundOf(long value) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(value);
+		histogram.record(PAST_LAST_BUCKET - 1);
+		return histogram.getPercentile(0.5);
+	}
+}
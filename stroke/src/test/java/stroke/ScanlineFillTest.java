@@ -0,0 +1,177 @@
+package stroke;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ScanlineFill, and ParallelScanlineFill filling exactly the same pixels.
+ */
+public class ScanlineFillTest {
+
+	private static final int WHITE = 0xffffffff;
+	private static final int BLACK = 0xff000000;
+	private static final int RED = 0xffff0000;
+
+	/// large enough for ParallelScanlineFill to classify in bands
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+
+	private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+	@AfterClass
+	public static void shutDownPool() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void fillsInsideOfOutlineOnly() {
+		int[] pixels = new int[20 * 20];
+		Arrays.fill(pixels, WHITE);
+		for (int i = 5; i <= 15; i++) {
+			pixels[5 * 20 + i] = BLACK;
+			pixels[15 * 20 + i] = BLACK;
+			pixels[i * 20 + 5] = BLACK;
+			pixels[i * 20 + 15] = BLACK;
+		}
+
+		ScanlineFill fill = new ScanlineFill();
+		assertEquals(9 * 9, fill.fill(pixels, 20, 20, 10, 10, RED, 0));
+		assertEquals(RED, pixels[6 * 20 + 6]);
+		assertEquals(RED, pixels[14 * 20 + 14]);
+		assertEquals(BLACK, pixels[5 * 20 + 10]);
+		assertEquals(WHITE, pixels[4 * 20 + 10]);
+
+		assertEquals(6, fill.getFirstRow());
+		assertEquals(14, fill.getLastRow());
+		assertEquals(6, fill.getRowStart(10));
+		assertEquals(15, fill.getRowEnd(10));
+	}
+
+	@Test
+	public void toleranceIsPerChannel() {
+		int[] pixels = {WHITE, 0xfff0f0f0, 0xffeeeeee, WHITE};
+
+		// every pixel is compared with the seed, the darkest one keeps the last white one out of a tight fill
+		assertEquals(2, new ScanlineFill().fill(pixels.clone(), 4, 1, 0, 0, RED, 0x0f));
+		assertEquals(4, new ScanlineFill().fill(pixels.clone(), 4, 1, 0, 0, RED, 0x11));
+		assertEquals(1, new ScanlineFill().fill(pixels.clone(), 4, 1, 0, 0, RED, 0x0e));
+	}
+
+	@Test
+	public void seedOutsideOrOfFillColorFillsNothing() {
+		int[] pixels = new int[4 * 4];
+		Arrays.fill(pixels, RED);
+		ScanlineFill fill = new ScanlineFill();
+
+		assertEquals(0, fill.fill(pixels, 4, 4, 1, 1, RED, 0));
+		assertEquals(0, fill.fill(pixels, 4, 4, -1, 1, BLACK, 0));
+		assertEquals(0, fill.fill(pixels, 4, 4, 1, 4, BLACK, 0));
+		assertTrue(fill.getFirstRow() > fill.getLastRow());
+	}
+
+	@Test
+	public void parallelFillMatchesSequentialFill() {
+		Random random = new Random(17);
+		ScanlineFill sequential = new ScanlineFill();
+		ScanlineFill parallel = new ParallelScanlineFill(pool);
+		for (int round = 0; round < 12; round++) {
+			int[] image = maze(random);
+			int x = random.nextInt(WIDTH);
+			int y = random.nextInt(HEIGHT);
+			int tolerance = random.nextInt(4) * 24;
+
+			int[] expected = image.clone();
+			int[] actual = image.clone();
+			int expectedCount = sequential.fill(expected, WIDTH, HEIGHT, x, y, RED, tolerance);
+			int actualCount = parallel.fill(actual, WIDTH, HEIGHT, x, y, RED, tolerance);
+
+			String seed = "round " + round + ", seed " + x + "," + y + ", tolerance " + tolerance;
+			assertEquals(seed, expectedCount, actualCount);
+			assertArrayEquals(seed, expected, actual);
+			assertEquals(seed, sequential.getFirstRow(), parallel.getFirstRow());
+			assertEquals(seed, sequential.getLastRow(), parallel.getLastRow());
+			for (int row = sequential.getFirstRow(); row <= sequential.getLastRow(); row++) {
+				assertEquals(seed, sequential.getRowStart(row), parallel.getRowStart(row));
+				assertEquals(seed, sequential.getRowEnd(row), parallel.getRowEnd(row));
+			}
+		}
+	}
+
+	@Test
+	public void parallelFillOfSmallImageMatchesSequentialFill() {
+		int[] image = new int[50 * 40];
+		Random random = new Random(3);
+		for (int i = 0; i < image.length; i++) {
+			image[i] = random.nextInt(8) == 0 ? BLACK : WHITE;
+		}
+
+		int[] expected = image.clone();
+		int[] actual = image.clone();
+		assertEquals(new ScanlineFill().fill(expected, 50, 40, 25, 20, RED, 0),
+			new ParallelScanlineFill(pool).fill(actual, 50, 40, 25, 20, RED, 0));
+		assertArrayEquals(expected, actual);
+	}
+
+	@Test
+	public void smallRegionOfLargeImageIsNotClassified() {
+		final int[] classified = new int[1];
+		ScanlineFill parallel = new ParallelScanlineFill(pool) {
+			@Override
+			protected void classify(int[] pixels, int width, int height, int target, int tolerance) {
+				classified[0]++;
+				super.classify(pixels, width, height, target, tolerance);
+			}
+		};
+
+		int[] pixels = new int[WIDTH * HEIGHT];
+		Arrays.fill(pixels, WHITE);
+		for (int i = 10; i <= 30; i++) {
+			pixels[10 * WIDTH + i] = BLACK;
+			pixels[30 * WIDTH + i] = BLACK;
+			pixels[i * WIDTH + 10] = BLACK;
+			pixels[i * WIDTH + 30] = BLACK;
+		}
+
+		assertEquals(19 * 19, parallel.fill(pixels, WIDTH, HEIGHT, 20, 20, RED, 0));
+		assertEquals(0, classified[0]);
+
+		// the outside is large, the rest of it is classified once
+		assertEquals(WIDTH * HEIGHT - 21 * 21, parallel.fill(pixels, WIDTH, HEIGHT, 0, 0, RED, 0));
+		assertEquals(1, classified[0]);
+		assertEquals(RED, pixels[(HEIGHT - 1) * WIDTH + WIDTH - 1]);
+		assertEquals(BLACK, pixels[10 * WIDTH + 20]);
+	}
+
+	/**
+	 * gray noise crossed by dark walls with gaps, so fills wind around and leave islands
+	 */
+	private static int[] maze(Random random) {
+		int[] pixels = new int[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++) {
+			int gray = 200 + random.nextInt(56);
+			pixels[i] = 0xff000000 | gray << 16 | gray << 8 | gray;
+		}
+
+		for (int wall = 0; wall < 60; wall++) {
+			boolean horizontal = random.nextBoolean();
+			int at = random.nextInt(horizontal ? HEIGHT : WIDTH);
+			int length = horizontal ? WIDTH : HEIGHT;
+			int gap = random.nextInt(length);
+			for (int i = 0; i < length; i++) {
+				if (Math.abs(i - gap) > 6) {
+					pixels[horizontal ? at * WIDTH + i : i * WIDTH + at] = BLACK;
+				}
+			}
+		}
+
+		return pixels;
+	}
+}
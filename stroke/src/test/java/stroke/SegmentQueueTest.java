@@ -0,0 +1,91 @@
+package stroke;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SegmentQueue keeping the newest drawn points as context for the next segment.
+ */
+public class SegmentQueueTest {
+
+	@Test
+	public void strokeStartIsContextOnly() {
+		SegmentQueue queue = new SegmentQueue();
+		queue.moveTo(1, 2);
+
+		assertFalse(queue.hasPending());
+		assertEquals(1, queue.size());
+		assertEquals(1, queue.getContextCount());
+	}
+
+	@Test
+	public void segmentsStartAtTheDrawnPoints() {
+		SegmentQueue queue = new SegmentQueue();
+		queue.moveTo(0, 0);
+		queue.append(1, 0);
+
+		assertTrue(queue.hasPending());
+		assertPoints(queue, 0, 1);
+		queue.keepContext();
+		assertFalse(queue.hasPending());
+
+		// only one point was drawn before the first segment
+		queue.append(2, 0);
+		assertEquals(2, queue.getContextCount());
+		assertPoints(queue, 0, 1, 2);
+		queue.keepContext();
+
+		// from then on the last CONTEXT_SIZE points lead every segment
+		queue.append(3, 0);
+		assertEquals(SegmentQueue.CONTEXT_SIZE, queue.getContextCount());
+		assertPoints(queue, 1, 2, 3);
+	}
+
+	@Test
+	public void batchesKeepOnlyTheirNewestPoints() {
+		SegmentQueue queue = new SegmentQueue();
+		queue.moveTo(0, 0);
+		// more than the initial capacity, so the queue grows
+		for (int i = 1; i <= 40; i++) {
+			queue.append(i, 0);
+		}
+
+		assertEquals(41, queue.size());
+		assertEquals(1, queue.getContextCount());
+		queue.keepContext();
+
+		queue.append(41, 0);
+		queue.append(42, 0);
+		assertPoints(queue, 39, 40, 41, 42);
+		assertEquals(2, queue.getContextCount());
+	}
+
+	@Test
+	public void moveToDropsTheOldStroke() {
+		SegmentQueue queue = new SegmentQueue();
+		queue.moveTo(0, 0);
+		queue.append(1, 0);
+		queue.keepContext();
+		queue.append(2, 0);
+
+		queue.moveTo(10, 10);
+		assertFalse(queue.hasPending());
+		queue.append(11, 10);
+		assertPoints(queue, 10, 11);
+		assertEquals(10, queue.getY(0), 0);
+	}
+
+	/**
+	 * every point is on the x axis, checked in order by x
+	 */
+	private static void assertPoints(SegmentQueue queue, float... xs) {
+		assertEquals(xs.length, queue.size());
+		for (int i = 0; i < xs.length; i++) {
+			assertEquals("point " + i, xs[i], queue.getX(i), 0);
+			assertEquals("point " + i, xs[i], queue.array()[i * 2], 0);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package stroke;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips through StrokeCodec, and data it must refuse.
+ */
+public class StrokeCodecTest {
+
+	@Test
+	public void roundTripKeepsEveryField() throws IOException {
+		StrokeLog log = sampleLog();
+
+		StrokeLog decoded = new StrokeLog();
+		StrokeCodec.decode(StrokeCodec.encode(log), decoded);
+
+		assertSameStrokes(log, decoded);
+	}
+
+	@Test
+	public void roundTripOfEmptyLog() throws IOException {
+		StrokeLog decoded = new StrokeLog();
+		StrokeCodec.decode(StrokeCodec.encode(new StrokeLog()), decoded);
+
+		assertEquals(0, decoded.size());
+	}
+
+	@Test
+	public void pointsAreQuantizedToPointScale() throws IOException {
+		StrokeLog log = new StrokeLog();
+		log.append(0xff000000, 4, 0, new float[]{10.06f, 20.19f, -3.3f, 7.01f}, 0, 2);
+
+		StrokeLog decoded = new StrokeLog();
+		StrokeCodec.decode(StrokeCodec.encode(log), decoded);
+
+		for (int point = 0; point < 2; point++) {
+			assertEquals(log.getX(point), decoded.getX(point), 0.5f / StrokeCodec.POINT_SCALE);
+			assertEquals(log.getY(point), decoded.getY(point), 0.5f / StrokeCodec.POINT_SCALE);
+		}
+	}
+
+	@Test
+	public void truncatedRecordIsRejected() throws IOException {
+		byte[] data = StrokeCodec.encode(sampleLog());
+
+		// cutting the data at a record boundary leaves a valid file with fewer strokes
+		boolean[] boundary = new boolean[data.length + 1];
+		int position = StrokeCodec.MAGIC.length + 1;
+		boundary[position] = true;
+		while (position < data.length) {
+			position = StrokeCodec.decodeStroke(data, position, data.length, new StrokeLog());
+			boundary[position] = true;
+		}
+
+		for (int length = StrokeCodec.MAGIC.length + 1; length < data.length; length++) {
+			try {
+				StrokeCodec.decode(Arrays.copyOf(data, length), new StrokeLog());
+				if (!boundary[length]) {
+					fail("Decoded " + length + " of " + data.length + " bytes, cutting a record");
+				}
+			} catch (IOException e) {
+				if (boundary[length]) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void wrongMagicIsRejected() throws IOException {
+		byte[] data = StrokeCodec.encode(sampleLog());
+		data[0] = 'X';
+		StrokeCodec.decode(data, new StrokeLog());
+	}
+
+	@Test(expected = IOException.class)
+	public void otherVersionIsRejected() throws IOException {
+		byte[] data = StrokeCodec.encode(sampleLog());
+		data[StrokeCodec.MAGIC.length] = StrokeCodec.VERSION + 1;
+		StrokeCodec.decode(data, new StrokeLog());
+	}
+
+	@Test(expected = IOException.class)
+	public void tooShortForHeaderIsRejected() throws IOException {
+		StrokeCodec.decode(new byte[]{'S', 'T'}, new StrokeLog());
+	}
+
+	@Test(expected = IOException.class)
+	public void overlongVarintIsRejected() throws IOException {
+		// a color, then a width varint whose continuation bit never ends
+		byte[] record = {0, 0, 0, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0};
+		StrokeCodec.decodeStrokes(record, 0, record.length, new StrokeLog());
+	}
+
+	@Test
+	public void decodeStrokeStopsAfterItsRecord() throws IOException {
+		StrokeLog log = sampleLog();
+		StrokeCodec codec = new StrokeCodec();
+		codec.writeStroke(log, 0);
+		int first = codec.size();
+		codec.writeStroke(log, 1);
+		byte[] data = codec.toByteArray();
+
+		StrokeLog decoded = new StrokeLog();
+		assertEquals(first, StrokeCodec.decodeStroke(data, 0, data.length, decoded));
+		assertEquals(data.length, StrokeCodec.decodeStroke(data, first, data.length, decoded));
+		assertEquals(2, decoded.size());
+	}
+
+	/**
+	 * strokes of every kind, on the codec's grid so they decode exactly
+	 */
+	static StrokeLog sampleLog() {
+		StrokeLog log = new StrokeLog();
+		log.append(0xff112233, 4.5f, StrokeLog.brushFlags(StrokeLog.BRUSH_PENCIL),
+			new float[]{10, 20, 12.5f, 21.25f, 300.125f, -4, 0, 0}, 0, 4);
+
+		int timed = log.append(0x80ff0000, 12, StrokeLog.FLAG_ERASE, new float[]{1000, 1000, 1001, 999}, 0, 2);
+		// later than 2038, the time needs all 64 bits
+		log.setTime(timed, 3000000000000L, 1234);
+
+		log.append(0xff00ff00, 8, StrokeLog.FLAG_VARIABLE_WIDTH,
+			new float[]{5, 5, 6, 7, 8, 9}, new float[]{2, 3.5f, 6.0625f}, 0, 3);
+		log.appendFill(0xff0000ff, 32, 50, 60);
+		int deleted = log.append(0xff000000, 1, 0, new float[]{7, 7}, 0, 1);
+		log.setDeleted(deleted, true);
+		return log;
+	}
+
+	static void assertSameStrokes(StrokeLog expected, StrokeLog actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int stroke = 0; stroke < expected.size(); stroke++) {
+			assertEquals(expected.getColor(stroke), actual.getColor(stroke));
+			assertEquals(expected.getFlags(stroke), actual.getFlags(stroke));
+			assertEquals(expected.getStoredWidth(stroke), actual.getStoredWidth(stroke), 0);
+			assertEquals(expected.getPointCount(stroke), actual.getPointCount(stroke));
+			if (expected.isTimed(stroke)) {
+				assertEquals(expected.getStartTime(stroke), actual.getStartTime(stroke));
+				assertEquals(expected.getDuration(stroke), actual.getDuration(stroke));
+			}
+
+			int from = expected.getPointOffset(stroke);
+			int to = actual.getPointOffset(stroke);
+			for (int i = 0; i < expected.getPointCount(stroke); i++) {
+				assertEquals(expected.getX(from + i), actual.getX(to + i), 0);
+				assertEquals(expected.getY(from + i), actual.getY(to + i), 0);
+				if (expected.isVariableWidth(stroke)) {
+					assertEquals(expected.getPointWidth(from + i), actual.getPointWidth(to + i), 0);
+				}
+			}
+		}
+	}
+}
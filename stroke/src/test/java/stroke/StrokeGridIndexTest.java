@@ -0,0 +1,169 @@
+package stroke;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * StrokeGridIndex.hitTest against a scan of every segment.
+ */
+public class StrokeGridIndexTest {
+
+	private static final int CELL_SIZE = 64;
+
+	@Test
+	public void hitsTopmostStrokeUnderPoint() {
+		StrokeLog log = new StrokeLog();
+		log.append(0xff000000, 10, 0, new float[]{0, 100, 200, 100}, 0, 2);
+		log.append(0xff000000, 2, 0, new float[]{100, 0, 100, 200}, 0, 2);
+		StrokeGridIndex index = index(log, 200, 200);
+
+		// the crossing is on both, the later stroke is on top
+		assertEquals(1, index.hitTest(log, 100, 100, 1, log.size()));
+		// half the first stroke's width away from its line
+		assertEquals(0, index.hitTest(log, 50, 104.5f, 1, log.size()));
+		assertEquals(-1, index.hitTest(log, 50, 107, 1, log.size()));
+		// the radius adds to the half width
+		assertEquals(0, index.hitTest(log, 50, 107, 3, log.size()));
+	}
+
+	@Test
+	public void limitHidesStrokesAboveIt() {
+		StrokeLog log = new StrokeLog();
+		log.append(0xff000000, 10, 0, new float[]{0, 100, 200, 100}, 0, 2);
+		log.append(0xff000000, 10, 0, new float[]{0, 100, 200, 100}, 0, 2);
+		StrokeGridIndex index = index(log, 200, 200);
+
+		assertEquals(1, index.hitTest(log, 100, 100, 1, 2));
+		assertEquals(0, index.hitTest(log, 100, 100, 1, 1));
+		assertEquals(-1, index.hitTest(log, 100, 100, 1, 0));
+	}
+
+	@Test
+	public void fillsErasersAndDeletedStrokesAreNeverHit() {
+		StrokeLog log = new StrokeLog();
+		log.append(0xff000000, 10, 0, new float[]{0, 100, 200, 100}, 0, 2);
+		log.append(0xff000000, 10, StrokeLog.FLAG_ERASE, new float[]{0, 100, 200, 100}, 0, 2);
+		log.appendFill(0xffff0000, 0, 100, 100);
+		int deleted = log.append(0xff000000, 10, 0, new float[]{0, 100, 200, 100}, 0, 2);
+		log.setDeleted(deleted, true);
+		StrokeGridIndex index = index(log, 200, 200);
+
+		assertEquals(0, index.hitTest(log, 100, 100, 1, log.size()));
+	}
+
+	@Test
+	public void singlePointIsADot() {
+		StrokeLog log = new StrokeLog();
+		log.append(0xff000000, 8, 0, new float[]{30, 30}, 0, 1);
+		StrokeGridIndex index = index(log, 200, 200);
+
+		assertEquals(0, index.hitTest(log, 33, 30, 0, log.size()));
+		assertEquals(-1, index.hitTest(log, 35, 30, 0, log.size()));
+	}
+
+	@Test
+	public void pointsOutsideTheGridAreClampedToItsBorder() {
+		StrokeLog log = new StrokeLog();
+		log.append(0xff000000, 4, 0, new float[]{-50, -50, 300, -50}, 0, 2);
+		StrokeGridIndex index = index(log, 200, 200);
+
+		assertEquals(0, index.hitTest(log, 250, -49, 1, log.size()));
+		assertEquals(-1, index.hitTest(log, 250, -40, 1, log.size()));
+	}
+
+	@Test
+	public void truncatedStrokesAreForgotten() {
+		StrokeLog log = new StrokeLog();
+		log.append(0xff000000, 10, 0, new float[]{0, 100, 200, 100}, 0, 2);
+		log.append(0xff000000, 10, 0, new float[]{0, 100, 200, 100}, 0, 2);
+		StrokeGridIndex index = index(log, 200, 200);
+
+		index.truncate(1);
+		log.truncate(1);
+		assertEquals(1, index.size());
+		assertEquals(0, index.hitTest(log, 100, 100, 1, Integer.MAX_VALUE));
+
+		log.append(0xff000000, 10, 0, new float[]{100, 0, 100, 200}, 0, 2);
+		index.add(log, 1);
+		assertEquals(1, index.hitTest(log, 100, 20, 1, log.size()));
+		assertEquals(0, index.hitTest(log, 20, 100, 1, log.size()));
+	}
+
+	@Test
+	public void agreesWithScanOfEverySegment() {
+		Random random = new Random(7);
+		StrokeLog log = new StrokeLog();
+		for (int stroke = 0; stroke < 200; stroke++) {
+			int count = 1 + random.nextInt(12);
+			float[] xy = new float[count * 2];
+			float x = random.nextFloat() * 500;
+			float y = random.nextFloat() * 400;
+			for (int i = 0; i < count; i++) {
+				x += random.nextFloat() * 60 - 30;
+				y += random.nextFloat() * 60 - 30;
+				xy[i * 2] = x;
+				xy[i * 2 + 1] = y;
+			}
+
+			int flags = random.nextInt(10) == 0 ? StrokeLog.FLAG_ERASE : 0;
+			int added = log.append(0xff000000, 1 + random.nextFloat() * 20, flags, xy, 0, count);
+			if (random.nextInt(10) == 0) {
+				log.setDeleted(added, true);
+			}
+		}
+
+		StrokeGridIndex index = index(log, 500, 400);
+		for (int query = 0; query < 5000; query++) {
+			float x = random.nextFloat() * 540 - 20;
+			float y = random.nextFloat() * 440 - 20;
+			float radius = random.nextFloat() * 8;
+			int limit = random.nextInt(log.size() + 1);
+			assertEquals("query " + query + " at " + x + "," + y, scan(log, x, y, radius, limit),
+				index.hitTest(log, x, y, radius, limit));
+		}
+	}
+
+	private static StrokeGridIndex index(StrokeLog log, int width, int height) {
+		StrokeGridIndex index = new StrokeGridIndex(CELL_SIZE);
+		index.resize(width, height);
+		index.addAll(log, 0);
+		return index;
+	}
+
+	/**
+	 * what hitTest should find, without the grid
+	 */
+	private static int scan(StrokeLog log, float x, float y, float radius, int limit) {
+		for (int stroke = Math.min(limit, log.size()) - 1; stroke >= 0; stroke--) {
+			if (log.isDeleted(stroke) || log.isFill(stroke) || log.isErase(stroke)) {
+				continue;
+			}
+
+			int offset = log.getPointOffset(stroke);
+			int count = log.getPointCount(stroke);
+			float reach = radius + log.getWidth(stroke) / 2;
+			for (int i = 0; i < Math.max(1, count - 1); i++) {
+				int b = Math.min(i + 1, count - 1);
+				if (distanceSquared(x, y, log.getX(offset + i), log.getY(offset + i),
+					log.getX(offset + b), log.getY(offset + b)) <= reach * reach) {
+					return stroke;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	private static float distanceSquared(float x, float y, float ax, float ay, float bx, float by) {
+		float dx = bx - ax;
+		float dy = by - ay;
+		float lengthSquared = dx * dx + dy * dy;
+		float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / lengthSquared));
+		float ex = x - ax - t * dx;
+		float ey = y - ay - t * dy;
+		return ex * ex + ey * ey;
+	}
+}
@@ -0,0 +1,284 @@
+package stroke;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Replaying a StrokeJournal, including after a crash tore its last record.
+ */
+public class StrokeJournalTest {
+
+	/// where StrokeJournal keeps the end of the last complete record
+	private static final int COMMITTED_OFFSET = 4;
+
+	/// record types, as StrokeJournal writes them
+	private static final byte OP_HEAD = 2;
+	private static final byte OP_DELETE = 3;
+	private static final byte OP_LAYER = 4;
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("strokes-", ".journal");
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void replayRestoresStrokesUndoAndDeletes() throws IOException {
+		StrokeLog log = StrokeCodecTest.sampleLog();
+		StrokeJournal journal = new StrokeJournal(file);
+		for (int stroke = 0; stroke < log.size(); stroke++) {
+			journal.appendStroke(log, stroke);
+		}
+
+		journal.setDeleted(1);
+		journal.setHead(3);
+		journal.close();
+
+		StrokeLog replayed = new StrokeLog();
+		journal = new StrokeJournal(file);
+		int head = journal.replay(replayed, 0);
+		journal.close();
+
+		assertEquals(3, head);
+		assertEquals(log.size(), replayed.size());
+		assertTrue(replayed.isDeleted(1));
+		replayed.setDeleted(1, false);
+		StrokeCodecTest.assertSameStrokes(log, replayed);
+	}
+
+	@Test
+	public void tornRecordIsNotReplayed() throws IOException {
+		StrokeLog log = StrokeCodecTest.sampleLog();
+		StrokeJournal journal = new StrokeJournal(file);
+		journal.appendStroke(log, 0);
+		journal.appendStroke(log, 1);
+		int committed = journal.size();
+		journal.appendStroke(log, 2);
+		journal.close();
+
+		// the crash came after the record's bytes were written, before its commit
+		tear(committed);
+
+		StrokeLog replayed = new StrokeLog();
+		journal = new StrokeJournal(file);
+		assertEquals(2, journal.replay(replayed, 0));
+		assertEquals(2, replayed.size());
+		assertEquals(log.getColor(1), replayed.getColor(1));
+
+		// the torn bytes are overwritten by the next record
+		journal.appendStroke(log, 3);
+		journal.close();
+
+		journal = new StrokeJournal(file);
+		assertEquals(3, journal.replay(replayed, 0));
+		journal.close();
+		assertTrue(replayed.isFill(2));
+	}
+
+	@Test
+	public void tornHeaderStartsOver() throws IOException {
+		StrokeJournal journal = new StrokeJournal(file);
+		journal.appendStroke(StrokeCodecTest.sampleLog(), 0);
+		journal.close();
+
+		// a committed length past the end of the file cannot be trusted
+		tear(Integer.MAX_VALUE);
+
+		StrokeLog replayed = new StrokeLog();
+		journal = new StrokeJournal(file);
+		assertEquals(0, journal.replay(replayed, 0));
+		journal.close();
+		assertEquals(0, replayed.size());
+	}
+
+	@Test
+	public void readOnlyJournalReplays() throws IOException {
+		StrokeLog log = StrokeCodecTest.sampleLog();
+		StrokeJournal journal = new StrokeJournal(file);
+		journal.appendStroke(log, 0);
+		journal.setLayer(1);
+		journal.appendStroke(log, 1);
+		journal.close();
+
+		StrokeLog replayed = new StrokeLog();
+		journal = StrokeJournal.openReadOnly(file);
+		try {
+			assertEquals(2, journal.getLayerCount());
+			assertEquals(1, journal.replay(replayed, 1));
+			assertEquals(log.getColor(1), replayed.getColor(0));
+		} finally {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void readOnlyJournalLeavesUnreadableFileAlone() throws IOException {
+		// too short for a header, then a header of another version
+		byte[][] contents = {{'S', 'T'}, {'S', 'T', 'J', 99, 0, 0, 0, 8, 1, 2, 3}};
+		for (byte[] content : contents) {
+			RandomAccessFile raw = new RandomAccessFile(file, "rw");
+			try {
+				raw.setLength(0);
+				raw.write(content);
+			} finally {
+				raw.close();
+			}
+
+			StrokeLog replayed = new StrokeLog();
+			StrokeJournal journal = StrokeJournal.openReadOnly(file);
+			try {
+				assertEquals(1, journal.getLayerCount());
+				assertEquals(0, journal.replay(replayed, 0));
+			} finally {
+				journal.close();
+			}
+
+			assertEquals(content.length, file.length());
+			byte[] after = new byte[content.length];
+			raw = new RandomAccessFile(file, "r");
+			try {
+				raw.readFully(after);
+			} finally {
+				raw.close();
+			}
+
+			assertArrayEquals(content, after);
+		}
+	}
+
+	@Test
+	public void corruptRecordsAreRejected() throws IOException {
+		// negative head, deleted stroke and layer, a layer past the cap, a cut record, an unknown type
+		byte[][] records = {
+			{OP_HEAD, -1, -1, -1, -1},
+			{OP_DELETE, -1, -1, -1, -1},
+			{OP_LAYER, -1, -1, -1, -1},
+			{OP_LAYER, 0x7f, -1, -1, -1},
+			{OP_LAYER, 0, 0},
+			{99},
+		};
+
+		for (int i = 0; i < records.length; i++) {
+			StrokeJournal journal = new StrokeJournal(file);
+			journal.clear();
+			journal.appendStroke(StrokeCodecTest.sampleLog(), 0);
+			journal.close();
+
+			appendCommitted(records[i]);
+
+			journal = new StrokeJournal(file);
+			try {
+				journal.getLayerCount();
+				fail("Accepted record " + i);
+			} catch (IOException expected) {
+			}
+
+			try {
+				journal.replay(new StrokeLog(), 0);
+				fail("Replayed record " + i);
+			} catch (IOException expected) {
+			} finally {
+				journal.close();
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void layersPastTheCapAreNotJournaled() throws IOException {
+		StrokeJournal journal = new StrokeJournal(file);
+		try {
+			journal.setLayer(StrokeJournal.MAX_LAYERS);
+		} finally {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void layersReplaySeparately() throws IOException {
+		StrokeLog log = StrokeCodecTest.sampleLog();
+		StrokeJournal journal = new StrokeJournal(file);
+		journal.appendStroke(log, 0);
+		journal.setLayer(2);
+		journal.appendStroke(log, 1);
+		journal.appendStroke(log, 2);
+		journal.setLayer(0);
+		journal.setHead(0);
+
+		assertEquals(3, journal.getLayerCount());
+
+		StrokeLog replayed = new StrokeLog();
+		assertEquals(0, journal.replay(replayed, 0));
+		assertEquals(1, replayed.size());
+		assertEquals(0, journal.replay(replayed, 1));
+		assertEquals(0, replayed.size());
+		assertEquals(2, journal.replay(replayed, 2));
+		assertEquals(log.getColor(1), replayed.getColor(0));
+		journal.close();
+	}
+
+	@Test
+	public void rewriteDropsTheRedoHistory() throws IOException {
+		StrokeLog log = StrokeCodecTest.sampleLog();
+		StrokeJournal journal = new StrokeJournal(file);
+		for (int stroke = 0; stroke < log.size(); stroke++) {
+			journal.appendStroke(log, stroke);
+		}
+
+		journal.setHead(2);
+		StrokeLog replayed = new StrokeLog();
+		replayed.truncate(journal.replay(replayed, 0));
+		int before = journal.size();
+		journal.rewrite(new StrokeLog[]{replayed});
+
+		assertTrue(journal.size() < before);
+		assertEquals(2, journal.replay(replayed, 0));
+		assertEquals(2, replayed.size());
+		journal.close();
+	}
+
+	/**
+	 * append raw bytes as a committed record, as a corrupted journal would hold them
+	 */
+	private void appendCommitted(byte[] record) throws IOException {
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		try {
+			raw.seek(COMMITTED_OFFSET);
+			int committed = raw.readInt();
+			raw.seek(committed);
+			raw.write(record);
+			raw.seek(COMMITTED_OFFSET);
+			raw.writeInt(committed + record.length);
+		} finally {
+			raw.close();
+		}
+	}
+
+	/**
+	 * overwrite the committed length, as if the process died before it was updated
+	 */
+	private void tear(int committed) throws IOException {
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		try {
+			raw.seek(COMMITTED_OFFSET);
+			raw.writeInt(committed);
+		} finally {
+			raw.close();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package stroke;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * StrokeRasterizer output, banded and sequential.
+ */
+public class StrokeRasterizerTest {
+
+	private static final int WHITE = 0xffffffff;
+	private static final int BLACK = 0xff000000;
+
+	/// large enough to be rendered in bands
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+
+	private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+	@AfterClass
+	public static void shutDownPool() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void bandedRenderMatchesSequentialRender() {
+		StrokeLog log = randomStrokes(new Random(11), 300);
+		// a fill in the middle splits the strokes into two parallel runs
+		log.appendFill(0xff3366cc, 16, WIDTH / 2, HEIGHT / 2);
+		StrokeLog more = randomStrokes(new Random(12), 100);
+		for (int stroke = 0; stroke < more.size(); stroke++) {
+			log.append(more, stroke);
+		}
+
+		for (float scale : new float[]{1, 0.5f}) {
+			int[] expected = blank(WIDTH, HEIGHT);
+			int[] actual = blank(WIDTH, HEIGHT);
+			new StrokeRasterizer().render(log, 0, log.size(), expected, WIDTH, HEIGHT, scale);
+			new StrokeRasterizer(pool).render(log, 0, log.size(), actual, WIDTH, HEIGHT, scale);
+
+			assertArrayEquals("scale " + scale, expected, actual);
+		}
+	}
+
+	@Test
+	public void opaqueStrokeCoversItsWidth() {
+		StrokeLog log = new StrokeLog();
+		log.append(BLACK, 10, 0, new float[]{20, 50, 80, 50}, 0, 2);
+		int[] pixels = blank(100, 100);
+		new StrokeRasterizer().render(log, 0, 1, pixels, 100, 100, 1);
+
+		assertEquals(BLACK, pixels[50 * 100 + 50]);
+		assertEquals(BLACK, pixels[46 * 100 + 50]);
+		// round caps reach half the width past the end points
+		assertEquals(BLACK, pixels[50 * 100 + 83]);
+		assertEquals(WHITE, pixels[56 * 100 + 50]);
+		assertEquals(WHITE, pixels[50 * 100 + 87]);
+	}
+
+	@Test
+	public void eraserClearsPixels() {
+		StrokeLog log = new StrokeLog();
+		log.append(BLACK, 20, 0, new float[]{10, 50, 90, 50}, 0, 2);
+		log.append(BLACK, 6, StrokeLog.FLAG_ERASE, new float[]{50, 0, 50, 100}, 0, 2);
+		int[] pixels = new int[100 * 100];
+		new StrokeRasterizer().render(log, 0, log.size(), pixels, 100, 100, 1);
+
+		assertEquals(0, pixels[50 * 100 + 50]);
+		assertEquals(BLACK, pixels[50 * 100 + 30]);
+	}
+
+	@Test
+	public void translucentStrokeDoesNotDarkenItsOwnJoins() {
+		StrokeLog log = new StrokeLog();
+		// doubles back over itself
+		log.append(0x80000000, 8, 0, new float[]{20, 50, 80, 50, 20, 50.5f}, 0, 3);
+		int[] pixels = blank(100, 100);
+		new StrokeRasterizer().render(log, 0, 1, pixels, 100, 100, 1);
+
+		assertEquals(pixels[50 * 100 + 30], pixels[50 * 100 + 70]);
+		assertEquals(pixels[50 * 100 + 50], pixels[50 * 100 + 30]);
+	}
+
+	@Test
+	public void segmentBySegmentCoversWholeStroke() {
+		Random random = new Random(5);
+		int width = 200;
+		int height = 200;
+		for (int round = 0; round < 20; round++) {
+			int count = 2 + random.nextInt(40);
+			float[] xy = new float[count * 2];
+			float x = 100, y = 100;
+			for (int i = 0; i < count; i++) {
+				x = Math.max(10, Math.min(190, x + random.nextFloat() * 30 - 15));
+				y = Math.max(10, Math.min(190, y + random.nextFloat() * 30 - 15));
+				xy[i * 2] = x;
+				xy[i * 2 + 1] = y;
+			}
+
+			float strokeWidth = 2 + random.nextFloat() * 14;
+			StrokeLog whole = new StrokeLog();
+			whole.append(BLACK, strokeWidth, 0, xy, 0, count);
+			int[] expected = blank(width, height);
+			new StrokeRasterizer().render(whole, 0, 1, expected, width, height, 1);
+
+			// points arrive in batches, and every flush draws them led by the queued context, as the live stroke is
+			SegmentQueue queue = new SegmentQueue();
+			queue.moveTo(xy[0], xy[1]);
+			StrokeLog segments = new StrokeLog();
+			int[] actual = blank(width, height);
+			StrokeRasterizer rasterizer = new StrokeRasterizer();
+			for (int i = 1; i < count; i++) {
+				queue.append(xy[i * 2], xy[i * 2 + 1]);
+				if (i == count - 1 || random.nextInt(3) == 0) {
+					int segment = segments.append(BLACK, strokeWidth, 0, queue.array(), 0, queue.size());
+					rasterizer.render(segments, segment, segment + 1, actual, width, height, 1);
+					queue.keepContext();
+				}
+			}
+
+			// the context is drawn again by every flush, so only soft edges differ: they blend twice and come out darker
+			for (int i = 0; i < expected.length; i++) {
+				if (expected[i] == actual[i]) {
+					continue;
+				}
+
+				String at = "round " + round + ", pixel " + i % width + "," + i / width;
+				assertTrue(at, expected[i] != WHITE && expected[i] != BLACK);
+				assertTrue(at, (actual[i] & 0xff) < (expected[i] & 0xff));
+			}
+		}
+	}
+
+	private static int[] blank(int width, int height) {
+		int[] pixels = new int[width * height];
+		Arrays.fill(pixels, WHITE);
+		return pixels;
+	}
+
+	private static StrokeLog randomStrokes(Random random, int count) {
+		StrokeLog log = new StrokeLog();
+		for (int stroke = 0; stroke < count; stroke++) {
+			int points = 1 + random.nextInt(20);
+			float[] xy = new float[points * 2];
+			float[] widths = new float[points];
+			float x = random.nextFloat() * WIDTH;
+			float y = random.nextFloat() * HEIGHT;
+			for (int i = 0; i < points; i++) {
+				x += random.nextFloat() * 80 - 40;
+				y += random.nextFloat() * 80 - 40;
+				xy[i * 2] = x;
+				xy[i * 2 + 1] = y;
+				widths[i] = 1 + random.nextFloat() * 20;
+			}
+
+			int color = random.nextInt() | 0x20000000;
+			int flags = random.nextInt(8) == 0 ? StrokeLog.FLAG_ERASE
+				: random.nextBoolean() ? StrokeLog.FLAG_VARIABLE_WIDTH : 0;
+			log.append(color, 1 + random.nextFloat() * 20, flags, xy, widths, 0, points);
+		}
+
+		return log;
+	}
+}
@@ -0,0 +1,210 @@
+package stroke;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * StrokeSimplifier keeping its output within the tolerance of the samples.
+ */
+public class StrokeSimplifierTest {
+
+	/// float rounding allowed on top of the tolerance
+	private static final float SLACK = 1e-3f;
+
+	@Test
+	public void straightLineKeepsItsEnds() {
+		StrokeSimplifier simplifier = new StrokeSimplifier(0.5f);
+		PointBuffer out = new PointBuffer();
+		simplifier.begin(out, 0, 0, 0);
+		for (int i = 1; i < 10; i++) {
+			simplifier.add(i * 3, i * 2, 0);
+		}
+
+		simplifier.end();
+
+		assertEquals(2, out.size());
+		assertEquals(0, out.getX(0), 0);
+		assertEquals(27, out.getX(1), 0);
+		assertEquals(18, out.getY(1), 0);
+	}
+
+	@Test
+	public void longStraightLineIsSplitByTheWindow() {
+		StrokeSimplifier simplifier = new StrokeSimplifier(0.5f);
+		PointBuffer out = new PointBuffer();
+		int samples = 200;
+		simplifier.begin(out, 0, 0, 0);
+		for (int i = 1; i < samples; i++) {
+			simplifier.add(i, 0, 0);
+		}
+
+		simplifier.end();
+
+		// a sample is kept at least every MAX_WINDOW - 1 samples, and nothing leaves the line
+		assertEquals(samples - 1, out.getX(out.size() - 1), 0);
+		for (int i = 1; i < out.size(); i++) {
+			assertEquals(0, out.getY(i), 0);
+			float step = out.getX(i) - out.getX(i - 1);
+			assertTrue("step " + step, step > 0 && step <= StrokeSimplifier.MAX_WINDOW - 1);
+		}
+
+		assertTrue(out.size() < samples / 8);
+	}
+
+	@Test
+	public void singleSampleIsOnePoint() {
+		StrokeSimplifier simplifier = new StrokeSimplifier(1);
+		PointBuffer out = new PointBuffer();
+		simplifier.begin(out, 5, 6, 0);
+		simplifier.end();
+
+		assertEquals(1, out.size());
+	}
+
+	@Test
+	public void outputStaysWithinToleranceOfSamples() {
+		Random random = new Random(23);
+		for (float tolerance : new float[]{0.25f, 1, 4}) {
+			for (int round = 0; round < 30; round++) {
+				float[] samples = trace(random, 50 + random.nextInt(300));
+				PointBuffer out = simplify(new StrokeSimplifier(tolerance), samples);
+
+				String at = "tolerance " + tolerance + ", round " + round;
+				assertEquals(at, samples[0], out.getX(0), 0);
+				assertEquals(at, samples[1], out.getY(0), 0);
+				assertEquals(at, samples[samples.length - 2], out.getX(out.size() - 1), 0);
+				assertEquals(at, samples[samples.length - 1], out.getY(out.size() - 1), 0);
+
+				float[] points = new float[out.size() * 2];
+				for (int i = 0; i < out.size(); i++) {
+					points[i * 2] = out.getX(i);
+					points[i * 2 + 1] = out.getY(i);
+				}
+
+				for (int i = 0; i < samples.length; i += 2) {
+					float distance = distanceToPolyline(samples[i], samples[i + 1], points);
+					assertTrue(at + ", sample " + i / 2 + " is " + distance + " away", distance <= tolerance + SLACK);
+				}
+
+				for (int i = 0; i < points.length; i += 2) {
+					float distance = distanceToPolyline(points[i], points[i + 1], samples);
+					assertTrue(at + ", point " + i / 2 + " is " + distance + " away", distance <= tolerance + SLACK);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void largerToleranceKeepsFewerPoints() {
+		float[] samples = trace(new Random(29), 500);
+
+		int previous = Integer.MAX_VALUE;
+		for (float tolerance : new float[]{0.1f, 0.5f, 2, 8}) {
+			int kept = simplify(new StrokeSimplifier(tolerance), samples).size();
+			assertTrue("tolerance " + tolerance + " kept " + kept, kept <= previous);
+			previous = kept;
+		}
+
+		assertTrue(previous < samples.length / 2 / 4);
+	}
+
+	@Test
+	public void countersSpanStrokes() {
+		StrokeSimplifier simplifier = new StrokeSimplifier(1);
+		assertEquals(1, simplifier.getReductionRatio(), 0);
+
+		int written = simplify(simplifier, trace(new Random(31), 100)).size();
+		written += simplify(simplifier, trace(new Random(37), 60)).size();
+
+		assertEquals(160, simplifier.getInputCount());
+		assertEquals(written, simplifier.getOutputCount());
+		assertEquals(160f / written, simplifier.getReductionRatio(), 1e-6f);
+	}
+
+	@Test
+	public void widthsFollowThePoints() {
+		StrokeSimplifier simplifier = new StrokeSimplifier(0.5f);
+		PointBuffer out = new PointBuffer();
+		simplifier.begin(out, 0, 0, 4);
+		for (int i = 1; i <= 20; i++) {
+			simplifier.add(i * 2, 0, 4 + i * 0.5f);
+		}
+
+		simplifier.end();
+
+		assertEquals(4, out.getWidth(0), 0);
+		assertEquals(14, out.getWidth(out.size() - 1), 0);
+		for (int i = 0; i < out.size(); i++) {
+			// widths grow along x, as the samples' did
+			assertEquals(4 + out.getX(i) / 4, out.getWidth(i), 2 * 0.5f + SLACK);
+		}
+	}
+
+	@Test
+	public void toleranceMustBePositiveAndFinite() {
+		for (float tolerance : new float[]{0, -1, Float.NaN, Float.POSITIVE_INFINITY}) {
+			try {
+				new StrokeSimplifier(tolerance);
+				fail("Accepted tolerance " + tolerance);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	private static PointBuffer simplify(StrokeSimplifier simplifier, float[] samples) {
+		PointBuffer out = new PointBuffer();
+		simplifier.begin(out, samples[0], samples[1], 0);
+		for (int i = 2; i < samples.length; i += 2) {
+			simplifier.add(samples[i], samples[i + 1], 0);
+		}
+
+		simplifier.end();
+		return out;
+	}
+
+	/**
+	 * a wandering touch trace, speed and direction changing smoothly
+	 */
+	private static float[] trace(Random random, int count) {
+		float[] xy = new float[count * 2];
+		float x = 0, y = 0;
+		double angle = random.nextDouble() * Math.PI * 2;
+		double turn = 0;
+		for (int i = 0; i < count; i++) {
+			turn = Math.max(-0.3, Math.min(0.3, turn + random.nextGaussian() * 0.05));
+			angle += turn;
+			float speed = 0.5f + random.nextFloat() * 6;
+			x += (float) Math.cos(angle) * speed;
+			y += (float) Math.sin(angle) * speed;
+			xy[i * 2] = x;
+			xy[i * 2 + 1] = y;
+		}
+
+		return xy;
+	}
+
+	private static float distanceToPolyline(float x, float y, float[] xy) {
+		float best = Float.MAX_VALUE;
+		for (int i = 0; i + 2 < xy.length || i == 0; i += 2) {
+			int j = Math.min(i + 2, xy.length - 2);
+			best = Math.min(best, distanceToSegment(x, y, xy[i], xy[i + 1], xy[j], xy[j + 1]));
+		}
+
+		return best;
+	}
+
+	private static float distanceToSegment(float x, float y, float ax, float ay, float bx, float by) {
+		float dx = bx - ax;
+		float dy = by - ay;
+		float lengthSquared = dx * dx + dy * dy;
+		float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / lengthSquared));
+		float ex = x - ax - t * dx;
+		float ey = y - ay - t * dy;
+		return (float) Math.sqrt(ex * ex + ey * ey);
+	}
+}
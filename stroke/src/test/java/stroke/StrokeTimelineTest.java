@@ -0,0 +1,144 @@
+package stroke;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * StrokeTimeline merging layers by start time and clamping pauses.
+ */
+public class StrokeTimelineTest {
+
+	/// an arbitrary wall-clock time, late enough to need more than 32 bits
+	private static final long T = 1700000000000L;
+
+	@Test
+	public void layersAreMergedByStartTime() {
+		StrokeLog bottom = new StrokeLog();
+		timed(bottom, T, 100);
+		timed(bottom, T + 500, 100);
+		StrokeLog top = new StrokeLog();
+		timed(top, T + 200, 100);
+		timed(top, T + 800, 100);
+
+		StrokeTimeline timeline = new StrokeTimeline(new StrokeLog[]{bottom, top});
+
+		assertEquals(4, timeline.size());
+		assertOrder(timeline, 0, 0, 1, 0, 0, 1, 1, 1);
+	}
+
+	@Test
+	public void strokesAppearWhenTheirTouchEnds() {
+		StrokeLog log = new StrokeLog();
+		timed(log, T, 100);
+		timed(log, T + 300, 50);
+
+		StrokeTimeline timeline = new StrokeTimeline(new StrokeLog[]{log});
+
+		// the first stroke starts the clock, the 200 ms pause is kept
+		assertEquals(100, timeline.getEndTime(0));
+		assertEquals(350, timeline.getEndTime(1));
+		assertEquals(350, timeline.getDuration());
+	}
+
+	@Test
+	public void longPausesAreClamped() {
+		StrokeLog log = new StrokeLog();
+		timed(log, T, 100);
+		// continued 30 days later
+		timed(log, T + 30L * 24 * 60 * 60 * 1000, 100);
+
+		StrokeTimeline timeline = new StrokeTimeline(new StrokeLog[]{log});
+
+		assertEquals(100 + StrokeTimeline.MAX_PAUSE + 100, timeline.getEndTime(1));
+	}
+
+	@Test
+	public void overlappingStrokesDoNotRewindTheClock() {
+		StrokeLog bottom = new StrokeLog();
+		timed(bottom, T, 1000);
+		StrokeLog top = new StrokeLog();
+		// a second finger, down while the first one still draws
+		timed(top, T + 200, 100);
+
+		StrokeTimeline timeline = new StrokeTimeline(new StrokeLog[]{bottom, top});
+
+		assertEquals(1000, timeline.getEndTime(0));
+		assertEquals(1100, timeline.getEndTime(1));
+	}
+
+	@Test
+	public void untimedStrokesComeFirstAndFollowTheirLayer() {
+		StrokeLog bottom = new StrokeLog();
+		untimed(bottom);
+		timed(bottom, T + 1000, 100);
+		untimed(bottom);
+		StrokeLog top = new StrokeLog();
+		timed(top, T, 100);
+		timed(top, T + 2000, 100);
+
+		StrokeTimeline timeline = new StrokeTimeline(new StrokeLog[]{bottom, top});
+
+		assertOrder(timeline, 0, 0, 1, 0, 0, 1, 0, 2, 1, 1);
+		assertEquals(StrokeTimeline.UNTIMED_DURATION, timeline.getEndTime(0));
+	}
+
+	@Test
+	public void deletedStrokesAreSkipped() {
+		StrokeLog log = new StrokeLog();
+		timed(log, T, 100);
+		int deleted = timed(log, T + 100, 100);
+		timed(log, T + 200, 100);
+		log.setDeleted(deleted, true);
+
+		StrokeTimeline timeline = new StrokeTimeline(new StrokeLog[]{log});
+
+		assertOrder(timeline, 0, 0, 0, 2);
+	}
+
+	@Test
+	public void countAtFindsTheCompleteStrokes() {
+		StrokeLog log = new StrokeLog();
+		timed(log, T, 100);
+		timed(log, T + 100, 100);
+		timed(log, T + 200, 100);
+
+		StrokeTimeline timeline = new StrokeTimeline(new StrokeLog[]{log});
+
+		assertEquals(0, timeline.countAt(-1));
+		assertEquals(0, timeline.countAt(99));
+		assertEquals(1, timeline.countAt(100));
+		assertEquals(2, timeline.countAt(250));
+		assertEquals(3, timeline.countAt(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void emptyLogsMakeAnEmptyTimeline() {
+		StrokeTimeline timeline = new StrokeTimeline(new StrokeLog[]{new StrokeLog(), new StrokeLog()});
+
+		assertEquals(0, timeline.size());
+		assertEquals(0, timeline.getDuration());
+		assertEquals(0, timeline.countAt(1000));
+	}
+
+	private static int timed(StrokeLog log, long startTime, int duration) {
+		int stroke = untimed(log);
+		log.setTime(stroke, startTime, duration);
+		return stroke;
+	}
+
+	private static int untimed(StrokeLog log) {
+		return log.append(0xff000000, 4, 0, new float[]{0, 0, 10, 10}, 0, 2);
+	}
+
+	/**
+	 * @param layerStrokePairs layer and stroke of every replayed stroke, in order
+	 */
+	private static void assertOrder(StrokeTimeline timeline, int... layerStrokePairs) {
+		assertEquals(layerStrokePairs.length / 2, timeline.size());
+		for (int i = 0; i < timeline.size(); i++) {
+			assertEquals("layer of " + i, layerStrokePairs[i * 2], timeline.getLayer(i));
+			assertEquals("stroke of " + i, layerStrokePairs[i * 2 + 1], timeline.getStroke(i));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package stroke;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TouchRingBuffer order, and the slots kept for samples other than moves.
+ */
+public class TouchRingBufferTest {
+
+	private static final int CAPACITY = 64;
+
+	@Test
+	public void samplesComeOutInOrder() {
+		TouchRingBuffer ring = new TouchRingBuffer(CAPACITY);
+		float[] out = new float[CAPACITY * TouchRingBuffer.STRIDE];
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 40; i++) {
+				assertTrue(ring.offer(TouchRingBuffer.TYPE_MOVE, round, i, 7, i * 0.5f));
+			}
+
+			assertEquals(40, ring.drain(out));
+			for (int i = 0; i < 40; i++) {
+				assertEquals(TouchRingBuffer.TYPE_MOVE, out[i * TouchRingBuffer.STRIDE], 0);
+				assertEquals(round, out[i * TouchRingBuffer.STRIDE + 1], 0);
+				assertEquals(i, out[i * TouchRingBuffer.STRIDE + 2], 0);
+				assertEquals(7, out[i * TouchRingBuffer.STRIDE + 3], 0);
+				assertEquals(i * 0.5f, out[i * TouchRingBuffer.STRIDE + 4], 0);
+			}
+
+			assertTrue(ring.isEmpty());
+		}
+	}
+
+	@Test
+	public void controlSamplesGetThroughAFullBuffer() {
+		TouchRingBuffer ring = new TouchRingBuffer(CAPACITY);
+		ring.offer(TouchRingBuffer.TYPE_DOWN, 0, 0, 1);
+		int moves = 0;
+		while (ring.offer(TouchRingBuffer.TYPE_MOVE, moves, 0, 1)) {
+			moves++;
+		}
+
+		// moves stop short of the end, the rest is kept for the samples a stroke is cut by
+		assertEquals(CAPACITY - CAPACITY / 8 - 1, moves);
+		assertTrue(ring.offer(TouchRingBuffer.TYPE_UP, 0, 0, 1));
+		assertTrue(ring.offer(TouchRingBuffer.TYPE_BRUSH, 0xff00, 0xff, 4));
+		assertTrue(ring.offer(TouchRingBuffer.TYPE_BRUSH_STYLE, StrokeLog.BRUSH_ROUND, 0, 0));
+		assertTrue(ring.offer(TouchRingBuffer.TYPE_DOWN, 5, 5, 2));
+		assertFalse(ring.offer(TouchRingBuffer.TYPE_MOVE, 6, 6, 2));
+
+		float[] out = new float[CAPACITY * TouchRingBuffer.STRIDE];
+		int count = ring.drain(out);
+		assertEquals(1 + moves + 4, count);
+		assertEquals(TouchRingBuffer.TYPE_DOWN, out[0], 0);
+		int end = 1 + moves;
+		assertEquals(TouchRingBuffer.TYPE_UP, out[end * TouchRingBuffer.STRIDE], 0);
+		assertEquals(TouchRingBuffer.TYPE_BRUSH, out[(end + 1) * TouchRingBuffer.STRIDE], 0);
+		assertEquals(TouchRingBuffer.TYPE_BRUSH_STYLE, out[(end + 2) * TouchRingBuffer.STRIDE], 0);
+		assertEquals(TouchRingBuffer.TYPE_DOWN, out[(end + 3) * TouchRingBuffer.STRIDE], 0);
+	}
+
+	@Test
+	public void fullBufferRefusesEverySample() {
+		TouchRingBuffer ring = new TouchRingBuffer(CAPACITY);
+		for (int i = 0; i < CAPACITY; i++) {
+			assertTrue(ring.offer(TouchRingBuffer.TYPE_UP, i, 0, 0));
+		}
+
+		assertFalse(ring.offer(TouchRingBuffer.TYPE_UP, 0, 0, 0));
+		assertFalse(ring.offer(TouchRingBuffer.TYPE_MOVE, 0, 0, 0));
+
+		// draining hands the slots back
+		float[] out = new float[4 * TouchRingBuffer.STRIDE];
+		assertEquals(4, ring.drain(out));
+		assertTrue(ring.offer(TouchRingBuffer.TYPE_DOWN, 0, 0, 0));
+	}
+}